@@ -3,6 +3,7 @@ package net.kaaass.zerotierfix;
 import android.app.Activity;
 import android.app.Application;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -12,7 +13,9 @@ import androidx.multidex.MultiDexApplication;
 import net.kaaass.zerotierfix.model.DaoMaster;
 import net.kaaass.zerotierfix.model.DaoSession;
 import net.kaaass.zerotierfix.model.ZTOpenHelper;
+import net.kaaass.zerotierfix.service.IdentityPregenerator;
 import net.kaaass.zerotierfix.util.LogManager;
+import net.kaaass.zerotierfix.util.LogUtil;
 
 /**
  * 主程序入口
@@ -28,12 +31,19 @@ public class ZerotierFixApplication extends MultiDexApplication {
     public void onCreate() {
         super.onCreate();
         Log.i(TAG, "Starting Application");
+
+        // 持久化应用内部日志，进程崩溃后仍可查看
+        LogManager.getInstance().enablePersistence(this);
+        LogUtil.applyPreferences(PreferenceManager.getDefaultSharedPreferences(this));
         
         // 创建 DAO 会话
         this.mDaoSession = new DaoMaster(
                 new ZTOpenHelper(this, "ztfixdb", null)
                         .getWritableDatabase()
         ).newSession();
+
+        // 首次启动时在后台预生成节点身份，缩短首次连接的等待时间
+        IdentityPregenerator.start(this);
         
         // 注册活动生命周期回调，用于跟踪应用状态
         activityLifecycleCallbacks = new AppActivityLifecycleCallbacks();
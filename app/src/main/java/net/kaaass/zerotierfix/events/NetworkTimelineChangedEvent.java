@@ -0,0 +1,11 @@
+package net.kaaass.zerotierfix.events;
+
+import lombok.Data;
+
+/**
+ * 网络加入时间线有新阶段到达事件
+ */
+@Data
+public class NetworkTimelineChangedEvent {
+    private final long networkId;
+}
@@ -0,0 +1,142 @@
+package net.kaaass.zerotierfix.metrics;
+
+import com.zerotier.sdk.NodeStatus;
+import com.zerotier.sdk.Peer;
+import com.zerotier.sdk.PeerRole;
+import com.zerotier.sdk.VirtualNetworkConfig;
+import com.zerotier.sdk.VirtualNetworkStatus;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ZT 核心的状态指标
+ * <p>
+ * 核心自身的指标注册在原生层的 prometheus-cpp-lite 注册表中，SDK 没有提供读取接口。
+ * 此处在导出前通过 SDK 查询节点状态、对端与网络，写入同一注册表中的瞬时值，与应用自身的指标一同导出。
+ */
+public final class CoreMetrics {
+    private static final String PREFIX = "zerotierfix_core_";
+    /**
+     * 最近收到过数据的路径才视为活跃，毫秒。与核心判断路径存活的时间一致
+     */
+    private static final long ACTIVE_PATH_TIMEOUT = 60 * 1000;
+
+    private static final Gauge ONLINE;
+    private static final Gauge[] PEERS = new Gauge[PeerRole.values().length];
+    private static final Gauge DIRECT_PEERS;
+    private static final Gauge ACTIVE_PATHS;
+    private static final Gauge ROOT_LATENCY_MIN;
+    private static final Gauge LEAF_LATENCY_MAX;
+    private static final Gauge[] NETWORKS = new Gauge[VirtualNetworkStatus.values().length];
+
+    static {
+        var registry = MetricsRegistry.getDefault();
+        ONLINE = registry.gauge(PREFIX + "online", "Whether the node is online, 1 or 0");
+        for (var role : PeerRole.values()) {
+            PEERS[role.ordinal()] = registry.gauge(PREFIX + "peers", "Peers known to the node",
+                    "role", label(role.name(), "PEER_ROLE_"));
+        }
+        DIRECT_PEERS = registry.gauge(PREFIX + "direct_peers",
+                "Leaf peers with at least one active direct path");
+        ACTIVE_PATHS = registry.gauge(PREFIX + "active_paths",
+                "Physical paths that received data recently, over all peers");
+        ROOT_LATENCY_MIN = registry.gauge(PREFIX + "root_latency_ms_min",
+                "Lowest latency to a root server, milliseconds, -1 when unknown");
+        LEAF_LATENCY_MAX = registry.gauge(PREFIX + "leaf_latency_ms_max",
+                "Highest latency to a leaf peer, milliseconds, -1 when unknown");
+        for (var status : VirtualNetworkStatus.values()) {
+            NETWORKS[status.ordinal()] = registry.gauge(PREFIX + "networks", "Joined networks by status",
+                    "status", label(status.name(), "NETWORK_STATUS_"));
+        }
+    }
+
+    private CoreMetrics() {
+    }
+
+    private static String label(String name, String prefix) {
+        return name.substring(prefix.length()).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 以节点的当前状态更新指标
+     *
+     * @param status   节点状态
+     * @param peers    全部对端，可为 null
+     * @param networks 已加入网络的配置
+     * @param now      当前时间，毫秒时间戳
+     */
+    public static void update(NodeStatus status, Peer[] peers, List<VirtualNetworkConfig> networks, long now) {
+        ONLINE.set(status != null && status.isOnline() ? 1 : 0);
+
+        var roleCounts = new int[PEERS.length];
+        int directPeers = 0;
+        int activePaths = 0;
+        int rootLatency = -1;
+        int leafLatency = -1;
+        if (peers != null) {
+            for (var peer : peers) {
+                var role = peer.getRole();
+                if (role != null) {
+                    roleCounts[role.ordinal()]++;
+                }
+                int peerActivePaths = 0;
+                var paths = peer.getPaths();
+                if (paths != null) {
+                    for (var path : paths) {
+                        if (now - path.getLastReceive() <= ACTIVE_PATH_TIMEOUT) {
+                            peerActivePaths++;
+                        }
+                    }
+                }
+                activePaths += peerActivePaths;
+                int latency = peer.getLatency();
+                if (role == PeerRole.PEER_ROLE_LEAF) {
+                    if (peerActivePaths > 0) {
+                        directPeers++;
+                    }
+                    if (latency >= 0) {
+                        leafLatency = Math.max(leafLatency, latency);
+                    }
+                } else if (role == PeerRole.PEER_ROLE_PLANET && latency >= 0) {
+                    rootLatency = rootLatency < 0 ? latency : Math.min(rootLatency, latency);
+                }
+            }
+        }
+        for (int i = 0; i < PEERS.length; i++) {
+            PEERS[i].set(roleCounts[i]);
+        }
+        DIRECT_PEERS.set(directPeers);
+        ACTIVE_PATHS.set(activePaths);
+        ROOT_LATENCY_MIN.set(rootLatency);
+        LEAF_LATENCY_MAX.set(leafLatency);
+
+        var networkCounts = new int[NETWORKS.length];
+        for (var config : networks) {
+            var networkStatus = config.getStatus();
+            if (networkStatus != null) {
+                networkCounts[networkStatus.ordinal()]++;
+            }
+        }
+        for (int i = 0; i < NETWORKS.length; i++) {
+            NETWORKS[i].set(networkCounts[i]);
+        }
+    }
+
+    /**
+     * 节点已停止，清零全部指标
+     */
+    public static void clear() {
+        ONLINE.set(0);
+        for (var gauge : PEERS) {
+            gauge.set(0);
+        }
+        DIRECT_PEERS.set(0);
+        ACTIVE_PATHS.set(0);
+        ROOT_LATENCY_MIN.set(-1);
+        LEAF_LATENCY_MAX.set(-1);
+        for (var gauge : NETWORKS) {
+            gauge.set(0);
+        }
+    }
+}
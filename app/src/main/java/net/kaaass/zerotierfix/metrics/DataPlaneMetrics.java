@@ -0,0 +1,282 @@
+package net.kaaass.zerotierfix.metrics;
+
+/**
+ * 数据面指标
+ * <p>
+ * 指标在类加载时注册到 {@link MetricsRegistry#getDefault()}，在进程内累计，服务重启不清零。
+ * 带标签的指标按下标存放在数组中，数据面上直接以下标取得计数器后更新，例如
+ * {@code FRAMES[INBOUND][ethertypeIndex(etherType)].increment()}，不查表、不分配对象。
+ */
+public final class DataPlaneMetrics {
+    private static final String PREFIX = "zerotierfix_";
+
+    /**
+     * 方向下标。入方向为 ZT 网络至本机，出方向为本机至 ZT 网络
+     */
+    public static final int INBOUND = 0;
+    public static final int OUTBOUND = 1;
+    private static final String[] DIRECTIONS = {"inbound", "outbound"};
+
+    /**
+     * 以太网类型下标
+     */
+    public static final int ETHERTYPE_IPV4 = 0;
+    public static final int ETHERTYPE_IPV6 = 1;
+    public static final int ETHERTYPE_ARP = 2;
+    public static final int ETHERTYPE_OTHER = 3;
+    private static final String[] ETHERTYPES = {"ipv4", "ipv6", "arp", "other"};
+
+    /**
+     * 物理链路地址族下标
+     */
+    public static final int FAMILY_IPV4 = 0;
+    public static final int FAMILY_IPV6 = 1;
+    private static final String[] FAMILIES = {"ipv4", "ipv6"};
+
+    /**
+     * 入方向数据帧的丢弃原因下标
+     */
+    public static final int DROP_NO_TUNNEL = 0;
+    public static final int DROP_NO_STREAM = 1;
+    public static final int DROP_NO_NETWORK = 2;
+    public static final int DROP_TUN_WRITE = 3;
+    public static final int DROP_UNSUPPORTED_ETHERTYPE = 4;
+    private static final String[] INBOUND_DROP_REASONS = {
+            "no_tunnel", "no_stream", "no_network", "tun_write", "unsupported_ethertype"};
+
+    /**
+     * 出方向数据包的丢弃原因下标
+     */
+    public static final int DROP_BAD_ADDRESS = 0;
+    public static final int DROP_NO_ROUTE_NETWORK = 1;
+    public static final int DROP_NO_LOCAL_ADDRESS = 2;
+    public static final int DROP_UNKNOWN_IP_VERSION = 3;
+    public static final int DROP_CORE_REJECTED = 4;
+    private static final String[] OUTBOUND_DROP_REASONS = {
+            "bad_address", "no_network", "no_local_address", "unknown_ip_version", "core_rejected"};
+
+    /**
+     * 邻居协议下标
+     */
+    public static final int PROTOCOL_ARP = 0;
+    public static final int PROTOCOL_NDP = 1;
+    private static final String[] PROTOCOLS = {"arp", "ndp"};
+
+    /**
+     * JNI 调用下标
+     */
+    public static final int JNI_PROCESS_VIRTUAL_NETWORK_FRAME = 0;
+    public static final int JNI_PROCESS_WIRE_PACKET = 1;
+    public static final int JNI_PROCESS_BACKGROUND_TASKS = 2;
+    public static final int JNI_MULTICAST_SUBSCRIBE = 3;
+    private static final String[] JNI_CALLS = {
+            "processVirtualNetworkFrame", "processWirePacket", "processBackgroundTasks", "multicastSubscribe"};
+
+    /**
+     * 队列下标
+     */
+    public static final int QUEUE_UDP_RECEIVE = 0;
+    public static final int QUEUE_DATASTORE_WRITE = 1;
+    public static final int QUEUE_TUNNEL_RECONFIGURE = 2;
+    private static final String[] QUEUES = {"udp_receive", "datastore_write", "tunnel_reconfigure"};
+
+    public static final StripedCounter[][] FRAMES = new StripedCounter[DIRECTIONS.length][ETHERTYPES.length];
+    public static final StripedCounter[][] FRAME_BYTES = new StripedCounter[DIRECTIONS.length][ETHERTYPES.length];
+    public static final StripedCounter[] INBOUND_DROPS = new StripedCounter[INBOUND_DROP_REASONS.length];
+    public static final StripedCounter[] OUTBOUND_DROPS = new StripedCounter[OUTBOUND_DROP_REASONS.length];
+
+    public static final StripedCounter[][] WIRE_PACKETS = new StripedCounter[DIRECTIONS.length][FAMILIES.length];
+    public static final StripedCounter[][] WIRE_BYTES = new StripedCounter[DIRECTIONS.length][FAMILIES.length];
+    public static final StripedCounter[] WIRE_SEND_ERRORS = new StripedCounter[FAMILIES.length];
+
+    public static final StripedCounter[] NEIGHBOR_HITS = new StripedCounter[PROTOCOLS.length];
+    public static final StripedCounter[] NEIGHBOR_MISSES = new StripedCounter[PROTOCOLS.length];
+    public static final StripedCounter[] NEIGHBOR_LEARNED = new StripedCounter[PROTOCOLS.length];
+    public static final StripedCounter[] NEIGHBOR_EXPIRED = new StripedCounter[PROTOCOLS.length];
+    public static final StripedCounter[] NEIGHBOR_SOLICITATIONS = new StripedCounter[PROTOCOLS.length];
+
+    public static final StripedCounter[] JNI_CALL_COUNTS = new StripedCounter[JNI_CALLS.length];
+    public static final StripedCounter[] JNI_ERRORS = new StripedCounter[JNI_CALLS.length];
+
+    public static final Gauge[] QUEUE_DEPTH = new Gauge[QUEUES.length];
+    public static final Gauge[] QUEUE_DEPTH_MAX = new Gauge[QUEUES.length];
+
+    public static final StripedCounter BACKGROUND_TASK_RUNS;
+    public static final StripedCounter BACKGROUND_TASK_LATENESS;
+    public static final Gauge BACKGROUND_TASK_LATENESS_MAX;
+
+    /**
+     * 各阶段耗时，纳秒。导出为 Prometheus 格式时换算为秒
+     */
+    public static final LatencyHistogram TUN_READ_TO_SUBMIT;
+    public static final LatencyHistogram PROCESS_VIRTUAL_NETWORK_FRAME_TIME;
+    public static final LatencyHistogram FRAME_TO_TUN_WRITE;
+    public static final LatencyHistogram PROCESS_WIRE_PACKET_TIME;
+    public static final LatencyHistogram DATASTORE_PUT_TIME;
+
+    static {
+        var registry = MetricsRegistry.getDefault();
+        for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+            for (int ethertype = 0; ethertype < ETHERTYPES.length; ethertype++) {
+                FRAMES[direction][ethertype] = registry.counter(PREFIX + "frames_total",
+                        "Ethernet frames exchanged with the virtual network",
+                        "direction", DIRECTIONS[direction], "ethertype", ETHERTYPES[ethertype]);
+            }
+        }
+        for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+            for (int ethertype = 0; ethertype < ETHERTYPES.length; ethertype++) {
+                FRAME_BYTES[direction][ethertype] = registry.counter(PREFIX + "frame_bytes_total",
+                        "Bytes of ethernet frames exchanged with the virtual network",
+                        "direction", DIRECTIONS[direction], "ethertype", ETHERTYPES[ethertype]);
+            }
+        }
+        for (int reason = 0; reason < INBOUND_DROP_REASONS.length; reason++) {
+            INBOUND_DROPS[reason] = registry.counter(PREFIX + "frames_dropped_total",
+                    "Frames and packets dropped by the tunnel adapter",
+                    "direction", DIRECTIONS[INBOUND], "reason", INBOUND_DROP_REASONS[reason]);
+        }
+        for (int reason = 0; reason < OUTBOUND_DROP_REASONS.length; reason++) {
+            OUTBOUND_DROPS[reason] = registry.counter(PREFIX + "frames_dropped_total",
+                    "Frames and packets dropped by the tunnel adapter",
+                    "direction", DIRECTIONS[OUTBOUND], "reason", OUTBOUND_DROP_REASONS[reason]);
+        }
+
+        for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+            for (int family = 0; family < FAMILIES.length; family++) {
+                WIRE_PACKETS[direction][family] = registry.counter(PREFIX + "wire_packets_total",
+                        "UDP packets exchanged with peers",
+                        "direction", DIRECTIONS[direction], "family", FAMILIES[family]);
+            }
+        }
+        for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+            for (int family = 0; family < FAMILIES.length; family++) {
+                WIRE_BYTES[direction][family] = registry.counter(PREFIX + "wire_bytes_total",
+                        "UDP payload bytes exchanged with peers",
+                        "direction", DIRECTIONS[direction], "family", FAMILIES[family]);
+            }
+        }
+        for (int family = 0; family < FAMILIES.length; family++) {
+            WIRE_SEND_ERRORS[family] = registry.counter(PREFIX + "wire_send_errors_total",
+                    "UDP packets the core asked to send that could not be sent",
+                    "family", FAMILIES[family]);
+        }
+
+        for (int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+            NEIGHBOR_HITS[protocol] = registry.counter(PREFIX + "neighbor_lookups_total",
+                    "Neighbor table lookups for outbound packets",
+                    "protocol", PROTOCOLS[protocol], "result", "hit");
+            NEIGHBOR_MISSES[protocol] = registry.counter(PREFIX + "neighbor_lookups_total",
+                    "Neighbor table lookups for outbound packets",
+                    "protocol", PROTOCOLS[protocol], "result", "miss");
+        }
+        for (int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+            NEIGHBOR_LEARNED[protocol] = registry.counter(PREFIX + "neighbor_learned_total",
+                    "Neighbor table entries learned or refreshed from received frames",
+                    "protocol", PROTOCOLS[protocol]);
+        }
+        for (int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+            NEIGHBOR_EXPIRED[protocol] = registry.counter(PREFIX + "neighbor_expired_total",
+                    "Neighbor table entries removed after timeout",
+                    "protocol", PROTOCOLS[protocol]);
+        }
+        for (int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+            NEIGHBOR_SOLICITATIONS[protocol] = registry.counter(PREFIX + "neighbor_solicitations_total",
+                    "ARP requests and neighbor solicitations sent to resolve unknown destinations",
+                    "protocol", PROTOCOLS[protocol]);
+        }
+
+        for (int call = 0; call < JNI_CALLS.length; call++) {
+            JNI_CALL_COUNTS[call] = registry.counter(PREFIX + "jni_calls_total",
+                    "Calls into the native core", "call", JNI_CALLS[call]);
+        }
+        for (int call = 0; call < JNI_CALLS.length; call++) {
+            JNI_ERRORS[call] = registry.counter(PREFIX + "jni_errors_total",
+                    "Calls into the native core that did not return RESULT_OK", "call", JNI_CALLS[call]);
+        }
+
+        for (int queue = 0; queue < QUEUES.length; queue++) {
+            QUEUE_DEPTH[queue] = registry.gauge(PREFIX + "queue_depth",
+                    "Most recently observed queue depth", "queue", QUEUES[queue]);
+        }
+        for (int queue = 0; queue < QUEUES.length; queue++) {
+            QUEUE_DEPTH_MAX[queue] = registry.gauge(PREFIX + "queue_depth_max",
+                    "Largest observed queue depth", "queue", QUEUES[queue]);
+        }
+
+        BACKGROUND_TASK_RUNS = registry.counter(PREFIX + "background_task_runs_total",
+                "Runs of the core background tasks");
+        BACKGROUND_TASK_LATENESS = registry.counter(PREFIX + "background_task_lateness_ms_total",
+                "Total time background tasks ran after their deadline, milliseconds");
+        BACKGROUND_TASK_LATENESS_MAX = registry.gauge(PREFIX + "background_task_lateness_ms_max",
+                "Largest time background tasks ran after their deadline, milliseconds");
+
+        var stageHelp = "Time spent in data plane stages";
+        TUN_READ_TO_SUBMIT = registry.histogram(PREFIX + "stage_duration_seconds", stageHelp,
+                "stage", "tun_read_to_submit");
+        PROCESS_VIRTUAL_NETWORK_FRAME_TIME = registry.histogram(PREFIX + "stage_duration_seconds", stageHelp,
+                "stage", "process_virtual_network_frame");
+        FRAME_TO_TUN_WRITE = registry.histogram(PREFIX + "stage_duration_seconds", stageHelp,
+                "stage", "frame_to_tun_write");
+        PROCESS_WIRE_PACKET_TIME = registry.histogram(PREFIX + "stage_duration_seconds", stageHelp,
+                "stage", "process_wire_packet");
+        DATASTORE_PUT_TIME = registry.histogram(PREFIX + "stage_duration_seconds", stageHelp,
+                "stage", "datastore_put");
+    }
+
+    private DataPlaneMetrics() {
+    }
+
+    /**
+     * 以太网类型对应的下标
+     */
+    public static int ethertypeIndex(long etherType) {
+        if (etherType == 0x0800) {
+            return ETHERTYPE_IPV4;
+        } else if (etherType == 0x86DD) {
+            return ETHERTYPE_IPV6;
+        } else if (etherType == 0x0806) {
+            return ETHERTYPE_ARP;
+        }
+        return ETHERTYPE_OTHER;
+    }
+
+    /**
+     * 记录一次数据帧收发
+     */
+    public static void recordFrame(int direction, long etherType, int length) {
+        int ethertype = ethertypeIndex(etherType);
+        FRAMES[direction][ethertype].increment();
+        FRAME_BYTES[direction][ethertype].add(length);
+    }
+
+    /**
+     * 记录一次 JNI 调用
+     *
+     * @param ok 调用是否成功
+     */
+    public static void recordJniCall(int call, boolean ok) {
+        JNI_CALL_COUNTS[call].increment();
+        if (!ok) {
+            JNI_ERRORS[call].increment();
+        }
+    }
+
+    /**
+     * 记录观察到的队列深度
+     */
+    public static void recordQueueDepth(int queue, long depth) {
+        QUEUE_DEPTH[queue].set(depth);
+        QUEUE_DEPTH_MAX[queue].updateMax(depth);
+    }
+
+    /**
+     * 入方向丢弃的数据帧总数
+     */
+    public static long getInboundDrops() {
+        long sum = 0;
+        for (var counter : INBOUND_DROPS) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,40 @@
+package net.kaaass.zerotierfix.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可增可减的瞬时值，如队列深度、最大延迟
+ */
+public final class Gauge {
+    private final AtomicLong value = new AtomicLong();
+
+    Gauge() {
+    }
+
+    public void set(long newValue) {
+        this.value.set(newValue);
+    }
+
+    public void add(long delta) {
+        this.value.addAndGet(delta);
+    }
+
+    /**
+     * 大于当前值时更新，用于记录最大值
+     */
+    public void updateMax(long candidate) {
+        long current;
+        do {
+            current = this.value.get();
+        } while (candidate > current && !this.value.compareAndSet(current, candidate));
+    }
+
+    public long get() {
+        return this.value.get();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
@@ -0,0 +1,226 @@
+package net.kaaass.zerotierfix.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存的对数线性延迟分布，取值单位为纳秒
+ * <p>
+ * 与 HdrHistogram 的分桶方式相同：小于 {@link #SUB_BUCKETS} 的值各占一个桶；更大的值按最高位所在的
+ * 2 的幂分段，每段再等分为 {@link #SUB_BUCKETS} 个桶，相对误差不超过 1/{@link #SUB_BUCKETS}。
+ * 超过 {@link #MAX_TRACKABLE} 的值计入最后一个桶。全部桶在创建时分配，记录时只做一次下标计算和
+ * 两次原子加，不分配对象，可由多个线程同时记录。
+ * <p>
+ * 读取时复制为 {@link Snapshot}，快照之间可以合并，并按分位数导出。
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    /**
+     * 每个 2 的幂分段内的桶数
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 37;
+    /**
+     * 可区分的最大值，约 137 秒
+     */
+    public static final long MAX_TRACKABLE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * 值所在桶的下标
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value > MAX_TRACKABLE) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * 桶内的最小值
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << shift;
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        return bucketLowerBound(index) + (1L << (index / SUB_BUCKETS - 1)) - 1;
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时，纳秒。负值按 0 记录
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.counts.getAndIncrement(bucketIndex(nanos));
+        this.sum.getAndAdd(nanos);
+        if (nanos > this.max.get()) {
+            long current;
+            do {
+                current = this.max.get();
+            } while (nanos > current && !this.max.compareAndSet(current, nanos));
+        }
+    }
+
+    /**
+     * 复制当前分布
+     */
+    public Snapshot snapshot() {
+        var copy = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = this.counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, this.sum.get(), this.max.get());
+    }
+
+    /**
+     * 清零。与记录同时进行时，清零期间记录的值可能部分保留
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts.set(i, 0);
+        }
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * 某一时刻的分布
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * 空分布
+         */
+        public static Snapshot empty() {
+            return new Snapshot(new long[BUCKET_COUNT], 0, 0, 0);
+        }
+
+        /**
+         * 与另一分布合并，例如合并多个线程、多个阶段或多次导出的记录
+         */
+        public Snapshot merge(Snapshot other) {
+            var merged = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                merged[i] = this.counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, this.count + other.count, this.sum + other.sum,
+                    Math.max(this.max, other.max));
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * 全部记录之和，纳秒
+         */
+        public long getSum() {
+            return this.sum;
+        }
+
+        /**
+         * 最大值，纳秒
+         */
+        public long getMax() {
+            return this.max;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? 0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * 分位数，取所在桶的最大值，不超过记录到的最大值
+         *
+         * @param quantile 0 至 1
+         * @return 纳秒，无记录时为 0
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (this.count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), this.max);
+                }
+            }
+            return this.max;
+        }
+
+        /**
+         * 不大于 {@code value} 的记录数，用于按固定边界导出。边界落在桶中间时整桶计入较大的一侧，
+         * 误差不超过一个桶
+         */
+        public long countAtOrBelow(long value) {
+            if (value < 0) {
+                return 0;
+            }
+            if (value >= this.max) {
+                return this.count;
+            }
+            int last = bucketIndex(value);
+            long seen = 0;
+            for (int i = 0; i < last; i++) {
+                seen += this.counts[i];
+            }
+            if (bucketUpperBound(last) <= value) {
+                seen += this.counts[last];
+            }
+            return seen;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "count %d, mean %.1f us, p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                    this.count, getMean() / 1000, getValueAtQuantile(0.5) / 1000.0,
+                    getValueAtQuantile(0.9) / 1000.0, getValueAtQuantile(0.99) / 1000.0,
+                    getValueAtQuantile(0.999) / 1000.0, this.max / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package net.kaaass.zerotierfix.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 指标注册表
+ * <p>
+ * 指标以名称和标签区分，在进程内注册一次，此后由持有者直接更新，更新路径上不查表。
+ * 同名指标应连续注册，导出时按注册顺序输出。快照只读取各指标的当前值，不阻塞更新。
+ */
+public final class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> entriesByKey = new HashMap<>();
+
+    /**
+     * 指标类型
+     */
+    public enum Type {
+        /**
+         * 只增不减的计数
+         */
+        COUNTER,
+        /**
+         * 瞬时值
+         */
+        GAUGE,
+        /**
+         * 延迟分布
+         */
+        HISTOGRAM
+    }
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 注册计数器。同名同标签的计数器已存在时返回已有的
+     *
+     * @param name   指标名
+     * @param help   指标说明
+     * @param labels 标签名与标签值交替排列
+     */
+    public StripedCounter counter(String name, String help, String... labels) {
+        return (StripedCounter) register(Type.COUNTER, name, help, labels);
+    }
+
+    /**
+     * 注册瞬时值。同名同标签的瞬时值已存在时返回已有的
+     *
+     * @see #counter
+     */
+    public Gauge gauge(String name, String help, String... labels) {
+        return (Gauge) register(Type.GAUGE, name, help, labels);
+    }
+
+    /**
+     * 注册延迟分布。同名同标签的分布已存在时返回已有的
+     *
+     * @see #counter
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) register(Type.HISTOGRAM, name, help, labels);
+    }
+
+    /**
+     * 清零全部延迟分布，计数器与瞬时值不受影响
+     */
+    public void resetHistograms() {
+        List<Entry> current;
+        synchronized (this) {
+            current = new ArrayList<>(this.entries);
+        }
+        for (var entry : current) {
+            if (entry.type == Type.HISTOGRAM) {
+                ((LatencyHistogram) entry.metric).reset();
+            }
+        }
+    }
+
+    private synchronized Object register(Type type, String name, String help, String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs: " + name);
+        }
+        var key = name + formatLabels(labels);
+        var existing = this.entriesByKey.get(key);
+        if (existing != null) {
+            if (existing.type != type) {
+                throw new IllegalArgumentException("Metric registered with another type: " + key);
+            }
+            return existing.metric;
+        }
+        Object metric;
+        switch (type) {
+            case COUNTER:
+                metric = new StripedCounter();
+                break;
+            case GAUGE:
+                metric = new Gauge();
+                break;
+            default:
+                metric = new LatencyHistogram();
+                break;
+        }
+        var entry = new Entry(type, name, help, labels.clone(), metric);
+        this.entries.add(entry);
+        this.entriesByKey.put(key, entry);
+        return metric;
+    }
+
+    /**
+     * 读取全部指标的当前值
+     */
+    public Snapshot snapshot() {
+        List<Entry> current;
+        synchronized (this) {
+            current = new ArrayList<>(this.entries);
+        }
+        var samples = new ArrayList<Sample>(current.size());
+        for (var entry : current) {
+            switch (entry.type) {
+                case COUNTER:
+                    samples.add(new Sample(entry, ((StripedCounter) entry.metric).sum(), null));
+                    break;
+                case GAUGE:
+                    samples.add(new Sample(entry, ((Gauge) entry.metric).get(), null));
+                    break;
+                default:
+                    var histogram = ((LatencyHistogram) entry.metric).snapshot();
+                    samples.add(new Sample(entry, histogram.getCount(), histogram));
+                    break;
+            }
+        }
+        return new Snapshot(System.currentTimeMillis(), samples);
+    }
+
+    /**
+     * 标签格式化为 {@code {name="value",...}}，无标签时为空串
+     */
+    static String formatLabels(String[] labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        var builder = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    private static final class Entry {
+        final Type type;
+        final String name;
+        final String help;
+        final String[] labels;
+        final Object metric;
+
+        Entry(Type type, String name, String help, String[] labels, Object metric) {
+            this.type = type;
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+            this.metric = metric;
+        }
+    }
+
+    /**
+     * 单个指标的取值
+     */
+    public static final class Sample {
+        private final Entry entry;
+        private final long value;
+        private final LatencyHistogram.Snapshot histogram;
+
+        Sample(Entry entry, long value, LatencyHistogram.Snapshot histogram) {
+            this.entry = entry;
+            this.value = value;
+            this.histogram = histogram;
+        }
+
+        public Type getType() {
+            return this.entry.type;
+        }
+
+        public String getName() {
+            return this.entry.name;
+        }
+
+        public String getHelp() {
+            return this.entry.help;
+        }
+
+        /**
+         * 标签名与标签值交替排列
+         */
+        public String[] getLabels() {
+            return this.entry.labels.clone();
+        }
+
+        /**
+         * 计数器与瞬时值的取值；延迟分布为记录数
+         */
+        public long getValue() {
+            return this.value;
+        }
+
+        /**
+         * 延迟分布的取值，其他类型为 null
+         */
+        public LatencyHistogram.Snapshot getHistogram() {
+            return this.histogram;
+        }
+
+        @Override
+        public String toString() {
+            var value = this.histogram != null ? this.histogram.toString() : Long.toString(this.value);
+            return this.entry.name + formatLabels(this.entry.labels) + " " + value;
+        }
+    }
+
+    /**
+     * 全部指标某一时刻的取值
+     */
+    public static final class Snapshot {
+        private final long time;
+        private final List<Sample> samples;
+
+        Snapshot(long time, List<Sample> samples) {
+            this.time = time;
+            this.samples = Collections.unmodifiableList(samples);
+        }
+
+        /**
+         * 快照时间，毫秒时间戳
+         */
+        public long getTime() {
+            return this.time;
+        }
+
+        public List<Sample> getSamples() {
+            return this.samples;
+        }
+
+        /**
+         * 每个指标一行，省略值为 0 的计数器与没有记录的延迟分布
+         */
+        public List<String> format() {
+            var lines = new ArrayList<String>(this.samples.size());
+            for (var sample : this.samples) {
+                if (sample.getType() != Type.GAUGE && sample.value == 0) {
+                    continue;
+                }
+                lines.add(sample.toString());
+            }
+            return lines;
+        }
+    }
+}
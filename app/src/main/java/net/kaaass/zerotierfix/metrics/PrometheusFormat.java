@@ -0,0 +1,92 @@
+package net.kaaass.zerotierfix.metrics;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+/**
+ * 按 Prometheus 文本格式（0.0.4）输出指标快照
+ * <p>
+ * 延迟分布以纳秒记录，输出时换算为秒，并按固定的边界 {@link #BUCKET_BOUNDS} 输出累计桶，
+ * 使不同设备、不同版本导出的分布可以直接比较与聚合。
+ */
+public final class PrometheusFormat {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * 延迟分布的桶边界，秒
+     */
+    private static final double[] BUCKET_BOUNDS = {
+            0.000001, 0.0000025, 0.000005, 0.00001, 0.000025, 0.00005,
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005,
+            0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private PrometheusFormat() {
+    }
+
+    /**
+     * 输出全部指标，同名指标共用一组 HELP 与 TYPE 注释
+     */
+    public static String format(MetricsRegistry.Snapshot snapshot) {
+        var builder = new StringBuilder(16 * 1024);
+        String previousName = null;
+        for (var sample : snapshot.getSamples()) {
+            var name = sample.getName();
+            if (!name.equals(previousName)) {
+                builder.append("# HELP ").append(name).append(' ').append(escapeHelp(sample.getHelp())).append('\n');
+                builder.append("# TYPE ").append(name).append(' ')
+                        .append(sample.getType().name().toLowerCase(Locale.ROOT)).append('\n');
+                previousName = name;
+            }
+            var labels = sample.getLabels();
+            var histogram = sample.getHistogram();
+            if (histogram == null) {
+                appendSample(builder, name, labels, null, Long.toString(sample.getValue()));
+                continue;
+            }
+            for (double bound : BUCKET_BOUNDS) {
+                long count = histogram.countAtOrBelow(Math.round(bound * 1e9));
+                appendSample(builder, name + "_bucket", labels, formatBound(bound), Long.toString(count));
+            }
+            appendSample(builder, name + "_bucket", labels, "+Inf", Long.toString(histogram.getCount()));
+            appendSample(builder, name + "_sum", labels, null, Double.toString(histogram.getSum() / 1e9));
+            appendSample(builder, name + "_count", labels, null, Long.toString(histogram.getCount()));
+        }
+        return builder.toString();
+    }
+
+    private static void appendSample(StringBuilder builder, String name, String[] labels, String le, String value) {
+        builder.append(name);
+        if (labels.length > 0 || le != null) {
+            builder.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+            }
+            if (le != null) {
+                if (labels.length > 0) {
+                    builder.append(',');
+                }
+                builder.append("le=\"").append(le).append('"');
+            }
+            builder.append('}');
+        }
+        builder.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * 桶边界不使用科学计数法，与常见客户端库的输出一致
+     */
+    private static String formatBound(double bound) {
+        return BigDecimal.valueOf(bound).stripTrailingZeros().toPlainString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
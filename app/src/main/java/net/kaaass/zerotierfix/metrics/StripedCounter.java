@@ -0,0 +1,69 @@
+package net.kaaass.zerotierfix.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分片的无锁计数器
+ * <p>
+ * 计数分散在若干分片中，写入线程按线程 ID 的散列选择分片，以一次原子加更新，
+ * 不同线程的写入通常落在不同的缓存行上，互不争用。读取时将全部分片求和，
+ * 结果不是某一时刻的精确快照，但不会丢失已完成的写入。
+ * <p>
+ * 与 {@code java.util.concurrent.atomic.LongAdder} 思路相同，后者需要 API 24。
+ */
+public final class StripedCounter {
+    /**
+     * 每个分片占用的 long 数，使相邻分片位于不同的 64 字节缓存行
+     */
+    private static final int PADDING = 8;
+    private static final int STRIPES = stripeCount();
+    private static final int MASK = STRIPES - 1;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    StripedCounter() {
+    }
+
+    /**
+     * 分片数取不小于处理器数的 2 的幂，至多 8 个。数据面上并发写入的线程只有 TUN、UDP、
+     * 服务线程等少数几个，更多的分片只会增加求和的开销
+     */
+    private static int stripeCount() {
+        int processors = Math.max(1, Runtime.getRuntime().availableProcessors());
+        int stripes = 1;
+        while (stripes < processors && stripes < 8) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static int index() {
+        // 线程 ID 通常连续分配，乘以黄金分割常数后取高位，使相邻 ID 分散到不同分片
+        long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (hash >>> 32) & MASK) * PADDING;
+    }
+
+    public void increment() {
+        this.cells.getAndIncrement(index());
+    }
+
+    public void add(long delta) {
+        this.cells.getAndAdd(index(), delta);
+    }
+
+    /**
+     * 当前计数
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += this.cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
@@ -22,6 +22,15 @@ public class ARPEntry {
         updateTime();
     }
 
+    /**
+     * 以指定的记录时间创建表项，用于恢复保存的邻居缓存
+     */
+    ARPEntry(long mac, InetAddress inetAddress, long time) {
+        this.mac = mac;
+        this.address = inetAddress;
+        this.time = time;
+    }
+
     public void updateTime() {
         this.time = System.currentTimeMillis();
     }
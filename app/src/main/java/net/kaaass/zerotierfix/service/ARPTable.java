@@ -2,9 +2,13 @@ package net.kaaass.zerotierfix.service;
 
 import android.util.Log;
 
+import net.kaaass.zerotierfix.metrics.DataPlaneMetrics;
+
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -37,6 +41,7 @@ public class ARPTable {
                                 inetAddressToMacAddress.remove(arpEntry.getAddress());
                                 entriesMap.remove(arpEntry.getMac());
                                 ipEntriesMap.remove(arpEntry.getAddress());
+                                DataPlaneMetrics.NEIGHBOR_EXPIRED[DataPlaneMetrics.PROTOCOL_ARP].increment();
                             }
                         }
                         Thread.sleep(1000);
@@ -64,14 +69,9 @@ public class ARPTable {
         running = false;
         try {
             if (timeoutThread != null && timeoutThread.isAlive()) {
+                // 超时线程在中断后立即退出，且只访问本表，无需等待
                 timeoutThread.interrupt();
-                timeoutThread.join(1000); // 等待最多1秒
-                if (timeoutThread.isAlive()) {
-                    Log.w(TAG, "ARP Timeout Thread did not terminate gracefully");
-                }
             }
-        } catch (InterruptedException ignored) {
-            Thread.currentThread().interrupt(); // 保持中断状态
         } catch (Exception e) {
             Log.e(TAG, "Error stopping ARP Timeout Thread: " + e.getMessage(), e);
         }
@@ -83,6 +83,33 @@ public class ARPTable {
         macAddressToInetAdddress.clear();
     }
 
+    /**
+     * 当前全部表项的副本，用于保存邻居缓存
+     */
+    public List<ARPEntry> getEntries() {
+        var entries = new ArrayList<ARPEntry>(ipEntriesMap.size());
+        for (ARPEntry entry : ipEntriesMap.values()) {
+            entries.add(new ARPEntry(entry.getMac(), entry.getAddress(), entry.getTime()));
+        }
+        return entries;
+    }
+
+    /**
+     * 恢复保存的表项，保留原记录时间，已过期的表项不予恢复
+     *
+     * @return 是否已恢复
+     */
+    public boolean restoreEntry(ARPEntry entry) {
+        if (entry.getAddress() == null || entry.getTime() + ENTRY_TIMEOUT < System.currentTimeMillis()) {
+            return false;
+        }
+        inetAddressToMacAddress.put(entry.getAddress(), entry.getMac());
+        macAddressToInetAdddress.put(entry.getMac(), entry.getAddress());
+        entriesMap.put(entry.getMac(), entry);
+        ipEntriesMap.put(entry.getAddress(), entry);
+        return true;
+    }
+
     /* access modifiers changed from: package-private */
     public void setAddress(InetAddress inetAddress, long j) {
         if (inetAddress == null) {
@@ -93,6 +120,7 @@ public class ARPTable {
         ARPEntry arpEntry = new ARPEntry(j, inetAddress);
         entriesMap.put(j, arpEntry);
         ipEntriesMap.put(inetAddress, arpEntry);
+        DataPlaneMetrics.NEIGHBOR_LEARNED[DataPlaneMetrics.PROTOCOL_ARP].increment();
     }
 
     private void updateArpEntryTime(long j) {
@@ -148,7 +176,13 @@ public class ARPTable {
         if (inetAddress == null) {
             return false;
         }
-        return inetAddressToMacAddress.containsKey(inetAddress);
+        boolean found = inetAddressToMacAddress.containsKey(inetAddress);
+        if (found) {
+            DataPlaneMetrics.NEIGHBOR_HITS[DataPlaneMetrics.PROTOCOL_ARP].increment();
+        } else {
+            DataPlaneMetrics.NEIGHBOR_MISSES[DataPlaneMetrics.PROTOCOL_ARP].increment();
+        }
+        return found;
     }
 
     public boolean hasAddressForMac(long j) {
@@ -0,0 +1,126 @@
+package net.kaaass.zerotierfix.service;
+
+import net.kaaass.zerotierfix.metrics.DataPlaneMetrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ZT 后台任务的截止期调度器
+ * <p>
+ * 截止期由 ZT 核心在每次调用后给出，可能来自服务线程、TUN 线程或 UDP 线程。
+ * 调度线程按截止期等待，当其他线程发布更早的截止期时立即唤醒调度线程。
+ */
+public class BackgroundTaskScheduler {
+    /**
+     * 核心未给出有效截止期时的默认等待时间
+     */
+    private static final long DEFAULT_INTERVAL = 100;
+
+    private final AtomicLong deadline = new AtomicLong(0);
+    private final AtomicLong runCount = new AtomicLong(0);
+    private final AtomicLong totalLateness = new AtomicLong(0);
+    private final AtomicLong maxLateness = new AtomicLong(0);
+    private volatile Thread waiter;
+    private volatile long lastLateness = 0;
+
+    /**
+     * 发布新的截止期。若比当前截止期更早，则唤醒等待中的调度线程
+     *
+     * @param newDeadline 截止期，毫秒时间戳
+     */
+    public void setDeadline(long newDeadline) {
+        if (newDeadline <= 0) {
+            return;
+        }
+        long old = this.deadline.getAndSet(newDeadline);
+        if (newDeadline < old) {
+            var thread = this.waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    public long getDeadline() {
+        return this.deadline.get();
+    }
+
+    /**
+     * 等待至截止期到达
+     *
+     * @return 截止期到达时的当前时间，毫秒时间戳
+     * @throws InterruptedException 等待时线程被中断
+     */
+    public long awaitDeadline() throws InterruptedException {
+        this.waiter = Thread.currentThread();
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                long now = System.currentTimeMillis();
+                long target = this.deadline.get();
+                if (target <= now) {
+                    recordLateness(target > 0 ? now - target : 0);
+                    return now;
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(target - now));
+            }
+        } finally {
+            this.waiter = null;
+        }
+    }
+
+    /**
+     * 记录后台任务执行后核心给出的截止期
+     *
+     * @param now         本次执行的时间
+     * @param newDeadline 核心给出的下一截止期
+     */
+    public void onTasksProcessed(long now, long newDeadline) {
+        if (newDeadline <= now) {
+            // 核心未给出有效截止期，避免忙等
+            newDeadline = now + DEFAULT_INTERVAL;
+        }
+        this.deadline.set(newDeadline);
+    }
+
+    private void recordLateness(long lateness) {
+        this.lastLateness = lateness;
+        this.runCount.incrementAndGet();
+        this.totalLateness.addAndGet(lateness);
+        long max;
+        do {
+            max = this.maxLateness.get();
+        } while (lateness > max && !this.maxLateness.compareAndSet(max, lateness));
+        DataPlaneMetrics.BACKGROUND_TASK_RUNS.increment();
+        DataPlaneMetrics.BACKGROUND_TASK_LATENESS.add(lateness);
+        DataPlaneMetrics.BACKGROUND_TASK_LATENESS_MAX.updateMax(lateness);
+    }
+
+    public long getRunCount() {
+        return this.runCount.get();
+    }
+
+    public long getLastLateness() {
+        return this.lastLateness;
+    }
+
+    public long getMaxLateness() {
+        return this.maxLateness.get();
+    }
+
+    public double getAverageLateness() {
+        long count = this.runCount.get();
+        return count == 0 ? 0 : (double) this.totalLateness.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "runs " + getRunCount() + ", lateness avg " + String.format(Locale.ROOT, "%.2f", getAverageLateness())
+                + " ms, max " + getMaxLateness() + " ms, last " + getLastLateness() + " ms";
+    }
+}
@@ -8,6 +8,7 @@ import androidx.preference.PreferenceManager;
 import com.zerotier.sdk.DataStoreGetListener;
 import com.zerotier.sdk.DataStorePutListener;
 
+import net.kaaass.zerotierfix.metrics.DataPlaneMetrics;
 import net.kaaass.zerotierfix.util.Constants;
 
 import java.io.File;
@@ -15,24 +16,106 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Zerotier 文件数据源
+ * <p>
+ * 写后缓存模式下，读取的文件内容缓存在内存中，与缓存内容相同的写入直接跳过；
+ * 其余写入交由后台线程合并后写入，调用方（ZT 核心的收发线程）无需等待磁盘。
+ * 节点身份等安全文件仍同步写入，确保落盘后才返回。
+ * <p>
+ * 界面会绕过数据源直接替换或删除自定义 Planet 与 Moon 文件，这些文件不缓存、不记录为不存在，
+ * 每次都从磁盘读取，写入也同步进行。
  */
 public class DataStore implements DataStoreGetListener, DataStorePutListener {
 
     private static final String TAG = "DataStore";
+    /**
+     * 待写入文件数上限，超出时在调用线程中同步写入
+     */
+    private static final int MAX_DIRTY = 64;
+    /**
+     * 读取时缓存的文件大小上限，字节
+     */
+    private static final int CACHE_MAX_OBJECT = 64 * 1024;
+    /**
+     * 不小于此大小的文件通过内存映射读取，字节
+     */
+    private static final int MMAP_THRESHOLD = 16 * 1024;
+    /**
+     * Moon 文件所在目录，界面直接读写其中的文件
+     */
+    private static final String MOONS_DIRECTORY = "moons.d/";
 
     private final Context context;
+    private final boolean writeBehind;
+    /**
+     * 已知的文件内容，以文件名为键
+     */
+    private final Map<String, byte[]> cache = new ConcurrentHashMap<>();
+    /**
+     * 已知不存在的文件
+     */
+    private final Set<String> missing = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /**
+     * 已确认存在的目录
+     */
+    private final Set<File> knownDirectories = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /**
+     * 待写入的文件，以文件名为键，同一文件的多次写入只保留最新内容
+     */
+    private final Map<String, byte[]> dirty = new LinkedHashMap<>();
+    /**
+     * 串行化文件写入、删除
+     */
+    private final Object fileLock = new Object();
+    private Thread writerThread;
+    private int writing = 0;
+
+    private final AtomicLong putCount = new AtomicLong();
+    private final AtomicLong avoidedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong offloadedWriteNanos = new AtomicLong();
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong mappedReadCount = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
 
     public DataStore(Context context) {
+        this(context, false);
+    }
+
+    /**
+     * @param writeBehind 是否启用写后缓存模式
+     */
+    public DataStore(Context context, boolean writeBehind) {
         this.context = context;
+        this.writeBehind = writeBehind;
     }
 
     @Override
     public int onDataStorePut(String name, byte[] buffer, boolean secure) {
+        long startTime = System.nanoTime();
+        try {
+            return put(name, buffer, secure);
+        } finally {
+            DataPlaneMetrics.DATASTORE_PUT_TIME.record(System.nanoTime() - startTime);
+        }
+    }
+
+    private int put(String name, byte[] buffer, boolean secure) {
         if (name == null || buffer == null) {
             Log.e(TAG, "写入文件时参数为空: " + (name == null ? "文件名为空" : "缓冲区为空"));
             return -3;
@@ -43,39 +126,179 @@ public class DataStore implements DataStoreGetListener, DataStorePutListener {
         if (hookPlanetFile(name)) {
             return 0;
         }
-        try {
-            if (name.contains("/")) {
-                // 处理路径中的 ".." 和 "." 避免路径遍历漏洞
-                if (name.contains("..")) {
-                    Log.e(TAG, "文件路径不安全: " + name);
-                    return -3;
+        // 处理路径中的 ".." 避免路径遍历漏洞
+        if (name.contains("..")) {
+            Log.e(TAG, "文件路径不安全: " + name);
+            return -3;
+        }
+        this.putCount.incrementAndGet();
+        this.missing.remove(name);
+        if (isMoonFile(name)) {
+            // 可能已被界面删除或替换，不与缓存比较，同步写入
+            synchronized (this.fileLock) {
+                return writeFile(name, buffer);
+            }
+        }
+        if (!this.writeBehind) {
+            synchronized (this.fileLock) {
+                int result = writeFile(name, buffer);
+                if (result == 0 && buffer.length <= CACHE_MAX_OBJECT) {
+                    this.cache.put(name, buffer.clone());
+                } else {
+                    this.cache.remove(name);
                 }
-                
-                // 创建目录
-                File directory = new File(this.context.getFilesDir(), name.substring(0, name.lastIndexOf('/')));
-                if (!directory.exists()) {
-                    boolean created = directory.mkdirs();
-                    if (!created) {
-                        Log.e(TAG, "无法创建目录: " + directory.getAbsolutePath());
-                        return -4;
-                    }
+                return result;
+            }
+        }
+
+        // 缓存与待写入队列在同一锁内更新，队列中的内容始终与缓存一致，
+        // 同一文件的并发写入不会使较旧的内容排在较新的之后
+        var data = buffer.clone();
+        boolean queued = false;
+        synchronized (this.dirty) {
+            // 内容与已知内容相同，无需写入
+            var cached = this.cache.get(name);
+            if (cached != null && Arrays.equals(cached, buffer)) {
+                this.avoidedCount.incrementAndGet();
+                return 0;
+            }
+            this.cache.put(name, data);
+            if (secure) {
+                // 安全文件同步写入
+                this.dirty.remove(name);
+            } else if (this.dirty.containsKey(name)) {
+                this.coalescedCount.incrementAndGet();
+                this.dirty.put(name, data);
+                queued = true;
+            } else if (this.dirty.size() < MAX_DIRTY) {
+                this.dirty.put(name, data);
+                queued = true;
+            }
+            DataPlaneMetrics.recordQueueDepth(DataPlaneMetrics.QUEUE_DATASTORE_WRITE, this.dirty.size());
+            if (queued && this.writerThread == null) {
+                this.writerThread = new Thread(this::runWriter, "DataStore Writer Thread");
+                this.writerThread.start();
+            }
+        }
+        if (queued) {
+            return 0;
+        }
+        // 安全文件或待写入文件过多，在调用线程中同步写入
+        return writeIfCurrent(name, data);
+    }
+
+    private static boolean isMoonFile(String name) {
+        return name.startsWith(MOONS_DIRECTORY);
+    }
+
+    /**
+     * 写入文件，期间已有更新的内容或文件已被删除时跳过，避免旧内容覆盖新内容。
+     * 更新的内容由其写入方负责写入
+     */
+    private int writeIfCurrent(String name, byte[] data) {
+        synchronized (this.fileLock) {
+            if (this.cache.get(name) != data) {
+                return 0;
+            }
+            return writeFile(name, data);
+        }
+    }
+
+    /**
+     * 后台写入线程，写完全部待写入文件后退出
+     */
+    private void runWriter() {
+        while (true) {
+            String name;
+            byte[] data;
+            synchronized (this.dirty) {
+                var iterator = this.dirty.entrySet().iterator();
+                if (!iterator.hasNext()) {
+                    this.writerThread = null;
+                    this.dirty.notifyAll();
+                    return;
                 }
-                
-                // 写入文件
-                File targetFile = new File(directory, name.substring(name.lastIndexOf('/') + 1));
-                try (FileOutputStream fileOutputStream = new FileOutputStream(targetFile)) {
-                    fileOutputStream.write(buffer);
-                    fileOutputStream.flush();
+                var entry = iterator.next();
+                iterator.remove();
+                DataPlaneMetrics.recordQueueDepth(DataPlaneMetrics.QUEUE_DATASTORE_WRITE, this.dirty.size());
+                name = entry.getKey();
+                data = entry.getValue();
+                this.writing++;
+            }
+            try {
+                long startTime = System.nanoTime();
+                writeIfCurrent(name, data);
+                long elapsed = System.nanoTime() - startTime;
+                this.offloadedWriteNanos.addAndGet(elapsed);
+                if (elapsed > this.maxWriteNanos.get()) {
+                    this.maxWriteNanos.set(elapsed);
                 }
-                return 0;
-            } else {
-                // 写入到应用私有存储区
-                try (FileOutputStream openFileOutput = this.context.openFileOutput(name, 0)) {
-                    openFileOutput.write(buffer);
-                    openFileOutput.flush();
+            } finally {
+                synchronized (this.dirty) {
+                    this.writing--;
+                    this.dirty.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * 等待全部待写入文件写入磁盘
+     *
+     * @param timeout 最长等待时间，毫秒
+     * @return 是否已全部写入
+     */
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this.dirty) {
+            while (!this.dirty.isEmpty() || this.writing > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    Log.w(TAG, "Flush timed out, " + this.dirty.size() + " files pending");
+                    return false;
+                }
+                try {
+                    this.dirty.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
                 }
-                return 0;
             }
+        }
+        Log.i(TAG, "Flushed, " + this);
+        return true;
+    }
+
+    /**
+     * 写入文件。先写入临时文件再重命名，避免中断时留下不完整的文件
+     */
+    private int writeFile(String name, byte[] data) {
+        long startTime = System.nanoTime();
+        try {
+            // 创建目录
+            var targetFile = new File(this.context.getFilesDir(), name);
+            var directory = targetFile.getParentFile();
+            if (directory != null && !this.knownDirectories.contains(directory)) {
+                if (!directory.exists() && !directory.mkdirs()) {
+                    Log.e(TAG, "无法创建目录: " + directory.getAbsolutePath());
+                    return -4;
+                }
+                this.knownDirectories.add(directory);
+            }
+
+            // 写入文件
+            var tempFile = new File(directory, targetFile.getName() + ".tmp");
+            try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile)) {
+                fileOutputStream.write(data);
+                fileOutputStream.flush();
+            }
+            if (!tempFile.renameTo(targetFile)) {
+                Log.e(TAG, "无法替换文件: " + targetFile.getAbsolutePath());
+                tempFile.delete();
+                return -2;
+            }
+            this.writeCount.incrementAndGet();
+            return 0;
         } catch (FileNotFoundException e) {
             Log.e(TAG, "文件未找到: " + name, e);
             return -1;
@@ -88,6 +311,8 @@ public class DataStore implements DataStoreGetListener, DataStorePutListener {
         } catch (Exception e4) {
             Log.e(TAG, "未知错误: " + name, e4);
             return -5;
+        } finally {
+            Log.d(TAG, "Wrote " + name + " in " + (System.nanoTime() - startTime) / 1000 + " us");
         }
     }
 
@@ -105,16 +330,20 @@ public class DataStore implements DataStoreGetListener, DataStorePutListener {
         if (hookPlanetFile(name)) {
             return 0;
         }
-        
-        try {
-            if (name.contains("/")) {
-                // 处理路径中的 ".." 和 "." 避免路径遍历漏洞
-                if (name.contains("..")) {
-                    Log.e(TAG, "文件路径不安全: " + name);
-                    return 1;
-                }
-                
-                File file = new File(this.context.getFilesDir(), name);
+        // 处理路径中的 ".." 避免路径遍历漏洞
+        if (name.contains("..")) {
+            Log.e(TAG, "文件路径不安全: " + name);
+            return 1;
+        }
+
+        // 丢弃尚未写入的内容，删除同步进行
+        synchronized (this.dirty) {
+            this.dirty.remove(name);
+            this.cache.remove(name);
+        }
+        synchronized (this.fileLock) {
+            try {
+                var file = new File(this.context.getFilesDir(), name);
                 if (!file.exists()) {
                     deleted = true;
                 } else {
@@ -123,16 +352,14 @@ public class DataStore implements DataStoreGetListener, DataStorePutListener {
                         Log.e(TAG, "无法删除文件: " + file.getAbsolutePath());
                     }
                 }
-            } else {
-                deleted = this.context.deleteFile(name);
-                if (!deleted) {
-                    Log.e(TAG, "无法删除文件: " + name);
+                if (deleted && !isMoonFile(name)) {
+                    this.missing.add(name);
                 }
+                return !deleted ? 1 : 0;
+            } catch (SecurityException e) {
+                Log.e(TAG, "删除文件时权限错误: " + name, e);
+                return 1;
             }
-            return !deleted ? 1 : 0;
-        } catch (SecurityException e) {
-            Log.e(TAG, "删除文件时权限错误: " + name, e);
-            return 1;
         }
     }
 
@@ -144,48 +371,76 @@ public class DataStore implements DataStoreGetListener, DataStorePutListener {
         }
         
         Log.d(TAG, "Reading File: " + name);
-        if (hookPlanetFile(name)) {
+        boolean customPlanet = hookPlanetFile(name);
+        if (customPlanet) {
             name = Constants.FILE_CUSTOM_PLANET;
         }
-        
-        // 读入文件
+        // 处理路径中的 ".." 避免路径遍历漏洞
+        if (name.contains("..")) {
+            Log.e(TAG, "文件路径不安全: " + name);
+            return -3;
+        }
+
+        long startTime = System.nanoTime();
         try {
-            if (name.contains("/")) {
-                // 处理路径中的 ".." 和 "." 避免路径遍历漏洞
-                if (name.contains("..")) {
-                    Log.e(TAG, "文件路径不安全: " + name);
-                    return -3;
-                }
-                
-                // 确保目录存在
-                File directory = new File(this.context.getFilesDir(), name.substring(0, name.lastIndexOf('/')));
-                if (!directory.exists()) {
-                    boolean created = directory.mkdirs();
-                    if (!created) {
-                        Log.e(TAG, "无法创建目录: " + directory.getAbsolutePath());
-                        return -4;
-                    }
-                }
-                
-                File file = new File(directory, name.substring(name.lastIndexOf('/') + 1));
-                if (!file.exists() || !file.isFile() || !file.canRead()) {
-                    Log.w(TAG, "文件不存在或无法读取: " + file.getAbsolutePath());
-                    return 0;
-                }
-                
-                try (FileInputStream fileInputStream = new FileInputStream(file)) {
-                    int read = fileInputStream.read(out_buffer);
-                    return read;
-                }
+            return readFile(name, out_buffer, !customPlanet && !isMoonFile(name));
+        } finally {
+            this.readCount.incrementAndGet();
+            this.readNanos.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 读取文件。小文件优先读取缓存，大文件通过内存映射读取；保证读入完整内容
+     *
+     * @param cacheable 是否可以缓存。自定义 Planet 与 Moon 文件可能被界面直接替换或删除，不予缓存
+     */
+    private long readFile(String name, byte[] outBuffer, boolean cacheable) {
+        boolean inSubdirectory = name.contains("/");
+        if (cacheable) {
+            var cached = this.cache.get(name);
+            if (cached != null && cached.length <= outBuffer.length) {
+                System.arraycopy(cached, 0, outBuffer, 0, cached.length);
+                this.cacheHitCount.incrementAndGet();
+                return cached.length;
+            }
+            if (this.missing.contains(name)) {
+                this.cacheHitCount.incrementAndGet();
+                return inSubdirectory ? 0 : -1;
+            }
+        }
+
+        // 读入文件
+        var file = new File(this.context.getFilesDir(), name);
+        try (var fileInputStream = new FileInputStream(file)) {
+            var channel = fileInputStream.getChannel();
+            long size = channel.size();
+            int length = (int) Math.min(size, outBuffer.length);
+            int read;
+            if (length >= MMAP_THRESHOLD) {
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, length).get(outBuffer, 0, length);
+                this.mappedReadCount.incrementAndGet();
+                read = length;
             } else {
-                try (FileInputStream openFileInput = this.context.openFileInput(name)) {
-                    int read = openFileInput.read(out_buffer);
-                    return read;
+                var buffer = ByteBuffer.wrap(outBuffer, 0, length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        break;
+                    }
                 }
+                read = buffer.position();
             }
+            // 仅缓存完整读入的小文件；期间若有新的写入则以写入内容为准
+            if (cacheable && read == size && read > 0 && read <= CACHE_MAX_OBJECT) {
+                this.cache.putIfAbsent(name, Arrays.copyOf(outBuffer, read));
+            }
+            return read;
         } catch (FileNotFoundException e) {
             Log.w(TAG, "文件未找到: " + name);
-            return -1;
+            if (cacheable) {
+                this.missing.add(name);
+            }
+            return inSubdirectory ? 0 : -1;
         } catch (IOException e) {
             Log.e(TAG, "读取文件时IO异常: " + name, e);
             return -2;
@@ -195,6 +450,37 @@ public class DataStore implements DataStoreGetListener, DataStorePutListener {
         }
     }
 
+    /**
+     * 读取统计，用于测量启动时读取节点身份、Planet、网络配置等文件的耗时
+     */
+    public String describeReads() {
+        return String.format(Locale.ROOT, "reads %d, cache hits %d, mapped %d, total %.2f ms",
+                this.readCount.get(), this.cacheHitCount.get(), this.mappedReadCount.get(),
+                this.readNanos.get() / 1e6);
+    }
+
+    /**
+     * 因内容未变化而跳过的写入次数
+     */
+    public long getAvoidedCount() {
+        return this.avoidedCount.get();
+    }
+
+    /**
+     * 在后台线程中完成的写入耗时总和，即从调用线程移除的耗时，纳秒
+     */
+    public long getOffloadedWriteNanos() {
+        return this.offloadedWriteNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "puts %d, avoided %d, coalesced %d, written %d, "
+                        + "off hot path %.1f ms (max %.2f ms)", this.putCount.get(), this.avoidedCount.get(),
+                this.coalescedCount.get(), this.writeCount.get(), this.offloadedWriteNanos.get() / 1e6,
+                this.maxWriteNanos.get() / 1e6);
+    }
+
     /**
      * 判断自定义 Planet 文件
      */
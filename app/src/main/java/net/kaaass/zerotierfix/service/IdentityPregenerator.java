@@ -0,0 +1,245 @@
+package net.kaaass.zerotierfix.service;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.zerotier.sdk.DataStorePutListener;
+import com.zerotier.sdk.Event;
+import com.zerotier.sdk.EventListener;
+import com.zerotier.sdk.Node;
+import com.zerotier.sdk.PacketSender;
+import com.zerotier.sdk.ResultCode;
+import com.zerotier.sdk.VirtualNetworkConfig;
+import com.zerotier.sdk.VirtualNetworkConfigListener;
+import com.zerotier.sdk.VirtualNetworkConfigOperation;
+import com.zerotier.sdk.VirtualNetworkFrameListener;
+
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+
+/**
+ * 节点身份预生成
+ * <p>
+ * 首次初始化节点时，ZT 核心需要生成节点身份，在低端设备上耗时数秒。应用启动时若尚无身份，
+ * 则在后台线程中以一个不联网的临时节点完成生成，身份经 {@link DataStore} 保存为
+ * identity.secret、identity.public，服务初始化节点时直接读取。
+ * <p>
+ * 服务需要节点身份时若仍在生成，则将生成线程提升至调用方的优先级并限时等待。等待超时后放弃预生成，
+ * 此后临时节点不再写入身份文件，由服务的节点自行生成，两者不会写入不同的身份。
+ */
+public final class IdentityPregenerator {
+    private static final String TAG = "IdentityPregenerator";
+    private static final String IDENTITY_SECRET = "identity.secret";
+    private static final String IDENTITY_PREFIX = "identity.";
+    /**
+     * 服务等待预生成的最长时间，毫秒。服务在主线程中等待，不宜过长
+     */
+    public static final long AWAIT_TIMEOUT = 2000;
+
+    private static Thread thread;
+    private static volatile State state = State.NOT_STARTED;
+    private static volatile long generationTime = -1;
+    /**
+     * 生成线程的系统线程 ID，用于调整优先级。线程尚未运行时为 0
+     */
+    private static volatile int threadId = 0;
+    /**
+     * 服务已放弃等待，临时节点的身份不再写入。由类锁保护
+     */
+    private static boolean abandoned = false;
+
+    private IdentityPregenerator() {
+    }
+
+    /**
+     * 若尚无节点身份，则在后台开始生成
+     */
+    public static synchronized void start(Context context) {
+        if (thread != null || state != State.NOT_STARTED) {
+            return;
+        }
+        var appContext = context.getApplicationContext();
+        if (new File(appContext.getFilesDir(), IDENTITY_SECRET).isFile()) {
+            state = State.EXISTING;
+            return;
+        }
+        state = State.GENERATING;
+        thread = new Thread(() -> {
+            // 先降低优先级再公开线程 ID，避免覆盖等待方的提升
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            threadId = Process.myTid();
+            long startTime = SystemClock.elapsedRealtime();
+            var dataStore = new DataStore(appContext);
+            var putListener = new IdentityGuard(dataStore);
+            var listener = new NoOpListener();
+            var node = new Node(System.currentTimeMillis());
+            var result = node.init(dataStore, putListener, listener, listener, listener, listener, null);
+            node.close();
+            generationTime = SystemClock.elapsedRealtime() - startTime;
+            if (isAbandoned()) {
+                state = State.FAILED;
+                LogUtil.i(TAG, "Identity pregeneration abandoned after " + generationTime + " ms");
+            } else if (result == ResultCode.RESULT_OK) {
+                state = State.PREGENERATED;
+                LogUtil.i(TAG, "Identity pregenerated in " + generationTime + " ms");
+            } else {
+                state = State.FAILED;
+                LogUtil.e(TAG, "Identity pregeneration failed: " + result);
+            }
+        }, "Identity Pregeneration Thread");
+        thread.start();
+    }
+
+    /**
+     * 等待正在进行的预生成结束，避免与服务的节点同时生成不同的身份
+     * <p>
+     * 等待期间生成线程提升至调用方的优先级。超时后放弃预生成，调用方应自行生成身份
+     *
+     * @param timeout 最长等待时间，毫秒
+     * @return 等待的时间，毫秒
+     */
+    public static long awaitCompletion(long timeout) {
+        Thread current;
+        synchronized (IdentityPregenerator.class) {
+            current = thread;
+        }
+        if (current == null || !current.isAlive()) {
+            return 0;
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        boostPriority();
+        try {
+            current.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (current.isAlive()) {
+            synchronized (IdentityPregenerator.class) {
+                abandoned = true;
+            }
+            LogUtil.w(TAG, "Identity pregeneration not finished in " + timeout + " ms, generating in-line");
+        }
+        return SystemClock.elapsedRealtime() - startTime;
+    }
+
+    /**
+     * 将生成线程提升至调用线程的优先级
+     */
+    private static void boostPriority() {
+        int tid = threadId;
+        if (tid == 0) {
+            return;
+        }
+        try {
+            Process.setThreadPriority(tid, Process.getThreadPriority(Process.myTid()));
+        } catch (IllegalArgumentException | SecurityException e) {
+            // 线程已结束
+            LogUtil.w(TAG, "Failed to boost identity pregeneration: " + e.getMessage());
+        }
+    }
+
+    private static synchronized boolean isAbandoned() {
+        return abandoned;
+    }
+
+    public static State getState() {
+        return state;
+    }
+
+    /**
+     * 预生成耗时，毫秒。未进行预生成时为 -1
+     */
+    public static long getGenerationTime() {
+        return generationTime;
+    }
+
+    /**
+     * 预生成状态
+     */
+    public enum State {
+        /**
+         * 未开始
+         */
+        NOT_STARTED,
+        /**
+         * 应用启动时已有身份
+         */
+        EXISTING,
+        /**
+         * 正在生成
+         */
+        GENERATING,
+        /**
+         * 已在后台生成
+         */
+        PREGENERATED,
+        /**
+         * 生成失败，由服务初始化节点时生成
+         */
+        FAILED
+    }
+
+    /**
+     * 临时节点的写入回调。放弃预生成后不再写入身份文件，以服务的节点生成的身份为准
+     */
+    private static final class IdentityGuard implements DataStorePutListener {
+        private final DataStorePutListener delegate;
+
+        IdentityGuard(DataStorePutListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int onDataStorePut(String name, byte[] buffer, boolean secure) {
+            if (!name.startsWith(IDENTITY_PREFIX)) {
+                return this.delegate.onDataStorePut(name, buffer, secure);
+            }
+            // 持锁写入，放弃与写入不会交错
+            synchronized (IdentityPregenerator.class) {
+                if (abandoned) {
+                    return 0;
+                }
+                return this.delegate.onDataStorePut(name, buffer, secure);
+            }
+        }
+
+        @Override
+        public int onDelete(String name) {
+            return this.delegate.onDelete(name);
+        }
+    }
+
+    /**
+     * 临时节点的回调。临时节点不联网，也不加入网络
+     */
+    private static final class NoOpListener implements PacketSender, EventListener,
+            VirtualNetworkFrameListener, VirtualNetworkConfigListener {
+
+        @Override
+        public int onSendPacketRequested(long localSocket, InetSocketAddress remoteAddress, byte[] packetData, int ttl) {
+            return -1;
+        }
+
+        @Override
+        public void onEvent(Event event) {
+        }
+
+        @Override
+        public void onTrace(String message) {
+        }
+
+        @Override
+        public void onVirtualNetworkFrame(long nwid, long srcMac, long destMac, long etherType, long vlanId,
+                                          byte[] frameData) {
+        }
+
+        @Override
+        public int onNetworkConfigurationUpdated(long nwid, VirtualNetworkConfigOperation op,
+                                                 VirtualNetworkConfig config) {
+            return 0;
+        }
+    }
+}
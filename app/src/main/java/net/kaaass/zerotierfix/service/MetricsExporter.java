@@ -0,0 +1,234 @@
+package net.kaaass.zerotierfix.service;
+
+import net.kaaass.zerotierfix.metrics.MetricsRegistry;
+import net.kaaass.zerotierfix.metrics.PrometheusFormat;
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 以 Prometheus 文本格式导出指标
+ * <p>
+ * 定期将全部指标写入文件，供采集程序读取；启用时另在本机回环地址上提供 HTTP 接口，
+ * 仅本设备可访问。每次导出前先调用采集函数刷新核心状态，再读取注册表。
+ */
+public class MetricsExporter {
+    private static final String TAG = "MetricsExporter";
+    /**
+     * 本机 HTTP 接口的端口
+     */
+    public static final int HTTP_PORT = 9110;
+    /**
+     * 写入文件的间隔，毫秒
+     */
+    private static final long DUMP_INTERVAL = 60 * 1000;
+    /**
+     * 读取请求的超时，毫秒。避免未发送请求的连接占住接口线程
+     */
+    private static final int REQUEST_TIMEOUT = 2000;
+    private static final String METRICS_PATH = "/metrics";
+
+    private final File dumpFile;
+    private final int httpPort;
+    private final Runnable collector;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong dumpCount = new AtomicLong(0);
+    private final AtomicLong requestCount = new AtomicLong(0);
+    private volatile ServerSocket serverSocket;
+    private Thread httpThread;
+
+    /**
+     * @param dumpFile  导出文件
+     * @param httpPort  本机 HTTP 接口的端口，为 0 时不提供接口
+     * @param collector 导出前刷新核心状态，可为 null
+     */
+    public MetricsExporter(File dumpFile, int httpPort, Runnable collector) {
+        this.dumpFile = dumpFile;
+        this.httpPort = httpPort;
+        this.collector = collector;
+        ThreadFactory threadFactory = runnable -> {
+            var thread = new Thread(runnable, "Metrics Export Thread");
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * 开始定期写入文件，并按需开启 HTTP 接口
+     */
+    public void start() {
+        this.executor.scheduleWithFixedDelay(this::dump, DUMP_INTERVAL, DUMP_INTERVAL, TimeUnit.MILLISECONDS);
+        if (this.httpPort == 0) {
+            return;
+        }
+        try {
+            var socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.httpPort));
+            this.serverSocket = socket;
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to listen on port " + this.httpPort + ": " + e.getMessage(), e);
+            return;
+        }
+        var thread = new Thread(this::serve, "Metrics HTTP Thread");
+        thread.setDaemon(true);
+        this.httpThread = thread;
+        thread.start();
+        LogUtil.i(TAG, "Serving metrics on http://127.0.0.1:" + this.httpPort + METRICS_PATH);
+    }
+
+    /**
+     * 刷新核心状态并输出全部指标
+     */
+    public synchronized String render() {
+        if (this.collector != null) {
+            try {
+                this.collector.run();
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Failed to collect core metrics: " + e.getMessage(), e);
+            }
+        }
+        return PrometheusFormat.format(MetricsRegistry.getDefault().snapshot());
+    }
+
+    private void dump() {
+        var tempFile = new File(this.dumpFile.getPath() + ".tmp");
+        try {
+            var data = render().getBytes(StandardCharsets.UTF_8);
+            try (var out = new FileOutputStream(tempFile)) {
+                out.write(data);
+            }
+            // 替换而非覆盖，采集程序不会读到写了一半的文件
+            if (!tempFile.renameTo(this.dumpFile)) {
+                LogUtil.w(TAG, "Failed to replace " + this.dumpFile);
+                tempFile.delete();
+                return;
+            }
+            this.dumpCount.incrementAndGet();
+        } catch (Exception e) {
+            LogUtil.e(TAG, "Failed to dump metrics: " + e.getMessage(), e);
+        }
+    }
+
+    private void serve() {
+        var server = this.serverSocket;
+        while (!server.isClosed()) {
+            try (var client = server.accept()) {
+                client.setSoTimeout(REQUEST_TIMEOUT);
+                handle(client);
+            } catch (SocketTimeoutException e) {
+                // 客户端未及时发送请求，放弃该连接
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    LogUtil.w(TAG, "Metrics request failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket client) throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+        var requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        // 读完请求头，接口不接受请求体
+        String header;
+        do {
+            header = reader.readLine();
+        } while (header != null && !header.isEmpty());
+
+        var parts = requestLine.split(" ");
+        var out = client.getOutputStream();
+        if (parts.length < 2) {
+            respond(out, "400 Bad Request", "text/plain", "Bad request\n", true);
+            return;
+        }
+        boolean head = "HEAD".equals(parts[0]);
+        if (!head && !"GET".equals(parts[0])) {
+            respond(out, "405 Method Not Allowed", "text/plain", "Method not allowed\n", true);
+            return;
+        }
+        var path = parts[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        if (!METRICS_PATH.equals(path)) {
+            respond(out, "404 Not Found", "text/plain", "Not found\n", !head);
+            return;
+        }
+        this.requestCount.incrementAndGet();
+        respond(out, "200 OK", PrometheusFormat.CONTENT_TYPE, render(), !head);
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, String body,
+                                boolean withBody) throws IOException {
+        var data = body.getBytes(StandardCharsets.UTF_8);
+        var headers = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + data.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+        if (withBody) {
+            out.write(data);
+        }
+        out.flush();
+    }
+
+    /**
+     * 停止导出，关闭 HTTP 接口
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+        var server = this.serverSocket;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                LogUtil.w(TAG, "Failed to close metrics socket: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 等待正在进行的导出结束
+     *
+     * @param timeout 最长等待时间，毫秒
+     * @return 是否已结束
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        if (!this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        var thread = this.httpThread;
+        if (thread != null) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            return !thread.isAlive();
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "dumps " + this.dumpCount.get() + ", requests " + this.requestCount.get();
+    }
+}
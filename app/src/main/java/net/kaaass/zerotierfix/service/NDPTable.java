@@ -2,11 +2,15 @@ package net.kaaass.zerotierfix.service;
 
 import android.util.Log;
 
+import net.kaaass.zerotierfix.metrics.DataPlaneMetrics;
+
 import net.kaaass.zerotierfix.util.IPPacketUtils;
 
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -38,6 +42,7 @@ public class NDPTable {
                                 inetAddressToMacAddress.remove(ndpEntry.getAddress());
                                 entriesMap.remove(ndpEntry.getMac());
                                 ipEntriesMap.remove(ndpEntry.getAddress());
+                                DataPlaneMetrics.NEIGHBOR_EXPIRED[DataPlaneMetrics.PROTOCOL_NDP].increment();
                             }
                         }
                         Thread.sleep(1000);
@@ -60,14 +65,9 @@ public class NDPTable {
         running = false;
         try {
             if (timeoutThread != null && timeoutThread.isAlive()) {
+                // 超时线程在中断后立即退出，且只访问本表，无需等待
                 timeoutThread.interrupt();
-                timeoutThread.join(1000); // 等待最多1秒
-                if (timeoutThread.isAlive()) {
-                    Log.w(TAG, "NDP Timeout Thread did not terminate gracefully");
-                }
             }
-        } catch (InterruptedException ignored) {
-            Thread.currentThread().interrupt(); // 保持中断状态
         } catch (Exception e) {
             Log.e(TAG, "Error stopping NDP Timeout Thread: " + e.getMessage(), e);
         }
@@ -79,6 +79,33 @@ public class NDPTable {
         macAddressToInetAddress.clear();
     }
 
+    /**
+     * 当前全部表项的副本，用于保存邻居缓存
+     */
+    public List<NDPEntry> getEntries() {
+        var entries = new ArrayList<NDPEntry>(ipEntriesMap.size());
+        for (NDPEntry entry : ipEntriesMap.values()) {
+            entries.add(new NDPEntry(entry.getMac(), entry.getAddress(), entry.getTime()));
+        }
+        return entries;
+    }
+
+    /**
+     * 恢复保存的表项，保留原记录时间，已过期的表项不予恢复
+     *
+     * @return 是否已恢复
+     */
+    public boolean restoreEntry(NDPEntry entry) {
+        if (entry.getAddress() == null || entry.getTime() + ENTRY_TIMEOUT < System.currentTimeMillis()) {
+            return false;
+        }
+        inetAddressToMacAddress.put(entry.getAddress(), entry.getMac());
+        macAddressToInetAddress.put(entry.getMac(), entry.getAddress());
+        entriesMap.put(entry.getMac(), entry);
+        ipEntriesMap.put(entry.getAddress(), entry);
+        return true;
+    }
+
     /* access modifiers changed from: package-private */
     public void setAddress(InetAddress inetAddress, long j) {
         if (inetAddress == null) {
@@ -89,6 +116,7 @@ public class NDPTable {
         NDPEntry ndpEntry = new NDPEntry(j, inetAddress);
         entriesMap.put(j, ndpEntry);
         ipEntriesMap.put(inetAddress, ndpEntry);
+        DataPlaneMetrics.NEIGHBOR_LEARNED[DataPlaneMetrics.PROTOCOL_NDP].increment();
     }
 
     /* access modifiers changed from: package-private */
@@ -96,7 +124,13 @@ public class NDPTable {
         if (inetAddress == null) {
             return false;
         }
-        return inetAddressToMacAddress.containsKey(inetAddress);
+        boolean found = inetAddressToMacAddress.containsKey(inetAddress);
+        if (found) {
+            DataPlaneMetrics.NEIGHBOR_HITS[DataPlaneMetrics.PROTOCOL_NDP].increment();
+        } else {
+            DataPlaneMetrics.NEIGHBOR_MISSES[DataPlaneMetrics.PROTOCOL_NDP].increment();
+        }
+        return found;
     }
 
     /* access modifiers changed from: package-private */
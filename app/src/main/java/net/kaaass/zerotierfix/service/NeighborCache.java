@@ -0,0 +1,178 @@
+package net.kaaass.zerotierfix.service;
+
+import android.content.Context;
+
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 邻居缓存
+ * <p>
+ * 网络从数据面移除或服务停止时保存该网络的 ARP、NDP 表项，再次加入时恢复，
+ * 使重启后的首批数据包无需等待地址解析。表项保留原记录时间，过期后照常淘汰。
+ * 缓存保存在内存中，服务停止时同时写入磁盘，以便服务进程重建后恢复。
+ */
+public class NeighborCache {
+    private static final String TAG = "NeighborCache";
+    private static final String FILE_NAME = "neighbors.cache";
+    private static final int SERIAL_VERSION = 1;
+
+    private final Context context;
+    private final Map<Long, Snapshot> snapshots = new HashMap<>();
+    private boolean loaded = false;
+
+    public NeighborCache(Context context) {
+        this.context = context;
+    }
+
+    private File file() {
+        return new File(this.context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * 保存网络的邻居表项
+     */
+    public synchronized void put(long networkId, List<ARPEntry> arpEntries, List<NDPEntry> ndpEntries) {
+        ensureLoaded();
+        this.snapshots.put(networkId, new Snapshot(arpEntries, ndpEntries));
+    }
+
+    /**
+     * 取出网络的邻居表项
+     *
+     * @return 表项，没有保存时为 null
+     */
+    public synchronized Snapshot get(long networkId) {
+        ensureLoaded();
+        return this.snapshots.get(networkId);
+    }
+
+    /**
+     * 删除网络的邻居表项
+     */
+    public synchronized void remove(long networkId) {
+        ensureLoaded();
+        this.snapshots.remove(networkId);
+    }
+
+    private void ensureLoaded() {
+        if (this.loaded) {
+            return;
+        }
+        this.loaded = true;
+        var file = file();
+        if (!file.isFile()) {
+            return;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != SERIAL_VERSION) {
+                throw new IOException("Unsupported neighbor cache version: " + version);
+            }
+            int networkCount = in.readInt();
+            for (int i = 0; i < networkCount; i++) {
+                long networkId = in.readLong();
+                var arpEntries = new ArrayList<ARPEntry>();
+                int arpCount = in.readInt();
+                for (int j = 0; j < arpCount; j++) {
+                    long mac = in.readLong();
+                    var address = readAddress(in);
+                    arpEntries.add(new ARPEntry(mac, address, in.readLong()));
+                }
+                var ndpEntries = new ArrayList<NDPEntry>();
+                int ndpCount = in.readInt();
+                for (int j = 0; j < ndpCount; j++) {
+                    long mac = in.readLong();
+                    var address = readAddress(in);
+                    ndpEntries.add(new NDPEntry(mac, address, in.readLong()));
+                }
+                this.snapshots.put(networkId, new Snapshot(arpEntries, ndpEntries));
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to read neighbor cache: " + e.getMessage(), e);
+            this.snapshots.clear();
+            file.delete();
+        }
+    }
+
+    /**
+     * 写入磁盘。先写入临时文件再重命名，避免中断时留下不完整的文件
+     */
+    public synchronized void save() {
+        if (!this.loaded) {
+            return;
+        }
+        var file = file();
+        var tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(SERIAL_VERSION);
+            out.writeInt(this.snapshots.size());
+            for (var entry : this.snapshots.entrySet()) {
+                out.writeLong(entry.getKey());
+                var snapshot = entry.getValue();
+                out.writeInt(snapshot.arpEntries.size());
+                for (var arpEntry : snapshot.arpEntries) {
+                    out.writeLong(arpEntry.getMac());
+                    writeAddress(out, arpEntry.getAddress());
+                    out.writeLong(arpEntry.getTime());
+                }
+                out.writeInt(snapshot.ndpEntries.size());
+                for (var ndpEntry : snapshot.ndpEntries) {
+                    out.writeLong(ndpEntry.getMac());
+                    writeAddress(out, ndpEntry.getAddress());
+                    out.writeLong(ndpEntry.getTime());
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to write neighbor cache: " + e.getMessage(), e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            LogUtil.e(TAG, "Failed to replace neighbor cache: " + file);
+            tempFile.delete();
+        }
+    }
+
+    private static void writeAddress(DataOutputStream out, InetAddress address) throws IOException {
+        byte[] raw = address.getAddress();
+        out.writeByte(raw.length);
+        out.write(raw);
+    }
+
+    private static InetAddress readAddress(DataInputStream in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length != 4 && length != 16) {
+            throw new IOException("Invalid address length: " + length);
+        }
+        byte[] raw = new byte[length];
+        in.readFully(raw);
+        return InetAddress.getByAddress(raw);
+    }
+
+    /**
+     * 单个网络保存的邻居表项
+     */
+    public static final class Snapshot {
+        final List<ARPEntry> arpEntries;
+        final List<NDPEntry> ndpEntries;
+
+        Snapshot(List<ARPEntry> arpEntries, List<NDPEntry> ndpEntries) {
+            this.arpEntries = arpEntries;
+            this.ndpEntries = ndpEntries;
+        }
+    }
+}
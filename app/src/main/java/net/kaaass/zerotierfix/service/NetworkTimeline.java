@@ -0,0 +1,226 @@
+package net.kaaass.zerotierfix.service;
+
+import android.os.SystemClock;
+
+import com.zerotier.sdk.util.StringUtils;
+
+import net.kaaass.zerotierfix.events.NetworkTimelineChangedEvent;
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import org.greenrobot.eventbus.EventBus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 网络加入时间线
+ * <p>
+ * 每次加入网络时记录自发起加入至首个数据帧收发的各阶段时间点，用于分析加入缓慢的原因
+ * （控制器不可达、根服务器较远等）。各阶段仅记录首次到达的时间，重复到达不覆盖。
+ * 时间线在进程内保留，服务重启后仍可查看；历史记录数量有限，超出时淘汰最早的记录。
+ */
+public final class NetworkTimeline {
+    private static final String TAG = "NetworkTimeline";
+    /**
+     * 保留的加入记录数，包括正在进行的
+     */
+    private static final int MAX_HISTORY = 16;
+
+    private static final Map<Long, Join> active = new ConcurrentHashMap<>();
+    private static final Deque<Join> history = new ArrayDeque<>();
+
+    private NetworkTimeline() {
+    }
+
+    /**
+     * 发起加入网络，开始新的时间线。该网络上一次加入的时间线随之结束
+     */
+    public static void joinIssued(long networkId) {
+        var join = new Join(networkId);
+        synchronized (history) {
+            var previous = active.put(networkId, join);
+            if (previous != null) {
+                previous.finish();
+            }
+            history.addFirst(join);
+            while (history.size() > MAX_HISTORY) {
+                history.removeLast();
+            }
+        }
+        join.record(Stage.JOIN_ISSUED);
+    }
+
+    /**
+     * 记录阶段到达。网络尚未发起加入或该阶段已记录时不做任何事
+     */
+    public static void record(long networkId, Stage stage) {
+        var join = active.get(networkId);
+        if (join != null) {
+            join.record(stage);
+        }
+    }
+
+    /**
+     * 记录数据帧收发，在每个数据帧的处理路径上调用。已记录时仅需一次查表
+     */
+    public static void recordFrame(long networkId, boolean inbound) {
+        var join = active.get(networkId);
+        if (join == null) {
+            return;
+        }
+        var stage = inbound ? Stage.FIRST_INBOUND_FRAME : Stage.FIRST_OUTBOUND_FRAME;
+        if (join.times.get(stage.ordinal()) == 0) {
+            join.record(stage);
+        }
+    }
+
+    /**
+     * 离开网络或服务停止，结束该网络的时间线
+     */
+    public static void finish(long networkId) {
+        Join join;
+        synchronized (history) {
+            join = active.remove(networkId);
+        }
+        if (join != null) {
+            join.finish();
+            LogUtil.i(TAG, join.toString());
+        }
+    }
+
+    /**
+     * 结束全部网络的时间线
+     */
+    public static void finishAll() {
+        for (var networkId : new ArrayList<>(active.keySet())) {
+            finish(networkId);
+        }
+    }
+
+    /**
+     * 获取网络的加入记录，最近的在前
+     */
+    public static List<Join> getHistory(long networkId) {
+        var result = new ArrayList<Join>();
+        synchronized (history) {
+            for (var join : history) {
+                if (join.networkId == networkId) {
+                    result.add(join);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 加入过程的阶段，按通常的到达顺序排列
+     */
+    public enum Stage {
+        /**
+         * 调用 {@link com.zerotier.sdk.Node#join}
+         */
+        JOIN_ISSUED,
+        /**
+         * 收到 VIRTUAL_NETWORK_CONFIG_OPERATION_UP
+         */
+        CONFIG_UP,
+        /**
+         * 收到首个 VIRTUAL_NETWORK_CONFIG_OPERATION_CONFIG_UPDATE
+         */
+        FIRST_CONFIG_UPDATE,
+        /**
+         * 网络状态首次为 NETWORK_STATUS_OK
+         */
+        STATUS_OK,
+        /**
+         * 承载该网络的隧道已建立
+         */
+        TUNNEL_ESTABLISHED,
+        /**
+         * 首个从 ZT 网络写入 TUN 的数据帧
+         */
+        FIRST_INBOUND_FRAME,
+        /**
+         * 首个从 TUN 发往 ZT 网络的数据帧
+         */
+        FIRST_OUTBOUND_FRAME
+    }
+
+    /**
+     * 一次加入网络的时间线
+     */
+    public static final class Join {
+        private final long networkId;
+        private final long startWallTime = System.currentTimeMillis();
+        private final long startTime = SystemClock.elapsedRealtime();
+        /**
+         * 各阶段的到达时间，相对 {@link #startTime} 加一，0 表示尚未到达
+         */
+        private final AtomicLongArray times = new AtomicLongArray(Stage.values().length);
+        private volatile boolean finished = false;
+
+        private Join(long networkId) {
+            this.networkId = networkId;
+        }
+
+        private void record(Stage stage) {
+            if (this.finished) {
+                return;
+            }
+            long elapsed = SystemClock.elapsedRealtime() - this.startTime + 1;
+            if (!this.times.compareAndSet(stage.ordinal(), 0, elapsed)) {
+                return;
+            }
+            LogUtil.i(TAG, StringUtils.networkIdToString(this.networkId) + " " + stage
+                    + " at +" + (elapsed - 1) + " ms");
+            EventBus.getDefault().post(new NetworkTimelineChangedEvent(this.networkId));
+        }
+
+        private void finish() {
+            this.finished = true;
+        }
+
+        public long getNetworkId() {
+            return this.networkId;
+        }
+
+        /**
+         * 发起加入时的系统时间
+         */
+        public long getStartWallTime() {
+            return this.startWallTime;
+        }
+
+        /**
+         * 阶段相对发起加入的时间，毫秒。尚未到达时为 -1
+         */
+        public long getStageTime(Stage stage) {
+            return this.times.get(stage.ordinal()) - 1;
+        }
+
+        /**
+         * 时间线是否已结束，即已离开网络、重新加入或服务已停止
+         */
+        public boolean isFinished() {
+            return this.finished;
+        }
+
+        @Override
+        public String toString() {
+            var builder = new StringBuilder("Join timeline of ")
+                    .append(StringUtils.networkIdToString(this.networkId)).append(':');
+            for (var stage : Stage.values()) {
+                long time = getStageTime(stage);
+                builder.append(' ').append(stage).append('=')
+                        .append(time < 0 ? "-" : String.format(Locale.ROOT, "%dms", time));
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.kaaass.zerotierfix.service;
+
+import android.os.SystemClock;
+
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并节点状态更新
+ * <p>
+ * 节点状态需通过 JNI 查询后再发布事件，核心事件频繁时逐个发布的开销较大。
+ * 同一间隔内的多次请求合并为一次发布：距上次发布已超过间隔时立即在发布线程中发布，
+ * 否则推迟至间隔结束。发布在独立线程中执行，不阻塞发出请求的核心线程。
+ */
+public class NodeStatusPublisher {
+    private static final String TAG = "NodeStatusPublisher";
+
+    private final long interval;
+    private final Runnable publisher;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    private final AtomicLong requestCount = new AtomicLong(0);
+    private final AtomicLong publishCount = new AtomicLong(0);
+    private volatile long lastPublishTime = 0;
+
+    /**
+     * @param interval  两次发布的最短间隔，毫秒
+     * @param publisher 查询并发布节点状态
+     */
+    public NodeStatusPublisher(long interval, Runnable publisher) {
+        this.interval = interval;
+        this.publisher = publisher;
+        ThreadFactory threadFactory = runnable -> {
+            var thread = new Thread(runnable, "Node Status Thread");
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * 请求发布节点状态
+     */
+    public void request() {
+        this.requestCount.incrementAndGet();
+        if (!this.pending.compareAndSet(false, true)) {
+            // 已有待发布的状态
+            return;
+        }
+        long delay = Math.max(0, this.lastPublishTime + this.interval - SystemClock.elapsedRealtime());
+        try {
+            this.executor.schedule(this::publish, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+            this.pending.set(false);
+        }
+    }
+
+    private void publish() {
+        // 先清除标记，发布期间的请求在下一间隔发布
+        this.pending.set(false);
+        this.lastPublishTime = SystemClock.elapsedRealtime();
+        this.publishCount.incrementAndGet();
+        try {
+            this.publisher.run();
+        } catch (Exception e) {
+            LogUtil.e(TAG, "Failed to publish node status: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 停止发布，丢弃尚未发布的请求
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * 等待正在进行的发布结束
+     *
+     * @param timeout 最长等待时间，毫秒
+     * @return 是否已结束
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        return this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "requests " + this.requestCount.get() + ", published " + this.publishCount.get();
+    }
+}
@@ -0,0 +1,138 @@
+package net.kaaass.zerotierfix.service;
+
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并行停止服务组件
+ * <p>
+ * 先依次向全部组件发出停止信号（关闭文件描述符、中断线程等，均不阻塞），
+ * 再在统一的截止期内等待各组件结束。各组件的停止过程因此同时进行，总耗时取决于最慢的组件，
+ * 而非各组件耗时之和。结束后输出各组件的停止耗时。
+ * <p>
+ * 可由某个组件的线程自身发起停止：该线程不会被中断，需自行退出；调用者已有的中断状态在等待期间暂时清除，
+ * 避免各组件的等待立即失败，结束后恢复。
+ */
+public class ParallelShutdown {
+    private static final String TAG = "ParallelShutdown";
+
+    private final String name;
+    private final List<Component> components = new ArrayList<>();
+
+    public ParallelShutdown(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 添加组件
+     *
+     * @param name   组件名，用于日志
+     * @param signal 发出停止信号，不应阻塞
+     * @param waiter 等待组件结束
+     */
+    public ParallelShutdown add(String name, Runnable signal, Waiter waiter) {
+        this.components.add(new Component(name, signal, waiter));
+        return this;
+    }
+
+    /**
+     * 添加以线程为主体的组件。由该线程自身发起停止时不中断、不等待
+     *
+     * @param signal 发出停止信号，为 null 时仅中断线程
+     */
+    public ParallelShutdown addThread(String name, Thread thread, Runnable signal) {
+        if (thread == null) {
+            return this;
+        }
+        return add(name, () -> {
+            if (signal != null) {
+                signal.run();
+            }
+            if (thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }, timeout -> {
+            if (thread == Thread.currentThread()) {
+                // 由组件线程自身发起停止，返回后即会退出
+                return true;
+            }
+            thread.join(timeout);
+            return !thread.isAlive();
+        });
+    }
+
+    /**
+     * 停止全部组件
+     *
+     * @param timeout 等待全部组件结束的最长时间，毫秒
+     * @return 全部组件是否均已在截止期前结束
+     */
+    public boolean run(long timeout) {
+        long startTime = System.nanoTime();
+        for (var component : this.components) {
+            try {
+                component.signal.run();
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Error signalling " + component.name + ": " + e.getMessage(), e);
+            }
+        }
+
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean interrupted = Thread.interrupted();
+        boolean allStopped = true;
+        var report = new StringBuilder();
+        for (var component : this.components) {
+            boolean stopped;
+            try {
+                long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                stopped = component.waiter.await(remaining);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                stopped = false;
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Error waiting for " + component.name + ": " + e.getMessage(), e);
+                stopped = false;
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            if (!stopped) {
+                allStopped = false;
+                LogUtil.w(TAG, component.name + " did not stop within " + timeout + " ms");
+            }
+            report.append(report.length() == 0 ? "" : ", ")
+                    .append(component.name).append(' ').append(elapsed).append(" ms")
+                    .append(stopped ? "" : " (timed out)");
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        LogUtil.i(TAG, this.name + " stopped in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms: " + report);
+        return allStopped;
+    }
+
+    /**
+     * 等待组件结束
+     */
+    public interface Waiter {
+        /**
+         * @param timeout 最长等待时间，毫秒
+         * @return 组件是否已结束
+         */
+        boolean await(long timeout) throws InterruptedException;
+    }
+
+    private static final class Component {
+        final String name;
+        final Runnable signal;
+        final Waiter waiter;
+
+        Component(String name, Runnable signal, Waiter waiter) {
+            this.name = name;
+            this.signal = signal;
+            this.waiter = waiter;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package net.kaaass.zerotierfix.service;
+
+import android.content.Context;
+import android.system.OsConstants;
+
+import com.zerotier.sdk.PathChecker;
+import com.zerotier.sdk.Peer;
+import com.zerotier.sdk.PeerPhysicalPath;
+import com.zerotier.sdk.PeerRole;
+
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对端直连路径缓存
+ * <p>
+ * 每次启动服务都会创建新的节点，需要经由根服务器重新发现到各对端的直连路径，期间流量只能中转。
+ * 缓存定期记录各对端活跃的物理路径并保存到磁盘；下次启动时作为 {@link PathChecker} 交给 ZT 核心，
+ * 核心找不到对端路径时据此直接尝试缓存的地址，同时服务启动时主动向这些地址发送探测报文打开 NAT 映射。
+ */
+public class PeerPathCache implements PathChecker {
+    private static final String TAG = "PeerPathCache";
+    private static final String FILE_NAME = "peers.cache";
+    private static final int SERIAL_VERSION = 1;
+    /**
+     * 启动后的预热时间，毫秒。期间频繁检查对端路径以测量直连恢复时间
+     */
+    private static final long WARMUP_DURATION = 60 * 1000;
+    private static final long WARMUP_INTERVAL = 1000;
+    /**
+     * 预热结束后记录对端路径的间隔，毫秒
+     */
+    private static final long SNAPSHOT_INTERVAL = 60 * 1000;
+    /**
+     * 最近收到过数据的路径才视为活跃，毫秒
+     */
+    private static final long ACTIVE_PATH_TIMEOUT = 60 * 1000;
+    /**
+     * 超过此时间未活跃的对端不再缓存，毫秒
+     */
+    private static final long MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+    private static final int MAX_PEERS = 256;
+    private static final int MAX_PATHS_PER_PEER = 4;
+
+    private final Context context;
+    /**
+     * 缓存的对端路径，以 ZT 地址为键。值不可变，可在核心回调线程中直接读取
+     */
+    private final Map<Long, CachedPeer> peers = new ConcurrentHashMap<>();
+    /**
+     * 本次启动时缓存中已有的对端
+     */
+    private final Set<Long> hintedPeers = new HashSet<>();
+    /**
+     * 本次启动后已建立直连路径的对端及耗时
+     */
+    private final Map<Long, Long> directPathTimes = new HashMap<>();
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong lookupHitCount = new AtomicLong();
+    private long sessionStartTime = 0;
+    private long nextSnapshotTime = 0;
+    private boolean dirty = false;
+
+    public PeerPathCache(Context context) {
+        this.context = context;
+    }
+
+    private File file() {
+        return new File(this.context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * 服务启动时读取缓存并重置统计
+     *
+     * @param now 当前时间，毫秒时间戳
+     */
+    public synchronized void load(long now) {
+        this.peers.clear();
+        this.hintedPeers.clear();
+        this.directPathTimes.clear();
+        this.lookupCount.set(0);
+        this.lookupHitCount.set(0);
+        this.sessionStartTime = now;
+        this.nextSnapshotTime = now + WARMUP_INTERVAL;
+        this.dirty = false;
+
+        var file = file();
+        if (!file.isFile()) {
+            return;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != SERIAL_VERSION) {
+                throw new IOException("Unsupported peer cache version: " + version);
+            }
+            int peerCount = in.readInt();
+            for (int i = 0; i < peerCount; i++) {
+                var peer = CachedPeer.readFrom(in);
+                if (now - peer.lastReceive() <= MAX_AGE) {
+                    this.peers.put(peer.address, peer);
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to read peer path cache: " + e.getMessage(), e);
+            this.peers.clear();
+            file.delete();
+        }
+        this.hintedPeers.addAll(this.peers.keySet());
+        LogUtil.i(TAG, "Loaded " + this.peers.size() + " cached peers");
+    }
+
+    /**
+     * 全部缓存的路径地址，用于启动时主动探测
+     */
+    public List<InetSocketAddress> endpoints() {
+        var endpoints = new ArrayList<InetSocketAddress>();
+        for (var peer : this.peers.values()) {
+            endpoints.addAll(Arrays.asList(peer.endpoints));
+        }
+        return endpoints;
+    }
+
+    /**
+     * 在服务线程中随后台任务调用，按间隔记录对端路径并测量直连恢复时间
+     *
+     * @param peers 节点当前的对端，由调用方在到期时通过 {@link #isSnapshotDue} 判断后获取
+     * @param now   当前时间，毫秒时间戳
+     */
+    public synchronized void update(Peer[] peers, long now) {
+        boolean warmingUp = now - this.sessionStartTime < WARMUP_DURATION;
+        this.nextSnapshotTime = now + (warmingUp ? WARMUP_INTERVAL : SNAPSHOT_INTERVAL);
+        if (peers != null) {
+            for (var peer : peers) {
+                if (peer.getRole() != PeerRole.PEER_ROLE_LEAF) {
+                    continue;
+                }
+                var cached = CachedPeer.fromPeer(peer, now);
+                if (cached == null) {
+                    continue;
+                }
+                recordDirectPath(peer.getAddress(), cached, now);
+                var old = this.peers.put(peer.getAddress(), cached);
+                if (old == null || !Arrays.equals(old.endpoints, cached.endpoints)) {
+                    this.dirty = true;
+                }
+            }
+        }
+        prune(now);
+        if (this.dirty && !warmingUp) {
+            save();
+        }
+    }
+
+    /**
+     * 是否到了记录对端路径的时间
+     */
+    public synchronized boolean isSnapshotDue(long now) {
+        return this.sessionStartTime > 0 && now >= this.nextSnapshotTime;
+    }
+
+    private void recordDirectPath(long address, CachedPeer peer, long now) {
+        if (this.directPathTimes.containsKey(address) || peer.lastReceive() < this.sessionStartTime) {
+            return;
+        }
+        long elapsed = now - this.sessionStartTime;
+        this.directPathTimes.put(address, elapsed);
+        LogUtil.i(TAG, String.format(Locale.ROOT, "Direct path to %010x after %d ms (%s)",
+                address, elapsed, this.hintedPeers.contains(address) ? "cached" : "not cached"));
+    }
+
+    private void prune(long now) {
+        var iterator = this.peers.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().lastReceive() > MAX_AGE) {
+                iterator.remove();
+                this.dirty = true;
+            }
+        }
+        if (this.peers.size() > MAX_PEERS) {
+            var sorted = new ArrayList<>(this.peers.values());
+            Collections.sort(sorted, (a, b) -> Long.compare(b.lastReceive(), a.lastReceive()));
+            for (var peer : sorted.subList(MAX_PEERS, sorted.size())) {
+                this.peers.remove(peer.address);
+            }
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * 保存缓存。先写入临时文件再重命名，避免中断时留下不完整的文件
+     */
+    public synchronized void save() {
+        var file = file();
+        var tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(SERIAL_VERSION);
+            out.writeInt(this.peers.size());
+            for (var peer : this.peers.values()) {
+                peer.writeTo(out);
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to write peer path cache: " + e.getMessage(), e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            LogUtil.e(TAG, "Failed to replace peer path cache: " + file);
+            tempFile.delete();
+            return;
+        }
+        this.dirty = false;
+    }
+
+    @Override // com.zerotier.sdk.PathChecker
+    public boolean onPathCheck(long ztAddress, long localSocket, InetSocketAddress remoteAddress) {
+        return true;
+    }
+
+    @Override // com.zerotier.sdk.PathChecker
+    public InetSocketAddress onPathLookup(long ztAddress, int ssFamily) {
+        this.lookupCount.incrementAndGet();
+        var peer = this.peers.get(ztAddress);
+        if (peer == null) {
+            return null;
+        }
+        for (var endpoint : peer.endpoints) {
+            var address = endpoint.getAddress();
+            if ((ssFamily == OsConstants.AF_INET && !(address instanceof Inet4Address))
+                    || (ssFamily == OsConstants.AF_INET6 && !(address instanceof Inet6Address))) {
+                continue;
+            }
+            this.lookupHitCount.incrementAndGet();
+            LogUtil.d(TAG, String.format(Locale.ROOT, "Path hint for %010x: %s", ztAddress, endpoint));
+            return endpoint;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long cachedCount = 0, cachedTotal = 0, uncachedCount = 0, uncachedTotal = 0;
+        for (var entry : this.directPathTimes.entrySet()) {
+            if (this.hintedPeers.contains(entry.getKey())) {
+                cachedCount++;
+                cachedTotal += entry.getValue();
+            } else {
+                uncachedCount++;
+                uncachedTotal += entry.getValue();
+            }
+        }
+        return "peers " + this.peers.size() + ", path lookups " + this.lookupCount.get()
+                + " (hit " + this.lookupHitCount.get() + "), time to direct path: cached "
+                + cachedCount + "/" + this.hintedPeers.size() + " peers avg "
+                + (cachedCount == 0 ? "-" : cachedTotal / cachedCount + " ms") + ", not cached "
+                + uncachedCount + " peers avg "
+                + (uncachedCount == 0 ? "-" : uncachedTotal / uncachedCount + " ms");
+    }
+
+    /**
+     * 缓存的对端，路径按优先程度排列
+     */
+    private static final class CachedPeer {
+        final long address;
+        final InetSocketAddress[] endpoints;
+        final long[] lastReceives;
+
+        CachedPeer(long address, InetSocketAddress[] endpoints, long[] lastReceives) {
+            this.address = address;
+            this.endpoints = endpoints;
+            this.lastReceives = lastReceives;
+        }
+
+        long lastReceive() {
+            long last = 0;
+            for (long lastReceive : this.lastReceives) {
+                last = Math.max(last, lastReceive);
+            }
+            return last;
+        }
+
+        /**
+         * 取对端的活跃路径，首选路径在前
+         *
+         * @return 没有活跃路径时为 null
+         */
+        static CachedPeer fromPeer(Peer peer, long now) {
+            var paths = peer.getPaths();
+            if (paths == null) {
+                return null;
+            }
+            var active = new ArrayList<PeerPhysicalPath>();
+            for (var path : paths) {
+                if (path.getAddress() != null && now - path.getLastReceive() <= ACTIVE_PATH_TIMEOUT) {
+                    active.add(path);
+                }
+            }
+            if (active.isEmpty()) {
+                return null;
+            }
+            Collections.sort(active, (a, b) -> a.isPreferred() != b.isPreferred()
+                    ? (a.isPreferred() ? -1 : 1)
+                    : Long.compare(b.getLastReceive(), a.getLastReceive()));
+            int count = Math.min(active.size(), MAX_PATHS_PER_PEER);
+            var endpoints = new InetSocketAddress[count];
+            var lastReceives = new long[count];
+            for (int i = 0; i < count; i++) {
+                endpoints[i] = active.get(i).getAddress();
+                lastReceives[i] = active.get(i).getLastReceive();
+            }
+            return new CachedPeer(peer.getAddress(), endpoints, lastReceives);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(this.address);
+            out.writeByte(this.endpoints.length);
+            for (int i = 0; i < this.endpoints.length; i++) {
+                byte[] raw = this.endpoints[i].getAddress().getAddress();
+                out.writeByte(raw.length);
+                out.write(raw);
+                out.writeShort(this.endpoints[i].getPort());
+                out.writeLong(this.lastReceives[i]);
+            }
+        }
+
+        static CachedPeer readFrom(DataInputStream in) throws IOException {
+            long address = in.readLong();
+            int count = in.readUnsignedByte();
+            if (count > MAX_PATHS_PER_PEER) {
+                throw new IOException("Invalid path count: " + count);
+            }
+            var endpoints = new InetSocketAddress[count];
+            var lastReceives = new long[count];
+            for (int i = 0; i < count; i++) {
+                int length = in.readUnsignedByte();
+                if (length != 4 && length != 16) {
+                    throw new IOException("Invalid address length: " + length);
+                }
+                byte[] raw = new byte[length];
+                in.readFully(raw);
+                endpoints[i] = new InetSocketAddress(InetAddress.getByAddress(raw), in.readUnsignedShort());
+                lastReceives[i] = in.readLong();
+            }
+            return new CachedPeer(address, endpoints, lastReceives);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package net.kaaass.zerotierfix.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * TUN 读取线程
+ * <p>
+ * 每个线程绑定一个 VPN 连接的输入流，逐个读出数据包交给处理器。VPN 连接的输入流为非阻塞，
+ * 无数据时读取返回 0，线程短暂休眠后重试。切换连接时新旧线程可同时存在，旧线程经
+ * {@link #drainAndStop} 读空后退出。
+ */
+class TunReader extends Thread {
+    private static final int BUFFER_SIZE = 32767;
+    /**
+     * 无数据时的休眠时间，毫秒
+     */
+    private static final long IDLE_SLEEP = 10;
+
+    private final InputStream input;
+    private final PacketHandler handler;
+    /**
+     * 为 true 时读空输入流后即退出
+     */
+    private volatile boolean draining = false;
+    private volatile long drainedPackets = 0;
+
+    TunReader(InputStream input, PacketHandler handler) {
+        super("Tunnel Receive Thread");
+        this.input = input;
+        this.handler = handler;
+    }
+
+    @Override
+    public void run() {
+        var buffer = new byte[BUFFER_SIZE];
+        try {
+            while (!isInterrupted()) {
+                int readCount;
+                try {
+                    readCount = this.input.read(buffer);
+                } catch (IOException e) {
+                    if (this.draining) {
+                        break;
+                    }
+                    this.handler.onError(e);
+                    // 流已关闭时避免空转
+                    Thread.sleep(IDLE_SLEEP);
+                    continue;
+                }
+                if (readCount > 0) {
+                    long readTime = System.nanoTime();
+                    var readData = new byte[readCount];
+                    System.arraycopy(buffer, 0, readData, 0, readCount);
+                    this.handler.onPacket(readData, readTime);
+                    if (this.draining) {
+                        this.drainedPackets++;
+                    }
+                } else if (this.draining) {
+                    break;
+                } else {
+                    Thread.sleep(IDLE_SLEEP);
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * 读空输入流后停止线程。新连接的读取线程应已启动，旧连接不再收到新的数据包
+     *
+     * @param timeout 等待读空的最长时间，毫秒。超时后仍未读取的数据包将被丢弃
+     * @param streams 读空后需关闭的流，即旧连接的输入输出流。关闭失败交由处理器
+     * @return 排空期间读出的数据包数
+     */
+    long drainAndStop(long timeout, Closeable... streams) {
+        this.draining = true;
+        try {
+            join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (var stream : streams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                this.handler.onError(e);
+            }
+        }
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return this.drainedPackets;
+    }
+
+    /**
+     * 数据包处理器
+     */
+    interface PacketHandler {
+        /**
+         * 读出数据包，在读取线程中调用
+         *
+         * @param packet   完整的 IP 数据包
+         * @param readTime 读出的时间，{@link System#nanoTime()}
+         */
+        void onPacket(byte[] packet, long readTime);
+
+        /**
+         * 读取或关闭流失败。排空期间的读取失败视为读取结束，不会回调
+         */
+        void onError(IOException e);
+    }
+}
@@ -1,6 +1,7 @@
 package net.kaaass.zerotierfix.service;
 
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.support.v4.media.session.PlaybackStateCompat;
 
 import com.zerotier.sdk.Node;
@@ -9,10 +10,12 @@ import com.zerotier.sdk.VirtualNetworkConfig;
 import com.zerotier.sdk.VirtualNetworkFrameListener;
 import com.zerotier.sdk.util.StringUtils;
 
+import net.kaaass.zerotierfix.metrics.DataPlaneMetrics;
 import net.kaaass.zerotierfix.util.DebugLog;
 import net.kaaass.zerotierfix.util.IPPacketUtils;
 import net.kaaass.zerotierfix.util.InetAddressUtils;
 import net.kaaass.zerotierfix.util.LogUtil;
+import net.kaaass.zerotierfix.util.StartupTracer;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -20,36 +23,80 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 // TODO: clear up
-public class TunTapAdapter implements VirtualNetworkFrameListener {
+public class TunTapAdapter implements VirtualNetworkFrameListener, VirtualNetworkConfigStore.Listener {
     public static final String TAG = "TunTapAdapter";
     private static final int ARP_PACKET = 2054;
     private static final int IPV4_PACKET = 2048;
     private static final int IPV6_PACKET = 34525;
     private static final int TCP_PROTOCOL = 6;
     private static final int UDP_PROTOCOL = 17;
+    /**
+     * 切换 VPN 连接时等待旧连接排空的最长时间，毫秒
+     */
+    private static final long HANDOVER_DRAIN_TIMEOUT = 200;
+    /**
+     * 网络加入数据面后统计早期地址解析失败的时间窗口，毫秒
+     */
+    private static final long EARLY_MISS_WINDOW = 5000;
 
-    private final HashMap<Route, Long> routeMap = new HashMap<>();
-    private final long networkId;
+    /**
+     * 全部网络的路由表，按前缀长度降序排列，首个匹配即为最长前缀匹配。
+     * 写时复制，数据包处理线程无锁读取
+     */
+    private volatile RouteEntry[] routeTable = new RouteEntry[0];
+    private final Object routeLock = new Object();
+    /**
+     * 各网络的本地信息与邻居表，写时复制
+     */
+    private volatile NetworkContext[] networkContexts = new NetworkContext[0];
+    private final Object contextLock = new Object();
+    /**
+     * 服务启动时指定的网络
+     */
+    private final long primaryNetworkId;
     private final ZeroTierOneService ztService;
-    private ARPTable arpTable = new ARPTable();
-    private FileInputStream in;
-    private NDPTable ndpTable = new NDPTable();
+    private final NeighborCache neighborCache;
+    /**
+     * 适配器创建时已累计的丢弃帧数
+     */
+    private final long droppedFramesBase = countTunnelDrops();
+    private final long createTime = SystemClock.elapsedRealtime();
+    /**
+     * 自适配器创建至首个数据包成功收发的时间，毫秒。尚未收发时为 0
+     */
+    private final AtomicLong timeToFirstPacket = new AtomicLong();
+    private volatile FileInputStream in;
     private Node node;
-    private FileOutputStream out;
-    private Thread receiveThread;
-    private ParcelFileDescriptor vpnSocket;
+    private volatile FileOutputStream out;
+    private volatile TunReader receiveThread;
+    private final TunReader.PacketHandler packetHandler = new TunReader.PacketHandler() {
+        @Override
+        public void onPacket(byte[] packet, long readTime) {
+            handleTunPacket(packet, readTime);
+        }
+
+        @Override
+        public void onError(IOException e) {
+            LogUtil.e(TAG, "Error in TUN Receive: " + e.getMessage(), e);
+        }
+    };
+    private volatile ParcelFileDescriptor vpnSocket;
 
-    public TunTapAdapter(ZeroTierOneService zeroTierOneService, long j) {
+    public TunTapAdapter(ZeroTierOneService zeroTierOneService, long j, NeighborCache neighborCache) {
         this.ztService = zeroTierOneService;
-        this.networkId = j;
+        this.primaryNetworkId = j;
+        this.neighborCache = neighborCache;
     }
 
     /**
@@ -86,21 +133,8 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
         }
     }
 
-    private void addMulticastRoutes() {
-    }
-
     public void setNode(Node node) {
         this.node = node;
-        try {
-            var multicastAddress = InetAddress.getByName("224.224.224.224");
-            var result = node
-                    .multicastSubscribe(this.networkId, multicastAddressToMAC(multicastAddress));
-            if (result != ResultCode.RESULT_OK) {
-                LogUtil.e(TAG, "Error when calling multicastSubscribe: " + result);
-            }
-        } catch (UnknownHostException e) {
-            LogUtil.e(TAG, e.toString(), e);
-        }
     }
 
     public void setVpnSocket(ParcelFileDescriptor vpnSocket) {
@@ -112,17 +146,171 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
         this.out = fileOutputStream;
     }
 
-    public void addRouteAndNetwork(Route route, long networkId) {
-        synchronized (this.routeMap) {
-            this.routeMap.put(route, networkId);
+    /**
+     * 整体替换路由表
+     */
+    public void setRoutes(Map<Route, Long> routes) {
+        var entries = new ArrayList<RouteEntry>(routes.size());
+        for (var entry : routes.entrySet()) {
+            entries.add(new RouteEntry(entry.getKey(), entry.getValue()));
+        }
+        synchronized (this.routeLock) {
+            this.routeTable = sortRoutes(entries);
+        }
+    }
+
+    private static RouteEntry[] sortRoutes(List<RouteEntry> routes) {
+        // 稳定排序，前缀长度相同时保持添加顺序
+        Collections.sort(routes, (a, b) -> Integer.compare(b.route.getPrefix(), a.route.getPrefix()));
+        return routes.toArray(new RouteEntry[0]);
+    }
+
+    /**
+     * 自服务启动至首个数据包成功收发的时间，毫秒。尚未收发时为 -1
+     */
+    public long getTimeToFirstPacket() {
+        long time = this.timeToFirstPacket.get();
+        return time == 0 ? -1 : time;
+    }
+
+    private void recordFirstPacket(String direction) {
+        if (this.timeToFirstPacket.get() != 0) {
+            return;
+        }
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - this.createTime);
+        if (this.timeToFirstPacket.compareAndSet(0, elapsed)) {
+            LogUtil.i(TAG, "Time to first usable packet (" + direction + "): " + elapsed + " ms");
+            StartupTracer.finish("first " + direction + " packet");
+        }
+    }
+
+    /**
+     * 因隧道不可用而丢弃的 ZT 网络帧数
+     */
+    public long getDroppedFrames() {
+        return countTunnelDrops() - this.droppedFramesBase;
+    }
+
+    private static long countTunnelDrops() {
+        var drops = DataPlaneMetrics.INBOUND_DROPS;
+        return drops[DataPlaneMetrics.DROP_NO_TUNNEL].sum() + drops[DataPlaneMetrics.DROP_NO_STREAM].sum()
+                + drops[DataPlaneMetrics.DROP_NO_NETWORK].sum() + drops[DataPlaneMetrics.DROP_TUN_WRITE].sum();
+    }
+
+    /**
+     * 网络配置变化时重建该网络的本地地址信息，避免每个数据包遍历分配的地址。
+     * 新加入的网络创建独立的邻居表并从邻居缓存恢复表项，离开的网络将表项存入邻居缓存后释放邻居表
+     */
+    @Override
+    public void onVirtualNetworkConfigChanged(long networkId, VirtualNetworkConfig oldConfig,
+                                              VirtualNetworkConfig newConfig) {
+        synchronized (this.contextLock) {
+            var contexts = this.networkContexts;
+            int index = -1;
+            for (int i = 0; i < contexts.length; i++) {
+                if (contexts[i].networkId == networkId) {
+                    index = i;
+                    break;
+                }
+            }
+            if (newConfig == null) {
+                if (index < 0) {
+                    return;
+                }
+                closeContext(contexts[index]);
+                var newContexts = new NetworkContext[contexts.length - 1];
+                System.arraycopy(contexts, 0, newContexts, 0, index);
+                System.arraycopy(contexts, index + 1, newContexts, index, contexts.length - index - 1);
+                this.networkContexts = newContexts;
+                LogUtil.i(TAG, "Network removed from data plane: " + StringUtils.networkIdToString(networkId));
+            } else if (index >= 0) {
+                contexts[index].local = LocalContext.fromConfig(newConfig);
+                DebugLog.d(TAG, "Local context updated: " + contexts[index].local);
+            } else {
+                var newContexts = Arrays.copyOf(contexts, contexts.length + 1);
+                var context = new NetworkContext(networkId, LocalContext.fromConfig(newConfig));
+                restoreNeighbors(context);
+                newContexts[contexts.length] = context;
+                this.networkContexts = newContexts;
+                LogUtil.i(TAG, "Network added to data plane: " + StringUtils.networkIdToString(networkId));
+            }
+        }
+    }
+
+    /**
+     * 从邻居缓存恢复网络的 ARP、NDP 表项。仅恢复未过期且位于本地子网内的表项
+     */
+    private void restoreNeighbors(NetworkContext context) {
+        var snapshot = this.neighborCache.get(context.networkId);
+        if (snapshot == null) {
+            return;
+        }
+        var local = context.local;
+        int restored = 0;
+        for (var entry : snapshot.arpEntries) {
+            if (isInLocalSubnet(entry.getAddress(), local.v4Address, local.v4Cidr)
+                    && entry.getMac() != local.mac && context.arpTable.restoreEntry(entry)) {
+                restored++;
+            }
+        }
+        for (var entry : snapshot.ndpEntries) {
+            if (isInLocalSubnet(entry.getAddress(), local.v6Address, local.v6Cidr)
+                    && entry.getMac() != local.mac && context.ndpTable.restoreEntry(entry)) {
+                restored++;
+            }
+        }
+        context.restoredNeighbors = restored;
+        LogUtil.i(TAG, "Restored " + restored + " of " + (snapshot.arpEntries.size() + snapshot.ndpEntries.size())
+                + " neighbors for " + StringUtils.networkIdToString(context.networkId));
+    }
+
+    private static boolean isInLocalSubnet(InetAddress address, InetAddress localAddress, int cidr) {
+        if (localAddress == null || address == null || address.getClass() != localAddress.getClass()) {
+            return false;
+        }
+        return Objects.equals(InetAddressUtils.addressToRouteNo0Route(address, cidr),
+                InetAddressUtils.addressToRouteNo0Route(localAddress, cidr));
+    }
+
+    /**
+     * 将网络的邻居表项存入邻居缓存，并释放邻居表
+     */
+    private void closeContext(NetworkContext context) {
+        this.neighborCache.put(context.networkId, context.arpTable.getEntries(), context.ndpTable.getEntries());
+        LogUtil.i(TAG, "Neighbors of " + StringUtils.networkIdToString(context.networkId) + ": restored "
+                + context.restoredNeighbors + ", resolution misses " + context.resolutionMisses.get()
+                + " (first " + EARLY_MISS_WINDOW + " ms: " + context.earlyResolutionMisses.get() + ")");
+        context.close();
+    }
+
+    /**
+     * 按网络 ID 查找网络信息
+     */
+    private NetworkContext contextFor(long networkId) {
+        for (var context : this.networkContexts) {
+            if (context.networkId == networkId) {
+                return context;
+            }
         }
+        return null;
     }
 
-    public void clearRouteMap() {
-        synchronized (this.routeMap) {
-            this.routeMap.clear();
-            addMulticastRoutes();
+    /**
+     * 确定出站数据包所属的网络。优先按目标地址的最长前缀匹配路由，
+     * 无匹配路由时（如多播）按源地址匹配本地地址
+     */
+    private NetworkContext contextForPacket(RouteEntry routeEntry, InetAddress sourceIP) {
+        if (routeEntry != null) {
+            return contextFor(routeEntry.networkId);
         }
+        var contexts = this.networkContexts;
+        for (var context : contexts) {
+            var local = context.local;
+            if (sourceIP.equals(local.v4Address) || sourceIP.equals(local.v6Address)) {
+                return context;
+            }
+        }
+        return contexts.length == 1 ? contexts[0] : null;
     }
 
     private boolean isIPv4Multicast(InetAddress inetAddress) {
@@ -134,95 +322,129 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
     }
 
     public void startThreads() {
-        this.receiveThread = new Thread("Tunnel Receive Thread") {
-
-            @Override
-            public void run() {
-                // 创建 ARP、NDP 表
-                if (TunTapAdapter.this.ndpTable == null) {
-                    TunTapAdapter.this.ndpTable = new NDPTable();
-                }
-                if (TunTapAdapter.this.arpTable == null) {
-                    TunTapAdapter.this.arpTable = new ARPTable();
-                }
-                // 转发 TUN 消息至 Zerotier
-                try {
-                    LogUtil.d(TunTapAdapter.TAG, "TUN Receive Thread Started");
-                    var buffer = ByteBuffer.allocate(32767);
-                    buffer.order(ByteOrder.LITTLE_ENDIAN);
-                    while (!isInterrupted()) {
-                        try {
-                            boolean noDataBeenRead = true;
-                            int readCount = TunTapAdapter.this.in.read(buffer.array());
-                            if (readCount > 0) {
-                                DebugLog.d(TunTapAdapter.TAG, "Sending packet to ZeroTier. " + readCount + " bytes.");
-                                var readData = new byte[readCount];
-                                System.arraycopy(buffer.array(), 0, readData, 0, readCount);
-                                byte iPVersion = IPPacketUtils.getIPVersion(readData);
-                                if (iPVersion == 4) {
-                                    TunTapAdapter.this.handleIPv4Packet(readData);
-                                } else if (iPVersion == 6) {
-                                    TunTapAdapter.this.handleIPv6Packet(readData);
-                                } else {
-                                    LogUtil.e(TunTapAdapter.TAG, "Unknown IP version");
-                                }
-                                buffer.clear();
-                                noDataBeenRead = false;
-                            }
-                            if (noDataBeenRead) {
-                                Thread.sleep(10);
-                            }
-                        } catch (IOException e) {
-                            LogUtil.e(TunTapAdapter.TAG, "Error in TUN Receive: " + e.getMessage(), e);
-                        }
-                    }
-                } catch (InterruptedException ignored) {
-                }
-                LogUtil.d(TunTapAdapter.TAG, "TUN Receive Thread ended");
-                // 关闭 ARP、NDP 表
-                TunTapAdapter.this.ndpTable.stop();
-                TunTapAdapter.this.ndpTable = null;
-                TunTapAdapter.this.arpTable.stop();
-                TunTapAdapter.this.arpTable = null;
-            }
-        };
+        StartupTracer.mark("start tunnel reader");
+        this.receiveThread = new TunReader(this.in, this.packetHandler);
         this.receiveThread.start();
+        LogUtil.d(TAG, "TUN Receive Thread Started");
+    }
+
+    /**
+     * 先建后断地切换至新的 VPN 连接
+     * <p>
+     * 先在新连接上启动读取线程，再切换写入流，使 ZT 网络帧立即写入新连接；
+     * 随后排空旧连接中尚未读取的数据包，最后关闭旧连接的流。旧连接本身由调用方关闭。
+     *
+     * @return 从旧连接中排空并转发的数据包数
+     */
+    public long handover(ParcelFileDescriptor newVpnSocket, FileInputStream newIn, FileOutputStream newOut) {
+        var oldReader = this.receiveThread;
+        var oldIn = this.in;
+        var oldOut = this.out;
+
+        // 启动新连接的读取线程，并切换写入流
+        this.vpnSocket = newVpnSocket;
+        this.in = newIn;
+        startThreads();
+        this.out = newOut;
+
+        if (oldReader == null) {
+            return 0;
+        }
+        // 排空旧连接
+        return oldReader.drainAndStop(HANDOVER_DRAIN_TIMEOUT, oldIn, oldOut);
+    }
+
+    /**
+     * 转发 TUN 数据包至 ZT，在读取线程中调用
+     */
+    private void handleTunPacket(byte[] packetData, long readTime) {
+        LogUtil.d(TAG, "Sending packet to ZeroTier. {} bytes.", packetData.length);
+        byte ipVersion = IPPacketUtils.getIPVersion(packetData);
+        if (ipVersion == 4) {
+            handleIPv4Packet(packetData, readTime);
+        } else if (ipVersion == 6) {
+            handleIPv6Packet(packetData, readTime);
+        } else {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_UNKNOWN_IP_VERSION].increment();
+            LogUtil.e(TAG, "Unknown IP version");
+        }
     }
 
-    private void handleIPv4Packet(byte[] packetData) {
+    /**
+     * 将以太网帧交给 ZT 核心发送，同时记录调用与发送计数、耗时
+     *
+     * @param readTime 帧对应的数据包从 TUN 读出的时间，{@link System#nanoTime()}；不是转发 TUN 数据包时为 0
+     */
+    private ResultCode sendFrame(long networkId, long localMac, long destMac, int etherType,
+                                 byte[] frameData, long[] nextDeadline, long readTime) {
+        long submitTime = System.nanoTime();
+        if (readTime != 0) {
+            DataPlaneMetrics.TUN_READ_TO_SUBMIT.record(submitTime - readTime);
+        }
+        var result = this.node.processVirtualNetworkFrame(System.currentTimeMillis(), networkId,
+                localMac, destMac, etherType, 0, frameData, nextDeadline);
+        DataPlaneMetrics.PROCESS_VIRTUAL_NETWORK_FRAME_TIME.record(System.nanoTime() - submitTime);
+        boolean ok = result == ResultCode.RESULT_OK;
+        DataPlaneMetrics.recordJniCall(DataPlaneMetrics.JNI_PROCESS_VIRTUAL_NETWORK_FRAME, ok);
+        if (ok) {
+            DataPlaneMetrics.recordFrame(DataPlaneMetrics.OUTBOUND, etherType, frameData.length);
+        } else {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_CORE_REJECTED].increment();
+        }
+        return result;
+    }
+
+    private ResultCode subscribeMulticast(long networkId, InetAddress address) {
+        var result = this.node.multicastSubscribe(networkId, multicastAddressToMAC(address));
+        DataPlaneMetrics.recordJniCall(DataPlaneMetrics.JNI_MULTICAST_SUBSCRIBE, result == ResultCode.RESULT_OK);
+        return result;
+    }
+
+    /**
+     * @param readTime 数据包从 TUN 读出的时间，{@link System#nanoTime()}
+     */
+    private void handleIPv4Packet(byte[] packetData, long readTime) {
         boolean isMulticast;
         long destMac;
         var destIP = IPPacketUtils.getDestIP(packetData);
         var sourceIP = IPPacketUtils.getSourceIP(packetData);
-        var virtualNetworkConfig = this.ztService.getVirtualNetworkConfig(this.networkId);
 
         // 添加详细日志：记录数据包源目的地址
-        LogUtil.d(TAG, "处理IPv4数据包: 源IP=" + sourceIP + ", 目的IP=" + destIP + ", 数据包大小=" + packetData.length);
+        LogUtil.d(TAG, "处理IPv4数据包: 源IP={}, 目的IP={}, 数据包大小={}", sourceIP, destIP, packetData.length);
 
-        if (virtualNetworkConfig == null) {
-            LogUtil.e(TAG, "TunTapAdapter has no network config yet");
-            return;
-        } else if (destIP == null) {
+        if (destIP == null) {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_BAD_ADDRESS].increment();
             LogUtil.e(TAG, "destAddress is null");
             return;
         } else if (sourceIP == null) {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_BAD_ADDRESS].increment();
             LogUtil.e(TAG, "sourceAddress is null");
             return;
         }
+        var routeEntry = routeForDestination(destIP);
+        var networkContext = contextForPacket(routeEntry, sourceIP);
+        if (networkContext == null) {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_NO_ROUTE_NETWORK].increment();
+            LogUtil.e(TAG, "TunTapAdapter has no network config yet");
+            return;
+        }
+        long networkId = networkContext.networkId;
+        var context = networkContext.local;
+        var arpTable = networkContext.arpTable;
 
         // 代理功能已移除
 
         if (isIPv4Multicast(destIP)) {
-            var result = this.node.multicastSubscribe(this.networkId, multicastAddressToMAC(destIP));
+            var result = subscribeMulticast(networkId, destIP);
             if (result != ResultCode.RESULT_OK) {
                 LogUtil.e(TAG, "Error when calling multicastSubscribe: " + result);
             }
             isMulticast = true;
-            LogUtil.d(TAG, "IPv4多播数据包: 目的IP=" + destIP);
+            LogUtil.d(TAG, "IPv4多播数据包: 目的IP={}", destIP);
         } else {
             isMulticast = false;
         }
-        var route = routeForDestination(destIP);
+        var route = routeEntry != null ? routeEntry.route : null;
         // 修复：VirtualNetworkRoute没有getGateway方法，但Route类有
         InetAddress gateway = null;
         if (route != null) {
@@ -230,140 +452,131 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
         }
 
         // 添加详细日志：记录路由决策过程
-        LogUtil.d(TAG, "路由决策: 目的IP=" + destIP + ", 选择路由=" + (route != null ? route.toString() : "无") 
-              + ", 网关=" + (gateway != null ? gateway.toString() : "无"));
-
-        // 查找当前节点的 v4 地址
-        InetSocketAddress[] ztAddresses = virtualNetworkConfig.getAssignedAddresses();
-        InetAddress localV4Address = null;
-        int cidr = 0;
-
-        int addressCount = ztAddresses.length;
-        for (int i = 0; i < addressCount; i++) {
-            InetSocketAddress address = ztAddresses[i];
-            if (address.getAddress() instanceof Inet4Address) {
-                localV4Address = address.getAddress();
-                cidr = address.getPort();
-                break;
-            }
-        }
+        LogUtil.d(TAG, "路由决策: 目的IP={}, 选择路由={}, 网关={}", destIP, route, gateway);
+
+        // 当前节点的 v4 地址
+        InetAddress localV4Address = context.v4Address;
+        int cidr = context.v4Cidr;
 
         var destRoute = InetAddressUtils.addressToRouteNo0Route(destIP, cidr);
         var sourceRoute = InetAddressUtils.addressToRouteNo0Route(sourceIP, cidr);
         if (gateway != null && !Objects.equals(destRoute, sourceRoute)) {
-            LogUtil.d(TAG, "使用网关: 原始目的IP=" + destIP + " 修改为网关IP=" + gateway);
+            LogUtil.d(TAG, "使用网关: 原始目的IP={} 修改为网关IP={}", destIP, gateway);
             destIP = gateway;
         }
         if (localV4Address == null) {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_NO_LOCAL_ADDRESS].increment();
             LogUtil.e(TAG, "Couldn't determine local address");
             return;
         }
 
         // 添加详细日志：记录本地地址信息
-        LogUtil.d(TAG, "本地IPv4地址: " + localV4Address + "/" + cidr);
+        LogUtil.d(TAG, "本地IPv4地址: {}/{}", localV4Address, cidr);
 
-        long localMac = virtualNetworkConfig.getMac();
+        long localMac = context.mac;
         long[] nextDeadline = new long[1];
-        if (isMulticast || this.arpTable.hasMacForAddress(destIP)) {
+        if (isMulticast || arpTable.hasMacForAddress(destIP)) {
             // 已确定目标 MAC，直接发送
             if (isIPv4Multicast(destIP)) {
-                destMac = this.arpTable.getMacForAddress(destIP);
+                destMac = arpTable.getMacForAddress(destIP);
             } else {
-                destMac = this.arpTable.getMacForAddress(destIP);
+                destMac = arpTable.getMacForAddress(destIP);
             }
             
             // 添加详细日志：记录MAC地址和目的地
-            LogUtil.d(TAG, "发送IPv4数据包: 本地MAC=" + StringUtils.macAddressToString(localMac) + 
-                  ", 目标MAC=" + StringUtils.macAddressToString(destMac) + 
-                  ", 目的IP=" + destIP);
+            LogUtil.d(TAG, "发送IPv4数据包: 本地MAC={mac}, 目标MAC={mac}, 目的IP={}", localMac, destMac, destIP);
                   
-            var result = this.node.processVirtualNetworkFrame(System.currentTimeMillis(), this.networkId, localMac, destMac, IPV4_PACKET, 0, packetData, nextDeadline);
+            var result = sendFrame(networkId, localMac, destMac, IPV4_PACKET, packetData, nextDeadline, readTime);
             if (result != ResultCode.RESULT_OK) {
                 LogUtil.e(TAG, "Error calling processVirtualNetworkFrame: " + result.toString());
                 return;
             }
-            LogUtil.d(TAG, "数据包已发送至ZeroTier: 目的IP=" + destIP);
+            LogUtil.d(TAG, "数据包已发送至ZeroTier: 目的IP={}", destIP);
+            recordFirstPacket("outbound");
+            NetworkTimeline.recordFrame(networkId, false);
             this.ztService.setNextBackgroundTaskDeadline(nextDeadline[0]);
         } else {
             // 目标 MAC 未知，进行 ARP 查询
-            LogUtil.d(TAG, "Unknown dest MAC address.  Need to look it up. " + destIP);
+            LogUtil.d(TAG, "Unknown dest MAC address.  Need to look it up. {}", destIP);
+            networkContext.recordResolutionMiss();
             destMac = InetAddressUtils.BROADCAST_MAC_ADDRESS;
-            packetData = this.arpTable.getRequestPacket(localMac, localV4Address, destIP);
-            var result = this.node.processVirtualNetworkFrame(System.currentTimeMillis(), this.networkId, localMac, destMac, ARP_PACKET, 0, packetData, nextDeadline);
+            packetData = arpTable.getRequestPacket(localMac, localV4Address, destIP);
+            var result = sendFrame(networkId, localMac, destMac, ARP_PACKET, packetData, nextDeadline, 0);
             if (result != ResultCode.RESULT_OK) {
                 LogUtil.e(TAG, "Error sending ARP packet: " + result.toString());
                 return;
             }
             LogUtil.d(TAG, "ARP Request Sent!");
+            DataPlaneMetrics.NEIGHBOR_SOLICITATIONS[DataPlaneMetrics.PROTOCOL_ARP].increment();
             this.ztService.setNextBackgroundTaskDeadline(nextDeadline[0]);
         }
     }
 
-    private void handleIPv6Packet(byte[] packetData) {
+    /**
+     * @param readTime 数据包从 TUN 读出的时间，{@link System#nanoTime()}
+     */
+    private void handleIPv6Packet(byte[] packetData, long readTime) {
         var destIP = IPPacketUtils.getDestIP(packetData);
         var sourceIP = IPPacketUtils.getSourceIP(packetData);
-        var virtualNetworkConfig = this.ztService.getVirtualNetworkConfig(this.networkId);
 
         // 添加详细日志：记录IPv6数据包源目的地址
-        LogUtil.d(TAG, "处理IPv6数据包: 源IP=" + sourceIP + ", 目的IP=" + destIP + ", 数据包大小=" + packetData.length);
+        LogUtil.d(TAG, "处理IPv6数据包: 源IP={}, 目的IP={}, 数据包大小={}", sourceIP, destIP, packetData.length);
 
-        if (virtualNetworkConfig == null) {
-            LogUtil.e(TAG, "TunTapAdapter has no network config yet");
-            return;
-        } else if (destIP == null) {
+        if (destIP == null) {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_BAD_ADDRESS].increment();
             LogUtil.e(TAG, "destAddress is null");
             return;
         } else if (sourceIP == null) {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_BAD_ADDRESS].increment();
             LogUtil.e(TAG, "sourceAddress is null");
             return;
         }
+        var routeEntry = routeForDestination(destIP);
+        var networkContext = contextForPacket(routeEntry, sourceIP);
+        if (networkContext == null) {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_NO_ROUTE_NETWORK].increment();
+            LogUtil.e(TAG, "TunTapAdapter has no network config yet");
+            return;
+        }
+        long networkId = networkContext.networkId;
+        var context = networkContext.local;
+        var ndpTable = networkContext.ndpTable;
 
         // 代理功能已移除
 
         if (this.isIPv6Multicast(destIP)) {
-            var result = this.node.multicastSubscribe(this.networkId, multicastAddressToMAC(destIP));
+            var result = subscribeMulticast(networkId, destIP);
             if (result != ResultCode.RESULT_OK) {
                 LogUtil.e(TAG, "Error when calling multicastSubscribe: " + result);
             }
-            LogUtil.d(TAG, "IPv6多播数据包: 目的IP=" + destIP);
+            LogUtil.d(TAG, "IPv6多播数据包: 目的IP={}", destIP);
         }
-        var route = routeForDestination(destIP);
+        var route = routeEntry != null ? routeEntry.route : null;
         var gateway = route != null ? route.getGateway() : null;
 
         // 添加详细日志：记录IPv6路由决策过程
-        LogUtil.d(TAG, "IPv6路由决策: 目的IP=" + destIP + ", 选择路由=" + (route != null ? route.toString() : "无")
-                + ", 网关=" + (gateway != null ? gateway.toString() : "无"));
-
-        // 查找当前节点的 v6 地址
-        InetSocketAddress[] ztAddresses = virtualNetworkConfig.getAssignedAddresses();
-        InetAddress localV6Address = null;
-        int cidr = 0;
-
-        int addressCount = ztAddresses.length;
-        for (int i = 0; i < addressCount; i++) {
-            InetSocketAddress address = ztAddresses[i];
-            if (address.getAddress() instanceof Inet6Address) {
-                localV6Address = address.getAddress();
-                cidr = address.getPort();
-                break;
-            }
-        }
+        LogUtil.d(TAG, "IPv6路由决策: 目的IP={}, 选择路由={}, 网关={}", destIP, route, gateway);
+
+        // 当前节点的 v6 地址
+        InetAddress localV6Address = context.v6Address;
+        int cidr = context.v6Cidr;
 
         var destRoute = InetAddressUtils.addressToRouteNo0Route(destIP, cidr);
         var sourceRoute = InetAddressUtils.addressToRouteNo0Route(sourceIP, cidr);
         if (gateway != null && !Objects.equals(destRoute, sourceRoute)) {
-            LogUtil.d(TAG, "使用IPv6网关: 原始目的IP=" + destIP + " 修改为网关IP=" + gateway);
+            LogUtil.d(TAG, "使用IPv6网关: 原始目的IP={} 修改为网关IP={}", destIP, gateway);
             destIP = gateway;
         }
         if (localV6Address == null) {
+            DataPlaneMetrics.OUTBOUND_DROPS[DataPlaneMetrics.DROP_NO_LOCAL_ADDRESS].increment();
             LogUtil.e(TAG, "Couldn't determine local address");
             return;
         }
 
         // 添加详细日志：记录本地IPv6地址信息
-        LogUtil.d(TAG, "本地IPv6地址: " + localV6Address + "/" + cidr);
+        LogUtil.d(TAG, "本地IPv6地址: {}/{}", localV6Address, cidr);
 
-        long localMac = virtualNetworkConfig.getMac();
+        long localMac = context.mac;
         long[] nextDeadline = new long[1];
 
         // 确定目标 MAC 地址
@@ -371,48 +584,50 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
         boolean sendNSPacket = false;
         if (this.isNeighborSolicitation(packetData)) {
             // 收到本地 NS 报文，根据 NDP 表记录确定是否广播查询
-            if (this.ndpTable.hasMacForAddress(destIP)) {
-                destMac = this.ndpTable.getMacForAddress(destIP);
-                LogUtil.d(TAG, "NS包: 目的IP=" + destIP + "的MAC已知=" + StringUtils.macAddressToString(destMac));
+            if (ndpTable.hasMacForAddress(destIP)) {
+                destMac = ndpTable.getMacForAddress(destIP);
+                LogUtil.d(TAG, "NS包: 目的IP={}的MAC已知={mac}", destIP, destMac);
             } else {
                 destMac = InetAddressUtils.ipv6ToMulticastAddress(destIP);
-                LogUtil.d(TAG, "NS包: 目的IP=" + destIP + "的MAC未知, 使用多播地址=" + StringUtils.macAddressToString(destMac));
+                LogUtil.d(TAG, "NS包: 目的IP={}的MAC未知, 使用多播地址={mac}", destIP, destMac);
             }
         } else if (this.isIPv6Multicast(destIP)) {
             // 多播报文
             destMac = multicastAddressToMAC(destIP);
-            LogUtil.d(TAG, "IPv6多播: 目的IP=" + destIP + ", 多播MAC=" + StringUtils.macAddressToString(destMac));
+            LogUtil.d(TAG, "IPv6多播: 目的IP={}, 多播MAC={mac}", destIP, destMac);
         } else if (this.isNeighborAdvertisement(packetData)) {
             // 收到本地 NA 报文
-            if (this.ndpTable.hasMacForAddress(destIP)) {
-                destMac = this.ndpTable.getMacForAddress(destIP);
-                LogUtil.d(TAG, "NA包: 目的IP=" + destIP + "的MAC已知=" + StringUtils.macAddressToString(destMac));
+            if (ndpTable.hasMacForAddress(destIP)) {
+                destMac = ndpTable.getMacForAddress(destIP);
+                LogUtil.d(TAG, "NA包: 目的IP={}的MAC已知={mac}", destIP, destMac);
             } else {
                 // 目标 MAC 未知，不发送数据包
                 destMac = 0L;
-                LogUtil.d(TAG, "NA包: 目的IP=" + destIP + "的MAC未知, 不发送数据包");
+                LogUtil.d(TAG, "NA包: 目的IP={}的MAC未知, 不发送数据包", destIP);
             }
             sendNSPacket = true;
         } else {
             // 收到普通数据包，根据 NDP 表记录确定是否发送 NS 请求
-            if (this.ndpTable.hasMacForAddress(destIP)) {
+            if (ndpTable.hasMacForAddress(destIP)) {
                 // 目标地址 MAC 已知
-                destMac = this.ndpTable.getMacForAddress(destIP);
-                LogUtil.d(TAG, "普通IPv6包: 目的IP=" + destIP + "的MAC已知=" + StringUtils.macAddressToString(destMac));
+                destMac = ndpTable.getMacForAddress(destIP);
+                LogUtil.d(TAG, "普通IPv6包: 目的IP={}的MAC已知={mac}", destIP, destMac);
             } else {
                 destMac = 0L;
                 sendNSPacket = true;
-                LogUtil.d(TAG, "普通IPv6包: 目的IP=" + destIP + "的MAC未知, 将发送NS请求");
+                networkContext.recordResolutionMiss();
+                LogUtil.d(TAG, "普通IPv6包: 目的IP={}的MAC未知, 将发送NS请求", destIP);
             }
         }
         // 发送数据包
         if (destMac != 0L) {
-            var result = this.node.processVirtualNetworkFrame(System.currentTimeMillis(), this.networkId, localMac, destMac, IPV6_PACKET, 0, packetData, nextDeadline);
+            var result = sendFrame(networkId, localMac, destMac, IPV6_PACKET, packetData, nextDeadline, readTime);
             if (result != ResultCode.RESULT_OK) {
                 LogUtil.e(TAG, "Error calling processVirtualNetworkFrame: " + result.toString());
             } else {
-                LogUtil.d(TAG, "IPv6数据包已发送至ZeroTier: 本地MAC=" + StringUtils.macAddressToString(localMac) +
-                        ", 目标MAC=" + StringUtils.macAddressToString(destMac));
+                LogUtil.d(TAG, "IPv6数据包已发送至ZeroTier: 本地MAC={mac}, 目标MAC={mac}", localMac, destMac);
+                recordFirstPacket("outbound");
+                NetworkTimeline.recordFrame(networkId, false);
                 this.ztService.setNextBackgroundTaskDeadline(nextDeadline[0]);
             }
         }
@@ -420,21 +635,35 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
         if (sendNSPacket) {
             if (destMac == 0L) {
                 destMac = InetAddressUtils.ipv6ToMulticastAddress(destIP);
-                LogUtil.d(TAG, "NS请求使用多播地址: " + StringUtils.macAddressToString(destMac));
+                LogUtil.d(TAG, "NS请求使用多播地址: {mac}", destMac);
             }
-            LogUtil.d(TAG, "发送邻居请求(NS): 源IP=" + sourceIP + ", 目的IP=" + destIP);
-            packetData = this.ndpTable.getNeighborSolicitationPacket(sourceIP, destIP, localMac);
-            var result = this.node.processVirtualNetworkFrame(System.currentTimeMillis(), this.networkId, localMac, destMac, IPV6_PACKET, 0, packetData, nextDeadline);
+            LogUtil.d(TAG, "发送邻居请求(NS): 源IP={}, 目的IP={}", sourceIP, destIP);
+            packetData = ndpTable.getNeighborSolicitationPacket(sourceIP, destIP, localMac);
+            var result = sendFrame(networkId, localMac, destMac, IPV6_PACKET, packetData, nextDeadline, 0);
             if (result != ResultCode.RESULT_OK) {
                 LogUtil.e(TAG, "发送NS包失败: " + result.toString());
             } else {
                 LogUtil.d(TAG, "NS请求已发送至ZeroTier");
+                DataPlaneMetrics.NEIGHBOR_SOLICITATIONS[DataPlaneMetrics.PROTOCOL_NDP].increment();
                 this.ztService.setNextBackgroundTaskDeadline(nextDeadline[0]);
             }
         }
     }
 
     public void interrupt() {
+        requestStop();
+        if (this.receiveThread != null) {
+            try {
+                this.receiveThread.join();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 关闭输入输出流并中断读取线程，不等待线程结束
+     */
+    public void requestStop() {
         if (this.receiveThread != null) {
             try {
                 this.in.close();
@@ -443,17 +672,42 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
                 LogUtil.e(TAG, "Error stopping in/out: " + e.getMessage(), e);
             }
             this.receiveThread.interrupt();
-            try {
-                this.receiveThread.join();
-            } catch (InterruptedException ignored) {
-            }
         }
     }
 
+    /**
+     * 等待读取线程结束
+     *
+     * @param timeout 最长等待时间，毫秒
+     * @return 读取线程是否已结束
+     */
+    public boolean awaitStop(long timeout) throws InterruptedException {
+        var thread = this.receiveThread;
+        if (thread == null) {
+            return true;
+        }
+        thread.join(timeout);
+        return !thread.isAlive();
+    }
+
     public void join() throws InterruptedException {
         this.receiveThread.join();
     }
 
+    /**
+     * 释放适配器，关闭 ARP、NDP 表
+     */
+    public void close() {
+        synchronized (this.contextLock) {
+            for (var context : this.networkContexts) {
+                closeContext(context);
+            }
+            this.networkContexts = new NetworkContext[0];
+        }
+        LogUtil.i(TAG, "TunTapAdapter closed, frames dropped: " + getDroppedFrames()
+                + ", time to first packet: " + getTimeToFirstPacket() + " ms");
+    }
+
     private boolean isNeighborSolicitation(byte[] packetData) {
         return packetData[6] == 58 && packetData[40] == -121;
     }
@@ -477,48 +731,45 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
     public void onVirtualNetworkFrame(long networkId, long srcMac, long destMac, long etherType,
                                       long vlanId, byte[] frameData) {
 
-        LogUtil.d(TAG, "收到虚拟网络帧: " +
-                "网络ID=" + StringUtils.networkIdToString(networkId) +
-                ", 源MAC=" + StringUtils.macAddressToString(srcMac) +
-                ", 目标MAC=" + StringUtils.macAddressToString(destMac) +
-                ", 以太网类型=" + StringUtils.etherTypeToString(etherType) +
-                ", VLAN ID=" + vlanId +
-                ", 帧长度=" + frameData.length);
+        LogUtil.d(TAG, "收到虚拟网络帧: 网络ID={nwid}, 源MAC={mac}, 目标MAC={mac}, 以太网类型={ether}, VLAN ID={}, 帧长度={}",
+                networkId, srcMac, destMac, etherType, vlanId, frameData.length);
 
+        long receiveTime = System.nanoTime();
+        DataPlaneMetrics.recordFrame(DataPlaneMetrics.INBOUND, etherType, frameData.length);
+        var networkContext = contextFor(networkId);
         if (this.vpnSocket == null) {
+            DataPlaneMetrics.INBOUND_DROPS[DataPlaneMetrics.DROP_NO_TUNNEL].increment();
             LogUtil.e(TAG, "vpnSocket为空，无法处理接收的网络帧!");
             return;
         } else if (this.in == null || this.out == null) {
+            DataPlaneMetrics.INBOUND_DROPS[DataPlaneMetrics.DROP_NO_STREAM].increment();
             LogUtil.e(TAG, "输入/输出流未初始化");
             return;
+        } else if (networkContext == null) {
+            DataPlaneMetrics.INBOUND_DROPS[DataPlaneMetrics.DROP_NO_NETWORK].increment();
+            LogUtil.e(TAG, "网络未配置，丢弃网络帧: " + StringUtils.networkIdToString(networkId));
+            return;
         }
+        var arpTable = networkContext.arpTable;
+        var ndpTable = networkContext.ndpTable;
 
         if (etherType == ARP_PACKET) {
             // 收到 ARP 包。更新 ARP 表，若需要则进行应答
             LogUtil.d(TAG, "收到ARP数据包");
-            var arpReply = this.arpTable.processARPPacket(frameData);
+            var arpReply = arpTable.processARPPacket(frameData);
             if (arpReply != null && arpReply.getDestMac() != 0 && arpReply.getDestAddress() != null) {
                 // 获取本地 V4 地址
-                var networkConfig = this.node.networkConfig(networkId);
-                InetAddress localV4Address = null;
-                for (var address : networkConfig.getAssignedAddresses()) {
-                    if (address.getAddress() instanceof Inet4Address) {
-                        localV4Address = address.getAddress();
-                        break;
-                    }
-                }
+                var context = networkContext.local;
+                InetAddress localV4Address = context.v4Address;
                 // 构造并返回 ARP 应答
                 if (localV4Address != null) {
                     var nextDeadline = new long[1];
-                    var packetData = this.arpTable.getReplyPacket(networkConfig.getMac(),
+                    var packetData = arpTable.getReplyPacket(context.mac,
                             localV4Address, arpReply.getDestMac(), arpReply.getDestAddress());
-                    LogUtil.d(TAG, "发送ARP应答: 本地地址=" + localV4Address +
-                            ", 目标地址=" + arpReply.getDestAddress() +
-                            ", 目标MAC=" + StringUtils.macAddressToString(arpReply.getDestMac()));
-                    var result = this.node
-                            .processVirtualNetworkFrame(System.currentTimeMillis(), networkId,
-                                    networkConfig.getMac(), srcMac, ARP_PACKET, 0,
-                                    packetData, nextDeadline);
+                    LogUtil.d(TAG, "发送ARP应答: 本地地址={}, 目标地址={}, 目标MAC={mac}",
+                            localV4Address, arpReply.getDestAddress(), arpReply.getDestMac());
+                    var result = sendFrame(networkId, context.mac, srcMac, ARP_PACKET,
+                            packetData, nextDeadline, 0);
                     if (result != ResultCode.RESULT_OK) {
                         LogUtil.e(TAG, "发送ARP应答失败: " + result.toString());
                         return;
@@ -532,24 +783,26 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
             try {
                 var sourceIP = IPPacketUtils.getSourceIP(frameData);
                 var destIP = IPPacketUtils.getDestIP(frameData);
-                LogUtil.d(TAG, "收到IPv4数据包: 源IP=" + sourceIP +
-                        ", 目标IP=" + destIP +
-                        ", 大小=" + frameData.length + "字节");
+                LogUtil.d(TAG, "收到IPv4数据包: 源IP={}, 目标IP={}, 大小={}字节", sourceIP, destIP, frameData.length);
 
                 if (sourceIP != null) {
                     if (isIPv4Multicast(sourceIP)) {
-                        var result = this.node.multicastSubscribe(this.networkId, multicastAddressToMAC(sourceIP));
+                        var result = subscribeMulticast(networkId, sourceIP);
                         if (result != ResultCode.RESULT_OK) {
                             LogUtil.e(TAG, "多播订阅错误: " + result);
                         }
                     } else {
-                        this.arpTable.setAddress(sourceIP, srcMac);
-                        LogUtil.d(TAG, "更新ARP表: IP=" + sourceIP + ", MAC=" + StringUtils.macAddressToString(srcMac));
+                        arpTable.setAddress(sourceIP, srcMac);
+                        LogUtil.d(TAG, "更新ARP表: IP={}, MAC={mac}", sourceIP, srcMac);
                     }
                 }
                 this.out.write(frameData);
-                LogUtil.d(TAG, "IPv4数据包已写入本地TUN: 大小=" + frameData.length);
+                DataPlaneMetrics.FRAME_TO_TUN_WRITE.record(System.nanoTime() - receiveTime);
+                LogUtil.d(TAG, "IPv4数据包已写入本地TUN: 大小={}", frameData.length);
+                recordFirstPacket("inbound");
+                NetworkTimeline.recordFrame(networkId, true);
             } catch (Exception e) {
+                DataPlaneMetrics.INBOUND_DROPS[DataPlaneMetrics.DROP_TUN_WRITE].increment();
                 LogUtil.e(TAG, "向VPN套接字写入数据失败: " + e.getMessage(), e);
             }
         } else if (etherType == IPV6_PACKET) {
@@ -557,53 +810,47 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
             try {
                 var sourceIP = IPPacketUtils.getSourceIP(frameData);
                 var destIP = IPPacketUtils.getDestIP(frameData);
-                LogUtil.d(TAG, "收到IPv6数据包: 源IP=" + sourceIP +
-                        ", 目标IP=" + destIP +
-                        ", 大小=" + frameData.length + "字节");
+                LogUtil.d(TAG, "收到IPv6数据包: 源IP={}, 目标IP={}, 大小={}字节", sourceIP, destIP, frameData.length);
 
                 if (sourceIP != null) {
                     if (isIPv6Multicast(sourceIP)) {
-                        var result = this.node.multicastSubscribe(this.networkId, multicastAddressToMAC(sourceIP));
+                        var result = subscribeMulticast(networkId, sourceIP);
                         if (result != ResultCode.RESULT_OK) {
                             LogUtil.e(TAG, "IPv6多播订阅错误: " + result);
                         }
                     } else {
-                        this.ndpTable.setAddress(sourceIP, srcMac);
-                        LogUtil.d(TAG, "更新NDP表: IP=" + sourceIP + ", MAC=" + StringUtils.macAddressToString(srcMac));
+                        ndpTable.setAddress(sourceIP, srcMac);
+                        LogUtil.d(TAG, "更新NDP表: IP={}, MAC={mac}", sourceIP, srcMac);
                     }
                 }
                 this.out.write(frameData);
-                LogUtil.d(TAG, "IPv6数据包已写入本地TUN: 大小=" + frameData.length);
+                DataPlaneMetrics.FRAME_TO_TUN_WRITE.record(System.nanoTime() - receiveTime);
+                LogUtil.d(TAG, "IPv6数据包已写入本地TUN: 大小={}", frameData.length);
+                recordFirstPacket("inbound");
+                NetworkTimeline.recordFrame(networkId, true);
             } catch (Exception e) {
+                DataPlaneMetrics.INBOUND_DROPS[DataPlaneMetrics.DROP_TUN_WRITE].increment();
                 LogUtil.e(TAG, "向VPN套接字写入数据失败: " + e.getMessage(), e);
             }
         } else if (frameData.length >= 14) {
-            LogUtil.d(TAG, "收到未知类型数据包: 0x" + String.format("%02X%02X", frameData[12], frameData[13]));
+            DataPlaneMetrics.INBOUND_DROPS[DataPlaneMetrics.DROP_UNSUPPORTED_ETHERTYPE].increment();
+            LogUtil.d(TAG, "收到未知类型数据包: 0x{x}", ((frameData[12] & 0xff) << 8) | (frameData[13] & 0xff));
         } else {
-            LogUtil.d(TAG, "收到未知数据包. 包长度: " + frameData.length);
-        }
-    }
-
-    private Route routeForDestination(InetAddress destAddress) {
-        synchronized (this.routeMap) {
-            for (var route : this.routeMap.keySet()) {
-                if (route.belongsToRoute(destAddress)) {
-                    return route;
-                }
-            }
-            return null;
+            DataPlaneMetrics.INBOUND_DROPS[DataPlaneMetrics.DROP_UNSUPPORTED_ETHERTYPE].increment();
+            LogUtil.d(TAG, "收到未知数据包. 包长度: {}", frameData.length);
         }
     }
 
-    private long networkIdForDestination(InetAddress destAddress) {
-        synchronized (this.routeMap) {
-            for (Route route : this.routeMap.keySet()) {
-                if (route.belongsToRoute(destAddress)) {
-                    return this.routeMap.get(route);
-                }
+    /**
+     * 按最长前缀匹配查找目标地址的路由
+     */
+    private RouteEntry routeForDestination(InetAddress destAddress) {
+        for (var entry : this.routeTable) {
+            if (entry.route.belongsToRoute(destAddress)) {
+                return entry;
             }
-            return 0;
         }
+        return null;
     }
 
     /**
@@ -626,7 +873,7 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
         LogUtil.d(TAG, "使用直接转发");
 
         // 检查是否有全局路由
-        var virtualNetworkConfig = this.ztService.getVirtualNetworkConfig(this.networkId);
+        var virtualNetworkConfig = this.ztService.getVirtualNetworkConfig(this.primaryNetworkId);
         if (virtualNetworkConfig == null) {
             LogUtil.e(TAG, "全局流量VPN未工作: 虚拟网络配置为空");
             return false;
@@ -674,4 +921,95 @@ public class TunTapAdapter implements VirtualNetworkFrameListener {
             return false;
         }
     }
+
+    /**
+     * 路由表项
+     */
+    private static final class RouteEntry {
+        final Route route;
+        final long networkId;
+
+        RouteEntry(Route route, long networkId) {
+            this.route = route;
+            this.networkId = networkId;
+        }
+    }
+
+    /**
+     * 单个网络的数据面信息。ARP、NDP 表随网络存在，隧道重建时保留已学习的邻居
+     */
+    private static final class NetworkContext {
+        final long networkId;
+        final ARPTable arpTable = new ARPTable();
+        final NDPTable ndpTable = new NDPTable();
+        final long createTime = SystemClock.elapsedRealtime();
+        final AtomicLong resolutionMisses = new AtomicLong();
+        final AtomicLong earlyResolutionMisses = new AtomicLong();
+        volatile LocalContext local;
+        int restoredNeighbors = 0;
+
+        NetworkContext(long networkId, LocalContext local) {
+            this.networkId = networkId;
+            this.local = local;
+        }
+
+        /**
+         * 记录一次因目标 MAC 未知而需要地址解析的数据包
+         */
+        void recordResolutionMiss() {
+            this.resolutionMisses.incrementAndGet();
+            if (SystemClock.elapsedRealtime() - this.createTime <= EARLY_MISS_WINDOW) {
+                this.earlyResolutionMisses.incrementAndGet();
+            }
+        }
+
+        void close() {
+            this.ndpTable.stop();
+            this.arpTable.stop();
+        }
+    }
+
+    /**
+     * 由网络配置派生的本地地址信息，配置变化时整体替换
+     */
+    static final class LocalContext {
+        final long mac;
+        final InetAddress v4Address;
+        final int v4Cidr;
+        final InetAddress v6Address;
+        final int v6Cidr;
+
+        private LocalContext(long mac, InetAddress v4Address, int v4Cidr,
+                             InetAddress v6Address, int v6Cidr) {
+            this.mac = mac;
+            this.v4Address = v4Address;
+            this.v4Cidr = v4Cidr;
+            this.v6Address = v6Address;
+            this.v6Cidr = v6Cidr;
+        }
+
+        static LocalContext fromConfig(VirtualNetworkConfig config) {
+            InetAddress v4Address = null;
+            InetAddress v6Address = null;
+            int v4Cidr = 0;
+            int v6Cidr = 0;
+            for (var address : config.getAssignedAddresses()) {
+                var inetAddress = address.getAddress();
+                if (v4Address == null && inetAddress instanceof Inet4Address) {
+                    v4Address = inetAddress;
+                    v4Cidr = address.getPort();
+                } else if (v6Address == null && inetAddress instanceof Inet6Address) {
+                    v6Address = inetAddress;
+                    v6Cidr = address.getPort();
+                }
+            }
+            return new LocalContext(config.getMac(), v4Address, v4Cidr, v6Address, v6Cidr);
+        }
+
+        @Override
+        public String toString() {
+            return "mac " + StringUtils.macAddressToString(this.mac) + ", v4 " + this.v4Address + "/" + this.v4Cidr
+                    + ", v6 " + this.v6Address + "/" + this.v6Cidr;
+        }
+    }
 }
@@ -0,0 +1,385 @@
+package net.kaaass.zerotierfix.service;
+
+import android.net.VpnService;
+
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import lombok.Data;
+
+/**
+ * 隧道配置
+ * <p>
+ * 记录一次隧道配置中需要交给 {@link VpnService.Builder} 的全部参数，以及 TUN TAP 路由表、组播订阅
+ * 等不需要重建隧道即可更新的数据。方法签名与 Builder 保持一致，便于比较新旧配置以决定最小的更新动作。
+ */
+public class TunnelConfig {
+    private static final String TAG = "TunnelConfig";
+    private static final int SERIAL_VERSION = 1;
+
+    // 需要重建隧道的参数
+    private final Set<Prefix> addresses = new LinkedHashSet<>();
+    private final Set<Prefix> routes = new LinkedHashSet<>();
+    private final Set<InetAddress> dnsServers = new LinkedHashSet<>();
+    private final Set<String> searchDomains = new LinkedHashSet<>();
+    private final Set<String> allowedApplications = new LinkedHashSet<>();
+    private final Set<String> disallowedApplications = new LinkedHashSet<>();
+    private int mtu = 0;
+    private Boolean metered = null;
+    private String session = null;
+
+    // 无需重建隧道的参数
+    private final Map<Route, Long> tunRoutes = new LinkedHashMap<>();
+    private final Set<MulticastGroup> multicastGroups = new LinkedHashSet<>();
+
+    public TunnelConfig addAddress(InetAddress address, int prefixLength) {
+        this.addresses.add(new Prefix(address, prefixLength));
+        return this;
+    }
+
+    public TunnelConfig addRoute(InetAddress address, int prefixLength) {
+        this.routes.add(new Prefix(address, prefixLength));
+        return this;
+    }
+
+    public TunnelConfig addDnsServer(InetAddress address) {
+        this.dnsServers.add(address);
+        return this;
+    }
+
+    public TunnelConfig addSearchDomain(String domain) {
+        this.searchDomains.add(domain);
+        return this;
+    }
+
+    public TunnelConfig addAllowedApplication(String packageName) {
+        this.allowedApplications.add(packageName);
+        return this;
+    }
+
+    public TunnelConfig addDisallowedApplication(String packageName) {
+        this.disallowedApplications.add(packageName);
+        return this;
+    }
+
+    public TunnelConfig setMtu(int mtu) {
+        this.mtu = mtu;
+        return this;
+    }
+
+    public TunnelConfig setMetered(boolean metered) {
+        this.metered = metered;
+        return this;
+    }
+
+    public TunnelConfig setSession(String session) {
+        this.session = session;
+        return this;
+    }
+
+    /**
+     * 添加 TUN TAP 路由，路由中的网关等元数据变化无需重建隧道
+     * <p>
+     * 多个网络推送相同的目标前缀时，同一目标只能转发至一个网络：先添加的网络保留该路由，
+     * 后添加的被忽略并记录日志。调用方应按优先级依次添加各网络
+     */
+    public TunnelConfig addTunRoute(Route route, long networkId) {
+        for (var entry : this.tunRoutes.entrySet()) {
+            var existing = entry.getKey();
+            if (entry.getValue() != networkId && existing.getPrefix() == route.getPrefix()
+                    && existing.getAddress().equals(route.getAddress())) {
+                LogUtil.w(TAG, "Route " + route.getAddress().getHostAddress() + "/" + route.getPrefix()
+                        + " of network " + Long.toHexString(networkId) + " conflicts with network "
+                        + Long.toHexString(entry.getValue()) + ", ignored");
+                return this;
+            }
+        }
+        this.tunRoutes.put(route, networkId);
+        return this;
+    }
+
+    /**
+     * 添加需要订阅的组播组
+     */
+    public TunnelConfig addMulticastGroup(long networkId, long group, long adi) {
+        this.multicastGroups.add(new MulticastGroup(networkId, group, adi));
+        return this;
+    }
+
+    public Map<Route, Long> getTunRoutes() {
+        return Collections.unmodifiableMap(this.tunRoutes);
+    }
+
+    public Set<MulticastGroup> getMulticastGroups() {
+        return Collections.unmodifiableSet(this.multicastGroups);
+    }
+
+    public int getMtu() {
+        return this.mtu;
+    }
+
+    /**
+     * 将配置写入 Builder
+     */
+    public VpnService.Builder applyTo(VpnService.Builder builder) {
+        for (var address : this.addresses) {
+            builder.addAddress(address.getAddress(), address.getPrefixLength());
+        }
+        for (var route : this.routes) {
+            builder.addRoute(route.getAddress(), route.getPrefixLength());
+        }
+        for (var dnsServer : this.dnsServers) {
+            builder.addDnsServer(dnsServer);
+        }
+        for (var domain : this.searchDomains) {
+            builder.addSearchDomain(domain);
+        }
+        for (var packageName : this.allowedApplications) {
+            try {
+                builder.addAllowedApplication(packageName);
+            } catch (Exception e) {
+                LogUtil.e(TAG, "无法添加允许应用 " + packageName + ": " + e.getMessage(), e);
+            }
+        }
+        for (var packageName : this.disallowedApplications) {
+            try {
+                builder.addDisallowedApplication(packageName);
+            } catch (Exception e) {
+                LogUtil.e(TAG, "无法排除应用 " + packageName + ": " + e.getMessage(), e);
+            }
+        }
+        if (this.mtu > 0) {
+            builder.setMtu(this.mtu);
+        }
+        if (this.metered != null) {
+            builder.setMetered(this.metered);
+        }
+        if (this.session != null) {
+            builder.setSession(this.session);
+        }
+        return builder;
+    }
+
+    /**
+     * 与当前生效的配置比较，确定需要执行的更新动作
+     *
+     * @param current 当前生效的配置，隧道尚未建立时为 null
+     */
+    public Change diff(TunnelConfig current) {
+        if (current == null || !describeRebuildReasons(current).isEmpty()) {
+            return Change.REBUILD;
+        }
+        if (!this.tunRoutes.equals(current.tunRoutes)
+                || !this.multicastGroups.equals(current.multicastGroups)) {
+            return Change.UPDATE_ROUTES;
+        }
+        return Change.NONE;
+    }
+
+    /**
+     * 列出导致需要重建隧道的差异项，用于日志
+     */
+    public List<String> describeRebuildReasons(TunnelConfig current) {
+        var reasons = new ArrayList<String>();
+        if (current == null) {
+            reasons.add("tunnel not established");
+            return reasons;
+        }
+        if (!this.addresses.equals(current.addresses)) {
+            reasons.add("addresses");
+        }
+        if (!this.routes.equals(current.routes)) {
+            reasons.add("routes");
+        }
+        if (!this.dnsServers.equals(current.dnsServers) || !this.searchDomains.equals(current.searchDomains)) {
+            reasons.add("dns");
+        }
+        if (!this.allowedApplications.equals(current.allowedApplications)
+                || !this.disallowedApplications.equals(current.disallowedApplications)) {
+            reasons.add("applications");
+        }
+        if (this.mtu != current.mtu) {
+            reasons.add("mtu");
+        }
+        if (!Objects.equals(this.metered, current.metered) || !Objects.equals(this.session, current.session)) {
+            reasons.add("session");
+        }
+        return reasons;
+    }
+
+    /**
+     * 序列化隧道配置。组播订阅依赖 ZT 节点的运行状态，不予保存
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(SERIAL_VERSION);
+        writePrefixes(out, this.addresses);
+        writePrefixes(out, this.routes);
+        out.writeInt(this.dnsServers.size());
+        for (var dnsServer : this.dnsServers) {
+            writeAddress(out, dnsServer);
+        }
+        writeStrings(out, this.searchDomains);
+        writeStrings(out, this.allowedApplications);
+        writeStrings(out, this.disallowedApplications);
+        out.writeInt(this.mtu);
+        out.writeByte(this.metered == null ? -1 : (this.metered ? 1 : 0));
+        out.writeBoolean(this.session != null);
+        if (this.session != null) {
+            out.writeUTF(this.session);
+        }
+        out.writeInt(this.tunRoutes.size());
+        for (var entry : this.tunRoutes.entrySet()) {
+            var route = entry.getKey();
+            writeAddress(out, route.getAddress());
+            out.writeInt(route.getPrefix());
+            out.writeBoolean(route.getGateway() != null);
+            if (route.getGateway() != null) {
+                writeAddress(out, route.getGateway());
+            }
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    /**
+     * 反序列化隧道配置
+     *
+     * @throws IOException 数据损坏或版本不兼容
+     */
+    public static TunnelConfig readFrom(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != SERIAL_VERSION) {
+            throw new IOException("Unsupported tunnel config version: " + version);
+        }
+        var config = new TunnelConfig();
+        readPrefixes(in, config.addresses);
+        readPrefixes(in, config.routes);
+        int dnsCount = in.readInt();
+        for (int i = 0; i < dnsCount; i++) {
+            config.dnsServers.add(readAddress(in));
+        }
+        readStrings(in, config.searchDomains);
+        readStrings(in, config.allowedApplications);
+        readStrings(in, config.disallowedApplications);
+        config.mtu = in.readInt();
+        byte metered = in.readByte();
+        config.metered = metered < 0 ? null : metered == 1;
+        if (in.readBoolean()) {
+            config.session = in.readUTF();
+        }
+        int routeCount = in.readInt();
+        for (int i = 0; i < routeCount; i++) {
+            var route = new Route(readAddress(in), in.readInt());
+            if (in.readBoolean()) {
+                route.setGateway(readAddress(in));
+            }
+            config.tunRoutes.put(route, in.readLong());
+        }
+        return config;
+    }
+
+    private static void writeAddress(DataOutputStream out, InetAddress address) throws IOException {
+        byte[] raw = address.getAddress();
+        out.writeByte(raw.length);
+        out.write(raw);
+    }
+
+    private static InetAddress readAddress(DataInputStream in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length != 4 && length != 16) {
+            throw new IOException("Invalid address length: " + length);
+        }
+        byte[] raw = new byte[length];
+        in.readFully(raw);
+        return InetAddress.getByAddress(raw);
+    }
+
+    private static void writePrefixes(DataOutputStream out, Set<Prefix> prefixes) throws IOException {
+        out.writeInt(prefixes.size());
+        for (var prefix : prefixes) {
+            writeAddress(out, prefix.getAddress());
+            out.writeInt(prefix.getPrefixLength());
+        }
+    }
+
+    private static void readPrefixes(DataInputStream in, Set<Prefix> prefixes) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            prefixes.add(new Prefix(readAddress(in), in.readInt()));
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (var string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static void readStrings(DataInputStream in, Set<String> strings) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TunnelConfig{addresses=" + this.addresses + ", routes=" + this.routes
+                + ", dns=" + this.dnsServers + ", mtu=" + this.mtu + ", tunRoutes=" + this.tunRoutes.size()
+                + ", multicastGroups=" + this.multicastGroups.size() + "}";
+    }
+
+    /**
+     * 配置更新动作
+     */
+    public enum Change {
+        /**
+         * 配置无变化
+         */
+        NONE,
+        /**
+         * 仅需更新 TUN TAP 路由表及组播订阅
+         */
+        UPDATE_ROUTES,
+        /**
+         * 需要重建隧道
+         */
+        REBUILD
+    }
+
+    /**
+     * 地址前缀
+     */
+    @Data
+    public static class Prefix {
+        private final InetAddress address;
+        private final int prefixLength;
+
+        @Override
+        public String toString() {
+            return this.address.getHostAddress() + "/" + this.prefixLength;
+        }
+    }
+
+    /**
+     * 组播订阅
+     */
+    @Data
+    public static class MulticastGroup {
+        private final long networkId;
+        private final long group;
+        private final long adi;
+    }
+}
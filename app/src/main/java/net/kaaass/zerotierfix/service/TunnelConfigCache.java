@@ -0,0 +1,93 @@
+package net.kaaass.zerotierfix.service;
+
+import android.content.Context;
+
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * 最近一次生效的隧道配置缓存
+ * <p>
+ * 按服务启动时指定的网络保存。服务启动时据此立即建立隧道，
+ * 无需等待控制器下发配置；收到新配置后再按差异更新隧道。
+ */
+public class TunnelConfigCache {
+    private static final String TAG = "TunnelConfigCache";
+    private static final String DIRECTORY = "tunnel";
+
+    private final Context context;
+
+    public TunnelConfigCache(Context context) {
+        this.context = context;
+    }
+
+    private File directory() {
+        return new File(this.context.getFilesDir(), DIRECTORY);
+    }
+
+    private File fileFor(long networkId) {
+        return new File(directory(), String.format(Locale.ROOT, "%016x.conf", networkId));
+    }
+
+    /**
+     * 读取网络的隧道配置缓存
+     *
+     * @return 隧道配置，不存在或损坏时为 null
+     */
+    public TunnelConfig load(long networkId) {
+        var file = fileFor(networkId);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return TunnelConfig.readFrom(in);
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to read cached tunnel config: " + e.getMessage(), e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * 保存网络的隧道配置。先写入临时文件再重命名，避免中断时留下不完整的文件
+     */
+    public void save(long networkId, TunnelConfig tunnelConfig) {
+        var directory = directory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LogUtil.e(TAG, "Cannot create directory: " + directory);
+            return;
+        }
+        var file = fileFor(networkId);
+        var tempFile = new File(directory, file.getName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            tunnelConfig.writeTo(out);
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to write tunnel config: " + e.getMessage(), e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            LogUtil.e(TAG, "Failed to replace tunnel config: " + file);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * 删除网络的隧道配置缓存
+     */
+    public void delete(long networkId) {
+        var file = fileFor(networkId);
+        if (file.exists() && !file.delete()) {
+            LogUtil.e(TAG, "Failed to delete tunnel config: " + file);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package net.kaaass.zerotierfix.service;
+
+import android.os.SystemClock;
+
+import net.kaaass.zerotierfix.metrics.DataPlaneMetrics;
+import net.kaaass.zerotierfix.util.LogUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 隧道重配置协调器
+ * <p>
+ * 控制器常在短时间内连续下发多次配置更新。协调器对每个网络的更新请求进行防抖合并，
+ * 只以最新配置执行一次重配置；所有重配置在同一线程中串行执行，不会互相重叠。
+ */
+public class TunnelReconfigureCoordinator {
+    private static final String TAG = "ReconfigureCoordinator";
+    /**
+     * 防抖等待时间，毫秒。在此时间内没有新请求才执行重配置
+     */
+    static final long DEBOUNCE_DELAY = 250;
+    /**
+     * 从首个请求起最长等待时间，毫秒。避免持续的更新使重配置无限推迟
+     */
+    static final long MAX_DELAY = 2000;
+
+    private final Handler handler;
+    private final ScheduledExecutorService executor;
+    private final Object lock = new Object();
+    /**
+     * 待执行的请求，以网络 ID 为键
+     */
+    private final Map<Long, Request> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduled;
+    private volatile Thread thread;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong reconfigureCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalTimeToStable = new AtomicLong();
+    private volatile long lastTimeToStable = 0;
+    private volatile long maxTimeToStable = 0;
+
+    public TunnelReconfigureCoordinator(Handler handler) {
+        this.handler = handler;
+        var threadPool = new ScheduledThreadPoolExecutor(1, runnable -> {
+            var thread = new Thread(runnable, "Tunnel Reconfigure Thread");
+            this.thread = thread;
+            return thread;
+        });
+        threadPool.setRemoveOnCancelPolicy(true);
+        this.executor = threadPool;
+    }
+
+    /**
+     * 请求重配置网络隧道
+     *
+     * @param networkId 网络 ID
+     * @param changed   网络配置是否发生变化
+     */
+    public void submit(long networkId, boolean changed) {
+        this.requestCount.incrementAndGet();
+        synchronized (this.lock) {
+            if (this.executor.isShutdown()) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            var request = this.pending.get(networkId);
+            if (request == null) {
+                request = new Request(networkId, now);
+                this.pending.put(networkId, request);
+            }
+            request.changed |= changed;
+            DataPlaneMetrics.recordQueueDepth(DataPlaneMetrics.QUEUE_TUNNEL_RECONFIGURE, this.pending.size());
+
+            // 重新计时，但不超过最长等待时间
+            long firstRequestTime = now;
+            for (var pendingRequest : this.pending.values()) {
+                firstRequestTime = Math.min(firstRequestTime, pendingRequest.firstRequestTime);
+            }
+            long delay = Math.max(0, Math.min(DEBOUNCE_DELAY, firstRequestTime + MAX_DELAY - now));
+            if (this.scheduled != null) {
+                this.scheduled.cancel(false);
+            }
+            this.scheduled = this.executor.schedule(this::runPending, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 在协调器线程中执行任务，与重配置串行
+     */
+    public void execute(Runnable task) {
+        synchronized (this.lock) {
+            if (this.executor.isShutdown()) {
+                return;
+            }
+            this.executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    LogUtil.e(TAG, "Error running task: " + e.getMessage(), e);
+                }
+            });
+        }
+    }
+
+    private void runPending() {
+        ArrayList<Request> requests;
+        synchronized (this.lock) {
+            requests = new ArrayList<>(this.pending.values());
+            this.pending.clear();
+            DataPlaneMetrics.recordQueueDepth(DataPlaneMetrics.QUEUE_TUNNEL_RECONFIGURE, 0);
+            this.scheduled = null;
+        }
+        for (var request : requests) {
+            try {
+                this.handler.reconfigure(request.networkId, request.changed);
+            } catch (Exception e) {
+                // 失败的重配置不计入稳定时间
+                this.failureCount.incrementAndGet();
+                LogUtil.e(TAG, "Error reconfiguring tunnel: " + e.getMessage() + ", " + this, e);
+                continue;
+            }
+            long timeToStable = SystemClock.elapsedRealtime() - request.firstRequestTime;
+            this.reconfigureCount.incrementAndGet();
+            this.totalTimeToStable.addAndGet(timeToStable);
+            this.lastTimeToStable = timeToStable;
+            if (timeToStable > this.maxTimeToStable) {
+                this.maxTimeToStable = timeToStable;
+            }
+            LogUtil.i(TAG, "Tunnel stable " + timeToStable + " ms after first request, " + this);
+        }
+    }
+
+    /**
+     * 停止协调器，丢弃未执行的请求
+     */
+    public void shutdown() {
+        synchronized (this.lock) {
+            this.pending.clear();
+            this.scheduled = null;
+            this.executor.shutdownNow();
+        }
+        LogUtil.i(TAG, "Coordinator stopped, " + this);
+    }
+
+    /**
+     * 等待正在执行的重配置结束
+     *
+     * @param timeout 最长等待时间，毫秒
+     * @return 协调器线程是否已结束。在协调器线程中调用时直接返回 true
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        if (Thread.currentThread() == this.thread) {
+            return true;
+        }
+        return this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    public long getReconfigureCount() {
+        return this.reconfigureCount.get();
+    }
+
+    /**
+     * 执行失败的重配置次数
+     */
+    public long getFailureCount() {
+        return this.failureCount.get();
+    }
+
+    /**
+     * 因合并而避免的重配置次数
+     */
+    public long getAvoidedCount() {
+        return Math.max(0, getRequestCount() - getReconfigureCount() - getFailureCount());
+    }
+
+    public long getLastTimeToStable() {
+        return this.lastTimeToStable;
+    }
+
+    public long getMaxTimeToStable() {
+        return this.maxTimeToStable;
+    }
+
+    public double getAverageTimeToStable() {
+        long count = this.reconfigureCount.get();
+        return count == 0 ? 0 : (double) this.totalTimeToStable.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "requests " + getRequestCount() + ", reconfigured " + getReconfigureCount()
+                + ", failed " + getFailureCount() + ", avoided " + getAvoidedCount() + ", time to stable avg "
+                + String.format(Locale.ROOT, "%.1f", getAverageTimeToStable()) + " ms, max "
+                + getMaxTimeToStable() + " ms";
+    }
+
+    /**
+     * 执行重配置的回调
+     */
+    public interface Handler {
+        /**
+         * 以当前最新配置重配置网络隧道。在协调器线程中串行调用
+         *
+         * @param networkId 网络 ID
+         * @param changed   合并的请求中是否有配置发生变化
+         */
+        void reconfigure(long networkId, boolean changed);
+    }
+
+    private static class Request {
+        final long networkId;
+        final long firstRequestTime;
+        boolean changed = false;
+
+        Request(long networkId, long firstRequestTime) {
+            this.networkId = networkId;
+            this.firstRequestTime = firstRequestTime;
+        }
+    }
+}
@@ -1,29 +1,61 @@
 package net.kaaass.zerotierfix.service;
 
+import android.os.Build;
 import android.util.Log;
 
 import com.zerotier.sdk.Node;
 import com.zerotier.sdk.PacketSender;
 import com.zerotier.sdk.ResultCode;
 
+import net.kaaass.zerotierfix.metrics.DataPlaneMetrics;
+import net.kaaass.zerotierfix.metrics.StripedCounter;
 import net.kaaass.zerotierfix.util.DebugLog;
+import net.kaaass.zerotierfix.util.LogUtil;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
 
-// TODO: clear up
+/**
+ * ZT 物理链路的 UDP 收发。
+ * <p>
+ * 在支持的系统上分别为 IPv4、IPv6 建立独立的 Socket，使节点可以与对端直接建立 IPv6 路径，
+ * 不支持时退化为单个双栈 Socket。所有 Socket 均通过 {@link android.net.VpnService#protect}
+ * 排除在 VPN 之外，并由单个线程通过 {@link Selector} 接收。
+ */
 public class UdpCom implements PacketSender, Runnable {
     private static final String TAG = "UdpCom";
-    private Node node;
-    private final DatagramSocket svrSocket;
+    /**
+     * 传给 ZT 核心的本地 Socket 标识，核心在回包时会原样传回
+     */
+    static final long LOCAL_SOCKET_IPV4 = 4;
+    static final long LOCAL_SOCKET_IPV6 = 6;
+    private static final int RECEIVE_BUFFER_SIZE = 16384;
+    private static final int PROBE_LENGTH = 8;
+
     private final ZeroTierOneService ztService;
+    private final TrafficCounter v4Counter = new TrafficCounter(DataPlaneMetrics.FAMILY_IPV4);
+    private final TrafficCounter v6Counter = new TrafficCounter(DataPlaneMetrics.FAMILY_IPV6);
+    private Node node;
+    private Selector selector;
+    private DatagramChannel v4Channel;
+    private DatagramChannel v6Channel;
+    /**
+     * 为 true 时 v4Channel 为双栈 Socket，同时承载 IPv6 流量
+     */
+    private boolean dualStack = false;
     private volatile boolean running = true;
 
-    UdpCom(ZeroTierOneService zeroTierOneService, DatagramSocket datagramSocket) {
-        this.svrSocket = datagramSocket;
+    UdpCom(ZeroTierOneService zeroTierOneService) {
         this.ztService = zeroTierOneService;
     }
 
@@ -31,68 +63,191 @@ public class UdpCom implements PacketSender, Runnable {
         this.node = node2;
     }
 
+    /**
+     * 绑定本地端口并保护 Socket
+     *
+     * @param port 本地 UDP 端口
+     */
+    public void bind(int port) throws IOException {
+        this.selector = Selector.open();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // 分别建立 v4、v6 Socket
+            this.v4Channel = openChannel(StandardProtocolFamily.INET,
+                    new InetSocketAddress(InetAddress.getByName("0.0.0.0"), port));
+            try {
+                this.v6Channel = openChannel(StandardProtocolFamily.INET6,
+                        new InetSocketAddress(InetAddress.getByName("::"), port));
+            } catch (IOException e) {
+                // 设备不支持 IPv6 时仅使用 IPv4
+                Log.w(TAG, "Unable to bind IPv6 socket, IPv6 wire transport disabled: " + e.getMessage());
+                this.v6Channel = null;
+            }
+        } else {
+            // 低版本系统中默认 Socket 即为双栈
+            this.v4Channel = openChannel(null, new InetSocketAddress(port));
+            this.dualStack = true;
+        }
+        Log.i(TAG, "UDP bound on port " + port + ", IPv4: " + (this.v4Channel != null)
+                + ", IPv6: " + (this.v6Channel != null || this.dualStack)
+                + (this.dualStack ? " (dual-stack)" : ""));
+    }
+
+    private DatagramChannel openChannel(StandardProtocolFamily family, InetSocketAddress address)
+            throws IOException {
+        var channel = family == null ? DatagramChannel.open() : DatagramChannel.open(family);
+        try {
+            var socket = channel.socket();
+            socket.setReuseAddress(true);
+            socket.bind(address);
+            if (!this.ztService.protect(socket)) {
+                Log.e(TAG, "Error protecting UDP socket from feedback loop: " + address);
+            }
+            channel.configureBlocking(false);
+            channel.register(this.selector, SelectionKey.OP_READ);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 关闭全部 Socket，唤醒接收线程
+     */
+    public void close() {
+        this.running = false;
+        closeQuietly(this.v4Channel);
+        closeQuietly(this.v6Channel);
+        if (this.selector != null) {
+            try {
+                this.selector.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing selector: " + e.getMessage());
+            }
+        }
+        Log.i(TAG, "UDP traffic: IPv4 " + this.v4Counter + ", IPv6 " + this.v6Counter);
+    }
+
+    private static void closeQuietly(DatagramChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing UDP channel: " + e.getMessage());
+        }
+    }
+
+    public TrafficCounter getV4Counter() {
+        return this.v4Counter;
+    }
+
+    public TrafficCounter getV6Counter() {
+        return this.v6Counter;
+    }
+
+    /**
+     * 根据目标地址族选择发送 Socket
+     */
+    private DatagramChannel channelFor(InetAddress address) {
+        if (address instanceof Inet6Address && !this.dualStack) {
+            return this.v6Channel;
+        }
+        return this.v4Channel;
+    }
+
+    private TrafficCounter counterFor(InetAddress address) {
+        return address instanceof Inet4Address ? this.v4Counter : this.v6Counter;
+    }
+
     @Override // com.zerotier.sdk.PacketSender
-    public int onSendPacketRequested(long j, InetSocketAddress inetSocketAddress, byte[] bArr, int i) {
-        if (this.svrSocket == null) {
-            Log.e(TAG, "Attempted to send packet on a null socket");
+    public int onSendPacketRequested(long localSocket, InetSocketAddress inetSocketAddress, byte[] bArr, int ttl) {
+        var address = inetSocketAddress.getAddress();
+        var channel = channelFor(address);
+        var counter = counterFor(address);
+        if (channel == null || !channel.isOpen()) {
+            counter.sendErrors.increment();
+            DebugLog.d(TAG, "No socket available for " + inetSocketAddress);
             return -1;
         }
         try {
-            DatagramPacket datagramPacket = new DatagramPacket(bArr, bArr.length, inetSocketAddress);
-            DebugLog.d(TAG, "onSendPacketRequested: Sent " + datagramPacket.getLength() + " bytes to " + inetSocketAddress.toString());
-            this.svrSocket.send(datagramPacket);
+            int sent = channel.send(ByteBuffer.wrap(bArr), inetSocketAddress);
+            if (sent == 0) {
+                // 发送缓冲区已满，丢弃报文由 ZT 重传
+                counter.sendErrors.increment();
+                return -1;
+            }
+            counter.txPackets.increment();
+            counter.txBytes.add(sent);
+            LogUtil.d(TAG, "onSendPacketRequested: Sent {} bytes to {}", sent, inetSocketAddress);
             return 0;
         } catch (Exception e) {
+            counter.sendErrors.increment();
             Log.e(TAG, "Error sending packet: " + e.getMessage());
             return -1;
         }
     }
 
+    /**
+     * 向对端地址发送探测报文，在本地 NAT 上打开到对端的映射。报文短于 ZT 最小报文长度，
+     * 对端会直接丢弃，与 ZT 核心自身打洞时发送的填充报文相同
+     *
+     * @return 是否发送成功
+     */
+    public boolean sendProbe(InetSocketAddress remoteAddress) {
+        return onSendPacketRequested(-1, remoteAddress, new byte[PROBE_LENGTH], 0) == 0;
+    }
+
     public void stopRunning() {
         running = false;
+        if (this.selector != null) {
+            this.selector.wakeup();
+        }
     }
 
     public void run() {
         Log.d(TAG, "UDP Listen Thread Started.");
         try {
             long[] jArr = new long[1];
-            byte[] bArr = new byte[16384];
+            var buffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
             while (!Thread.interrupted() && running) {
-                jArr[0] = 0;
-                DatagramPacket datagramPacket = new DatagramPacket(bArr, 16384);
                 try {
-                    this.svrSocket.receive(datagramPacket);
-                    if (datagramPacket.getLength() > 0) {
-                        byte[] bArr2 = new byte[datagramPacket.getLength()];
-                        System.arraycopy(datagramPacket.getData(), 0, bArr2, 0, datagramPacket.getLength());
-                        DebugLog.d(TAG, "Got " + datagramPacket.getLength() + " Bytes From: " + datagramPacket.getAddress().toString() + ":" + datagramPacket.getPort());
-                        
-                        // 确保 node 不为空
-                        if (this.node != null) {
-                            ResultCode processWirePacket = this.node.processWirePacket(System.currentTimeMillis(), -1, 
-                                new InetSocketAddress(datagramPacket.getAddress(), datagramPacket.getPort()), 
-                                bArr2, jArr);
-                            
-                            if (processWirePacket != ResultCode.RESULT_OK) {
-                                Log.e(TAG, "processWirePacket returned: " + processWirePacket.toString());
-                                // 不要直接调用 shutdown，通过服务来处理
-                                if (this.ztService != null) {
-                                    this.ztService.setNextBackgroundTaskDeadline(jArr[0]);
-                                    // 移除对不存在常量的引用，只在严重错误时关闭服务
-                                    if (processWirePacket != ResultCode.RESULT_OK) {
-                                        this.ztService.shutdown();
-                                    }
-                                }
-                            } else if (this.ztService != null) {
-                                this.ztService.setNextBackgroundTaskDeadline(jArr[0]);
+                    if (this.selector.select() == 0) {
+                        continue;
+                    }
+                    Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        var key = iterator.next();
+                        iterator.remove();
+                        if (!key.isValid() || !key.isReadable()) {
+                            continue;
+                        }
+                        var channel = (DatagramChannel) key.channel();
+                        // 读空当前 Socket 中的全部报文
+                        InetSocketAddress remoteAddress;
+                        int received = 0;
+                        buffer.clear();
+                        while ((remoteAddress = (InetSocketAddress) channel.receive(buffer)) != null) {
+                            received++;
+                            buffer.flip();
+                            int length = buffer.remaining();
+                            if (length > 0) {
+                                byte[] bArr2 = new byte[length];
+                                buffer.get(bArr2);
+                                processPacket(remoteAddress, bArr2, jArr);
                             }
-                        } else {
-                            Log.e(TAG, "Node is null, cannot process packet");
+                            buffer.clear();
                         }
+                        // 一次唤醒读出的报文数即为唤醒时 Socket 接收队列的深度
+                        DataPlaneMetrics.recordQueueDepth(DataPlaneMetrics.QUEUE_UDP_RECEIVE, received);
                     }
-                } catch (SocketTimeoutException ignored) {
-                    // 超时是正常的，不需要处理
+                } catch (ClosedSelectorException e) {
+                    break;
                 } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
                     Log.e(TAG, "Error receiving packet: " + e.getMessage());
                     // 不终止循环，继续尝试接收数据包
                 }
@@ -103,4 +258,91 @@ public class UdpCom implements PacketSender, Runnable {
             Log.d(TAG, "UDP Listen Thread Ended.");
         }
     }
+
+    private void processPacket(InetSocketAddress remoteAddress, byte[] packetData, long[] jArr) {
+        var address = remoteAddress.getAddress();
+        var counter = counterFor(address);
+        counter.rxPackets.increment();
+        counter.rxBytes.add(packetData.length);
+        LogUtil.d(TAG, "Got {} Bytes From: {}", packetData.length, remoteAddress);
+
+        // 确保 node 不为空
+        if (this.node == null) {
+            Log.e(TAG, "Node is null, cannot process packet");
+            return;
+        }
+        jArr[0] = 0;
+        long localSocket = address instanceof Inet4Address ? LOCAL_SOCKET_IPV4 : LOCAL_SOCKET_IPV6;
+        long startTime = System.nanoTime();
+        ResultCode processWirePacket = this.node.processWirePacket(System.currentTimeMillis(),
+                localSocket, remoteAddress, packetData, jArr);
+        DataPlaneMetrics.PROCESS_WIRE_PACKET_TIME.record(System.nanoTime() - startTime);
+        DataPlaneMetrics.recordJniCall(DataPlaneMetrics.JNI_PROCESS_WIRE_PACKET,
+                processWirePacket == ResultCode.RESULT_OK);
+        if (this.ztService == null) {
+            return;
+        }
+        this.ztService.setNextBackgroundTaskDeadline(jArr[0]);
+        if (processWirePacket != ResultCode.RESULT_OK) {
+            Log.e(TAG, "processWirePacket returned: " + processWirePacket.toString());
+            // 只在严重错误时关闭服务
+            this.ztService.shutdown();
+        }
+    }
+
+    /**
+     * 单个地址族的收发计数，取自进程内累计的 {@link DataPlaneMetrics}，只统计本实例创建后的部分
+     */
+    public static class TrafficCounter {
+        final StripedCounter rxPackets;
+        final StripedCounter rxBytes;
+        final StripedCounter txPackets;
+        final StripedCounter txBytes;
+        final StripedCounter sendErrors;
+        private final long rxPacketsBase;
+        private final long rxBytesBase;
+        private final long txPacketsBase;
+        private final long txBytesBase;
+        private final long sendErrorsBase;
+
+        TrafficCounter(int family) {
+            this.rxPackets = DataPlaneMetrics.WIRE_PACKETS[DataPlaneMetrics.INBOUND][family];
+            this.rxBytes = DataPlaneMetrics.WIRE_BYTES[DataPlaneMetrics.INBOUND][family];
+            this.txPackets = DataPlaneMetrics.WIRE_PACKETS[DataPlaneMetrics.OUTBOUND][family];
+            this.txBytes = DataPlaneMetrics.WIRE_BYTES[DataPlaneMetrics.OUTBOUND][family];
+            this.sendErrors = DataPlaneMetrics.WIRE_SEND_ERRORS[family];
+            this.rxPacketsBase = this.rxPackets.sum();
+            this.rxBytesBase = this.rxBytes.sum();
+            this.txPacketsBase = this.txPackets.sum();
+            this.txBytesBase = this.txBytes.sum();
+            this.sendErrorsBase = this.sendErrors.sum();
+        }
+
+        public long getRxPackets() {
+            return rxPackets.sum() - rxPacketsBase;
+        }
+
+        public long getRxBytes() {
+            return rxBytes.sum() - rxBytesBase;
+        }
+
+        public long getTxPackets() {
+            return txPackets.sum() - txPacketsBase;
+        }
+
+        public long getTxBytes() {
+            return txBytes.sum() - txBytesBase;
+        }
+
+        public long getSendErrors() {
+            return sendErrors.sum() - sendErrorsBase;
+        }
+
+        @Override
+        public String toString() {
+            return "rx " + getRxPackets() + " pkts/" + getRxBytes() + " B, tx "
+                    + getTxPackets() + " pkts/" + getTxBytes() + " B, send errors "
+                    + getSendErrors();
+        }
+    }
 }
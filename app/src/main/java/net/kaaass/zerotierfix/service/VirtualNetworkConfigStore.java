@@ -0,0 +1,171 @@
+package net.kaaass.zerotierfix.service;
+
+import com.zerotier.sdk.VirtualNetworkConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 虚拟网络配置存储
+ * <p>
+ * 数据包收发线程每个包都会读取网络配置，因此采用写时复制：每次更新生成新的不可变快照，
+ * 并通过 volatile 引用发布。读取方无需加锁，也不会被写入方阻塞。
+ */
+public class VirtualNetworkConfigStore {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object writeLock = new Object();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * 获取网络配置，不会阻塞
+     *
+     * @param networkId 网络 ID
+     * @return 网络配置，不存在时为 null
+     */
+    public VirtualNetworkConfig get(long networkId) {
+        return this.snapshot.get(networkId);
+    }
+
+    /**
+     * 当前全部网络 ID
+     */
+    public long[] networkIds() {
+        var current = this.snapshot;
+        return Arrays.copyOf(current.networkIds, current.networkIds.length);
+    }
+
+    /**
+     * 更新网络配置
+     *
+     * @return 原有的网络配置
+     */
+    public VirtualNetworkConfig put(long networkId, VirtualNetworkConfig config) {
+        if (config == null) {
+            return remove(networkId);
+        }
+        synchronized (this.writeLock) {
+            var current = this.snapshot;
+            var old = current.get(networkId);
+            this.snapshot = current.with(networkId, config);
+            notifyListeners(networkId, old, config);
+            return old;
+        }
+    }
+
+    /**
+     * 移除网络配置
+     *
+     * @return 原有的网络配置
+     */
+    public VirtualNetworkConfig remove(long networkId) {
+        synchronized (this.writeLock) {
+            var current = this.snapshot;
+            var old = current.get(networkId);
+            if (old == null) {
+                return null;
+            }
+            this.snapshot = current.without(networkId);
+            notifyListeners(networkId, old, null);
+            return old;
+        }
+    }
+
+    /**
+     * 清空全部网络配置
+     */
+    public void clear() {
+        synchronized (this.writeLock) {
+            var current = this.snapshot;
+            this.snapshot = Snapshot.EMPTY;
+            for (int i = 0; i < current.networkIds.length; i++) {
+                notifyListeners(current.networkIds[i], current.configs[i], null);
+            }
+        }
+    }
+
+    public void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    private void notifyListeners(long networkId, VirtualNetworkConfig oldConfig, VirtualNetworkConfig newConfig) {
+        for (var listener : this.listeners) {
+            listener.onVirtualNetworkConfigChanged(networkId, oldConfig, newConfig);
+        }
+    }
+
+    /**
+     * 网络配置变化监听器。用于在配置变化时一次性重建派生的数据结构
+     */
+    public interface Listener {
+        /**
+         * 网络配置发生变化。在写入线程中调用，且保证按写入顺序依次调用
+         *
+         * @param networkId 网络 ID
+         * @param oldConfig 原配置，新增网络时为 null
+         * @param newConfig 新配置，移除网络时为 null
+         */
+        void onVirtualNetworkConfigChanged(long networkId, VirtualNetworkConfig oldConfig,
+                                           VirtualNetworkConfig newConfig);
+    }
+
+    /**
+     * 不可变快照。以有序的原始类型数组保存网络 ID，避免装箱
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new long[0], new VirtualNetworkConfig[0]);
+
+        final long[] networkIds;
+        final VirtualNetworkConfig[] configs;
+
+        Snapshot(long[] networkIds, VirtualNetworkConfig[] configs) {
+            this.networkIds = networkIds;
+            this.configs = configs;
+        }
+
+        VirtualNetworkConfig get(long networkId) {
+            int index = Arrays.binarySearch(this.networkIds, networkId);
+            return index >= 0 ? this.configs[index] : null;
+        }
+
+        Snapshot with(long networkId, VirtualNetworkConfig config) {
+            int index = Arrays.binarySearch(this.networkIds, networkId);
+            if (index >= 0) {
+                var newConfigs = Arrays.copyOf(this.configs, this.configs.length);
+                newConfigs[index] = config;
+                return new Snapshot(this.networkIds, newConfigs);
+            }
+            int insertAt = -index - 1;
+            int length = this.networkIds.length;
+            var newIds = new long[length + 1];
+            var newConfigs = new VirtualNetworkConfig[length + 1];
+            System.arraycopy(this.networkIds, 0, newIds, 0, insertAt);
+            System.arraycopy(this.configs, 0, newConfigs, 0, insertAt);
+            newIds[insertAt] = networkId;
+            newConfigs[insertAt] = config;
+            System.arraycopy(this.networkIds, insertAt, newIds, insertAt + 1, length - insertAt);
+            System.arraycopy(this.configs, insertAt, newConfigs, insertAt + 1, length - insertAt);
+            return new Snapshot(newIds, newConfigs);
+        }
+
+        Snapshot without(long networkId) {
+            int index = Arrays.binarySearch(this.networkIds, networkId);
+            if (index < 0) {
+                return this;
+            }
+            int length = this.networkIds.length;
+            var newIds = new long[length - 1];
+            var newConfigs = new VirtualNetworkConfig[length - 1];
+            System.arraycopy(this.networkIds, 0, newIds, 0, index);
+            System.arraycopy(this.configs, 0, newConfigs, 0, index);
+            System.arraycopy(this.networkIds, index + 1, newIds, index, length - index - 1);
+            System.arraycopy(this.configs, index + 1, newConfigs, index, length - index - 1);
+            return new Snapshot(newIds, newConfigs);
+        }
+    }
+}
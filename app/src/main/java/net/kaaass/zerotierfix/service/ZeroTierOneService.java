@@ -12,6 +12,7 @@ import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.widget.Toast;
 
@@ -52,6 +53,8 @@ import net.kaaass.zerotierfix.events.VPNErrorEvent;
 import net.kaaass.zerotierfix.events.VirtualNetworkConfigChangedEvent;
 import net.kaaass.zerotierfix.events.VirtualNetworkConfigReplyEvent;
 import net.kaaass.zerotierfix.events.VirtualNetworkConfigRequestEvent;
+import net.kaaass.zerotierfix.metrics.CoreMetrics;
+import net.kaaass.zerotierfix.metrics.DataPlaneMetrics;
 import net.kaaass.zerotierfix.model.AppNode;
 import net.kaaass.zerotierfix.model.AppRoutingDao;
 import net.kaaass.zerotierfix.model.AssignedAddress;
@@ -66,6 +69,8 @@ import net.kaaass.zerotierfix.util.DatabaseUtils;
 import net.kaaass.zerotierfix.util.InetAddressUtils;
 import net.kaaass.zerotierfix.util.LogUtil;
 import net.kaaass.zerotierfix.util.NetworkInfoUtils;
+import net.kaaass.zerotierfix.util.StartupTracer;
+import net.kaaass.zerotierfix.util.TraceRecorder;
 // import net.kaaass.zerotierfix.util.ProxyManager; // 代理功能已移除
 import net.kaaass.zerotierfix.util.StringUtils;
 
@@ -73,9 +78,9 @@ import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.net.DatagramSocket;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -86,10 +91,8 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -102,22 +105,44 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
     private static final String[] DISALLOWED_APPS = {"com.android.vending"};
     private static final String TAG = "ZT1_Service";
     private static final int ZT_NOTIFICATION_TAG = 5919812;
+    private static final int ZT_UDP_PORT = 9994;
+    /**
+     * 停止服务时等待工作线程结束的最长时间，毫秒
+     */
+    private static final long SHUTDOWN_TIMEOUT = 1000;
+    /**
+     * 停止服务时等待节点数据写入磁盘的最长时间，毫秒
+     */
+    private static final long DATA_STORE_FLUSH_TIMEOUT = 2000;
+    /**
+     * 核心事件触发的节点状态更新的最短间隔，毫秒
+     */
+    private static final long NODE_STATUS_INTERVAL = 1000;
     private final IBinder mBinder = new ZeroTierBinder();
-    private final DataStore dataStore = new DataStore(this);
+    private final DataStore dataStore = new DataStore(this, true);
+    private final TunnelConfigCache tunnelConfigCache = new TunnelConfigCache(this);
+    private final PeerPathCache peerPathCache = new PeerPathCache(this);
+    private final NeighborCache neighborCache = new NeighborCache(this);
     private final EventBus eventBus = EventBus.getDefault();
-    private final Map<Long, VirtualNetworkConfig> virtualNetworkConfigMap = new HashMap();
+    private final VirtualNetworkConfigStore virtualNetworkConfigStore = new VirtualNetworkConfigStore();
     FileInputStream in;
     FileOutputStream out;
-    DatagramSocket svrSocket;
     ParcelFileDescriptor vpnSocket;
     private int bindCount = 0;
     private boolean disableIPv6 = false;
     private int mStartID = -1;
     private long networkId = 0;
-    private long nextBackgroundTaskDeadline = 0;
+    private final BackgroundTaskScheduler backgroundTaskScheduler = new BackgroundTaskScheduler();
     private Node node;
     private NotificationManager notificationManager;
     private TunTapAdapter tunTapAdapter;
+    /**
+     * 当前生效的隧道配置，隧道未建立时为 null
+     */
+    private volatile TunnelConfig currentTunnelConfig;
+    private TunnelReconfigureCoordinator reconfigureCoordinator;
+    private NodeStatusPublisher nodeStatusPublisher;
+    private MetricsExporter metricsExporter;
     private UdpCom udpCom;
     private Thread udpThread;
     private Thread v4MulticastScanner = new Thread() {
@@ -225,27 +250,19 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
     private Thread vpnThread;
 
     public VirtualNetworkConfig getVirtualNetworkConfig(long j) {
-        VirtualNetworkConfig virtualNetworkConfig;
-        synchronized (this.virtualNetworkConfigMap) {
-            virtualNetworkConfig = this.virtualNetworkConfigMap.get(Long.valueOf(j));
-        }
-        return virtualNetworkConfig;
+        return this.virtualNetworkConfigStore.get(j);
     }
 
     public VirtualNetworkConfig setVirtualNetworkConfig(long j, VirtualNetworkConfig virtualNetworkConfig) {
-        VirtualNetworkConfig put;
-        synchronized (this.virtualNetworkConfigMap) {
-            put = this.virtualNetworkConfigMap.put(Long.valueOf(j), virtualNetworkConfig);
-        }
-        return put;
+        return this.virtualNetworkConfigStore.put(j, virtualNetworkConfig);
     }
 
     public VirtualNetworkConfig clearVirtualNetworkConfig(long j) {
-        VirtualNetworkConfig remove;
-        synchronized (this.virtualNetworkConfigMap) {
-            remove = this.virtualNetworkConfigMap.remove(Long.valueOf(j));
-        }
-        return remove;
+        return this.virtualNetworkConfigStore.remove(j);
+    }
+
+    public VirtualNetworkConfigStore getVirtualNetworkConfigStore() {
+        return this.virtualNetworkConfigStore;
     }
 
     private void logBindCount() {
@@ -268,9 +285,7 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
 
     /* access modifiers changed from: protected */
     protected void setNextBackgroundTaskDeadline(long j) {
-        synchronized (this) {
-            this.nextBackgroundTaskDeadline = j;
-        }
+        this.backgroundTaskScheduler.setDeadline(j);
     }
 
     /**
@@ -288,6 +303,11 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
             return START_NOT_STICKY;
         }
         this.mStartID = startId;
+        // 仅节点尚未创建时追踪启动，中途返回时须结束本次追踪
+        boolean tracing = this.node == null;
+        if (tracing) {
+            StartupTracer.start();
+        }
 
         // 注册事件总线监听器
         if (!this.eventBus.isRegistered(this)) {
@@ -300,6 +320,7 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
             networkId = intent.getLongExtra(ZT1_NETWORK_ID, 0);
         } else {
             // 默认启用最近一次启动的网络
+            var span = StartupTracer.span("find last activated network");
             DatabaseUtils.readLock.lock();
             try {
                 var daoSession = ((ZerotierFixApplication) getApplication()).getDaoSession();
@@ -309,12 +330,14 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
                         .list();
                 if (lastActivatedNetworks == null || lastActivatedNetworks.isEmpty()) {
                     LogUtil.e(TAG, "Couldn't find last activated connection");
+                    abortStartupTrace(tracing, "no last activated network");
                     return START_NOT_STICKY;
                 } else if (lastActivatedNetworks.size() > 1) {
                     LogUtil.e(TAG, "Multiple networks marked as last connected: " + lastActivatedNetworks.size());
                     for (Network network : lastActivatedNetworks) {
                         LogUtil.e(TAG, "ID: " + Long.toHexString(network.getNetworkId()));
                     }
+                    abortStartupTrace(tracing, "database is inconsistent");
                     throw new IllegalStateException("Database is inconsistent");
                 } else {
                     networkId = lastActivatedNetworks.get(0).getNetworkId();
@@ -322,10 +345,12 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
                 }
             } finally {
                 DatabaseUtils.readLock.unlock();
+                span.end();
             }
         }
         if (networkId == 0) {
             LogUtil.e(TAG, "Network ID not provided to service");
+            abortStartupTrace(tracing, "no network ID");
             stopSelf(startId);
             return START_NOT_STICKY;
         }
@@ -335,17 +360,21 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
         var preferences = PreferenceManager.getDefaultSharedPreferences(this);
         boolean useCellularData = preferences.getBoolean(Constants.PREF_NETWORK_USE_CELLULAR_DATA, false);
         this.disableIPv6 = preferences.getBoolean(Constants.PREF_NETWORK_DISABLE_IPV6, false);
+        TraceRecorder.setFullTrace(preferences.getBoolean(Constants.PREF_DIAGNOSTIC_FULL_TRACE, false));
+        boolean metricsHttp = preferences.getBoolean(Constants.PREF_DIAGNOSTIC_METRICS_HTTP, false);
         var currentNetworkInfo = NetworkInfoUtils.getNetworkInfoCurrentConnection(this);
 
         if (currentNetworkInfo == NetworkInfoUtils.CurrentConnection.CONNECTION_NONE) {
             // 未连接网络
             Toast.makeText(this, R.string.toast_no_network, Toast.LENGTH_SHORT).show();
+            abortStartupTrace(tracing, "no network connection");
             stopSelf(this.mStartID);
             return START_NOT_STICKY;
         } else if (currentNetworkInfo == NetworkInfoUtils.CurrentConnection.CONNECTION_MOBILE &&
                 !useCellularData) {
             // 使用移动网络，但未在设置中允许移动网络访问
             Toast.makeText(this, R.string.toast_mobile_data, Toast.LENGTH_LONG).show();
+            abortStartupTrace(tracing, "mobile data not allowed");
             stopSelf(this.mStartID);
             return START_NOT_STICKY;
         }
@@ -353,37 +382,55 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
         // 启动 ZT 服务
         synchronized (this) {
             try {
-                // 创建本地 ZT 服务 Socket，监听本地端口
-                if (this.svrSocket == null) {
-                    this.svrSocket = new DatagramSocket(null);
-                    this.svrSocket.setReuseAddress(true);
-                    this.svrSocket.setSoTimeout(1000);
-                    this.svrSocket.bind(new InetSocketAddress(9994));
-                }
-                if (!protect(this.svrSocket)) {
-                    LogUtil.e(TAG, "Error protecting UDP socket from feedback loop.");
-                }
-
                 // 创建本地节点
                 if (this.node == null) {
-                    this.udpCom = new UdpCom(this, this.svrSocket);
-                    this.tunTapAdapter = new TunTapAdapter(this, networkId);
+                    // 创建本地 ZT 服务 Socket，监听本地端口
+                    var span = StartupTracer.span("bind and protect UDP sockets");
+                    this.udpCom = new UdpCom(this);
+                    this.udpCom.bind(ZT_UDP_PORT);
+                    span.end();
+                    this.tunTapAdapter = new TunTapAdapter(this, networkId, this.neighborCache);
+                    this.virtualNetworkConfigStore.addListener(this.tunTapAdapter);
+                    this.reconfigureCoordinator = new TunnelReconfigureCoordinator((id, changed) -> {
+                        var reconfigureSpan = StartupTracer.span("reconfigure network");
+                        try {
+                            reconfigureNetwork(id, changed);
+                        } finally {
+                            reconfigureSpan.end();
+                        }
+                    });
+                    this.nodeStatusPublisher = new NodeStatusPublisher(NODE_STATUS_INTERVAL, this::publishNodeStatus);
 
                     // 创建节点对象并初始化
                     var dataStore = this.dataStore;
-                    this.node = new Node(System.currentTimeMillis());
-                    var result = this.node.init(dataStore, dataStore, this.udpCom, this, this.tunTapAdapter, this, null);
+                    long now = System.currentTimeMillis();
+                    this.peerPathCache.load(now);
+                    // 节点身份可能正在后台预生成，等待其完成后再初始化节点
+                    span = StartupTracer.span("wait for identity pregeneration");
+                    long identityWaitTime = IdentityPregenerator.awaitCompletion(IdentityPregenerator.AWAIT_TIMEOUT);
+                    span.end();
+                    span = StartupTracer.span("node init");
+                    long initStartTime = SystemClock.elapsedRealtime();
+                    this.node = new Node(now);
+                    var result = this.node.init(dataStore, dataStore, this.udpCom, this, this.tunTapAdapter,
+                            this, this.peerPathCache);
+                    span.end();
 
                     if (result == ResultCode.RESULT_OK) {
-                        LogUtil.d(TAG, "ZeroTierOne Node Initialized");
+                        LogUtil.i(TAG, "ZeroTierOne Node Initialized in "
+                                + (SystemClock.elapsedRealtime() - initStartTime) + " ms, identity "
+                                + IdentityPregenerator.getState() + ", waited " + identityWaitTime + " ms");
+                        LogUtil.i(TAG, "Data store " + dataStore.describeReads());
                     } else {
                         LogUtil.e(TAG, "Error starting ZT1 Node: " + result);
+                        abortStartupTrace(tracing, "node init " + result);
                         return START_NOT_STICKY;
                     }
                     this.onNodeStatusRequest(null);
 
                     // 持久化当前节点信息
                     long address = this.node.address();
+                    span = StartupTracer.span("persist node address");
                     DatabaseUtils.writeLock.lock();
                     try {
                         var appNodeDao = ((ZerotierFixApplication) getApplication())
@@ -403,16 +450,34 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
                         }
                     } finally {
                         DatabaseUtils.writeLock.unlock();
+                        span.end();
                     }
 
                     this.eventBus.post(new NodeIDEvent(address));
                     this.udpCom.setNode(this.node);
                     this.tunTapAdapter.setNode(this.node);
+                    // 向缓存的对端路径发送探测报文，使对端发来的报文能直接穿过本地 NAT
+                    int probes = 0;
+                    for (var endpoint : this.peerPathCache.endpoints()) {
+                        if (this.udpCom.sendProbe(endpoint)) {
+                            probes++;
+                        }
+                    }
+                    LogUtil.d(TAG, "Sent " + probes + " probes to cached peer paths");
 
                     // 启动 UDP 消息处理线程
                     var thread = new Thread(this.udpCom, "UDP Communication Thread");
                     this.udpThread = thread;
                     thread.start();
+
+                    // 导出指标
+                    var metricsDir = getExternalFilesDir(null);
+                    if (metricsDir == null) {
+                        metricsDir = getFilesDir();
+                    }
+                    this.metricsExporter = new MetricsExporter(new File(metricsDir, Constants.FILE_METRICS),
+                            metricsHttp ? MetricsExporter.HTTP_PORT : 0, this::collectCoreMetrics);
+                    this.metricsExporter.start();
                 }
 
                 // 创建并启动 VPN 服务线程
@@ -428,58 +493,71 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
                 }
             } catch (Exception e) {
                 LogUtil.e(TAG, e.toString(), e);
+                abortStartupTrace(tracing, e.toString());
                 return START_NOT_STICKY;
             }
         }
+        var span = StartupTracer.span("join network");
         joinNetwork(networkId);
+        span.end();
         return START_STICKY;
     }
 
-    public void stopZeroTier() {
-        if (this.svrSocket != null) {
-            this.svrSocket.close();
-            this.svrSocket = null;
-        }
-        if (this.udpThread != null && this.udpThread.isAlive()) {
-            this.udpThread.interrupt();
-            try {
-                this.udpThread.join();
-            } catch (InterruptedException ignored) {
-            }
-            this.udpThread = null;
+    /**
+     * 启动中途失败，结束本次启动追踪
+     *
+     * @param tracing 本次启动是否开始了追踪
+     */
+    private static void abortStartupTrace(boolean tracing, String reason) {
+        if (tracing) {
+            StartupTracer.finish("aborted: " + reason);
         }
-        if (this.tunTapAdapter != null && this.tunTapAdapter.isRunning()) {
-            this.tunTapAdapter.interrupt();
-            try {
-                this.tunTapAdapter.join();
-            } catch (InterruptedException ignored) {
-            }
+    }
+
+    public void stopZeroTier() {
+        StartupTracer.finish("service stopped before first packet");
+        NetworkTimeline.finishAll();
+        // 并行停止全部工作线程：先关闭文件描述符、中断线程，再统一等待
+        var shutdown = new ParallelShutdown("ZeroTier service");
+        var coordinator = this.reconfigureCoordinator;
+        if (coordinator != null) {
+            shutdown.add("reconfigure", coordinator::shutdown, coordinator::awaitTermination);
+        }
+        var statusPublisher = this.nodeStatusPublisher;
+        if (statusPublisher != null) {
+            LogUtil.i(TAG, "Node status updates: " + statusPublisher);
+            shutdown.add("node status", statusPublisher::shutdown, statusPublisher::awaitTermination);
+        }
+        var exporter = this.metricsExporter;
+        if (exporter != null) {
+            LogUtil.i(TAG, "Metrics export: " + exporter);
+            shutdown.add("metrics", exporter::shutdown, exporter::awaitTermination);
+        }
+        var udp = this.udpCom;
+        shutdown.addThread("udp", this.udpThread, udp != null ? udp::close : null);
+        var adapter = this.tunTapAdapter;
+        if (adapter != null) {
+            this.virtualNetworkConfigStore.removeListener(adapter);
+            shutdown.add("tun", adapter::requestStop, adapter::awaitStop);
+        }
+        shutdown.addThread("service", this.vpnThread, null);
+        shutdown.addThread("v4 multicast", this.v4MulticastScanner, null);
+        shutdown.addThread("v6 multicast", this.v6MulticastScanner, null);
+        boolean stopped = shutdown.run(SHUTDOWN_TIMEOUT);
+        this.reconfigureCoordinator = null;
+        this.nodeStatusPublisher = null;
+        this.metricsExporter = null;
+        this.udpCom = null;
+        this.udpThread = null;
+        this.vpnThread = null;
+        this.v4MulticastScanner = null;
+        this.v6MulticastScanner = null;
+        if (adapter != null) {
+            adapter.close();
             this.tunTapAdapter = null;
+            this.neighborCache.save();
         }
-        if (this.vpnThread != null && this.vpnThread.isAlive()) {
-            this.vpnThread.interrupt();
-            try {
-                this.vpnThread.join();
-            } catch (InterruptedException ignored) {
-            }
-            this.vpnThread = null;
-        }
-        if (this.v4MulticastScanner != null) {
-            this.v4MulticastScanner.interrupt();
-            try {
-                this.v4MulticastScanner.join();
-            } catch (InterruptedException ignored) {
-            }
-            this.v4MulticastScanner = null;
-        }
-        if (this.v6MulticastScanner != null) {
-            this.v6MulticastScanner.interrupt();
-            try {
-                this.v6MulticastScanner.join();
-            } catch (InterruptedException ignored) {
-            }
-            this.v6MulticastScanner = null;
-        }
+        this.currentTunnelConfig = null;
         if (this.vpnSocket != null) {
             try {
                 this.vpnSocket.close();
@@ -489,9 +567,18 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
             this.vpnSocket = null;
         }
         if (this.node != null) {
+            // 保存最新的对端路径供下次启动使用
+            this.peerPathCache.update(this.node.peers(), System.currentTimeMillis());
+            this.peerPathCache.save();
             this.eventBus.post(new NodeDestroyedEvent());
-            this.node.close();
+            if (stopped) {
+                this.node.close();
+            } else {
+                // 仍有线程可能访问节点，释放节点会导致原生层崩溃，宁可泄漏
+                LogUtil.e(TAG, "Workers still running, node is not released");
+            }
             this.node = null;
+            this.dataStore.flush(DATA_STORE_FLUSH_TIMEOUT);
         }
         if (this.eventBus.isRegistered(this)) {
             this.eventBus.unregister(this);
@@ -546,30 +633,33 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
     public void run() {
         LogUtil.d(TAG, "ZeroTierOne Service Started");
         LogUtil.d(TAG, "This Node Address: " + com.zerotier.sdk.util.StringUtils.addressToString(this.node.address()));
+        var scheduler = this.backgroundTaskScheduler;
         while (!Thread.interrupted()) {
             try {
-                // 在后台任务截止期前循环进行后台任务
-                var taskDeadline = this.nextBackgroundTaskDeadline;
-                long currentTime = System.currentTimeMillis();
-                int cmp = Long.compare(taskDeadline, currentTime);
-                if (cmp <= 0) {
-                    long[] newDeadline = {0};
-                    var taskResult = this.node.processBackgroundTasks(currentTime, newDeadline);
-                    synchronized (this) {
-                        this.nextBackgroundTaskDeadline = newDeadline[0];
-                    }
-                    if (taskResult != ResultCode.RESULT_OK) {
-                        LogUtil.e(TAG, "Error on processBackgroundTasks: " + taskResult.toString());
-                        shutdown();
-                    }
+                // 等待至后台任务截止期，期间若有更早的截止期会被提前唤醒
+                long currentTime = scheduler.awaitDeadline();
+                long[] newDeadline = {0};
+                var taskResult = this.node.processBackgroundTasks(currentTime, newDeadline);
+                DataPlaneMetrics.recordJniCall(DataPlaneMetrics.JNI_PROCESS_BACKGROUND_TASKS,
+                        taskResult == ResultCode.RESULT_OK);
+                scheduler.onTasksProcessed(currentTime, newDeadline[0]);
+                if (this.peerPathCache.isSnapshotDue(currentTime)) {
+                    this.peerPathCache.update(this.node.peers(), currentTime);
+                }
+                if (taskResult != ResultCode.RESULT_OK) {
+                    LogUtil.e(TAG, "Error on processBackgroundTasks: " + taskResult.toString());
+                    // 由本线程发起停止时不会被中断，需自行退出
+                    shutdown();
+                    break;
                 }
-                Thread.sleep(cmp > 0 ? taskDeadline - currentTime : 100);
             } catch (InterruptedException ignored) {
                 break;
             } catch (Exception e) {
                 LogUtil.e(TAG, e.toString(), e);
             }
         }
+        LogUtil.i(TAG, "Background tasks: " + scheduler);
+        LogUtil.i(TAG, "Peer paths: " + this.peerPathCache);
         LogUtil.d(TAG, "ZeroTierOne Service Ended");
     }
 
@@ -597,6 +687,7 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
             return;
         }
         // 连接到新网络
+        NetworkTimeline.joinIssued(networkId);
         var result = this.node.join(networkId);
         if (result != ResultCode.RESULT_OK) {
             this.eventBus.post(new ErrorEvent(result));
@@ -619,6 +710,9 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
             this.eventBus.post(new ErrorEvent(result));
             return;
         }
+        this.tunnelConfigCache.delete(networkId);
+        this.neighborCache.remove(networkId);
+        NetworkTimeline.finish(networkId);
         var networkConfigs = this.node.networkConfigs();
         if (networkConfigs != null && networkConfigs.length != 0) {
             return;
@@ -682,12 +776,16 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
         this.eventBus.post(new VirtualNetworkConfigReplyEvent(config));
     }
 
-    @Subscribe(threadMode = ThreadMode.ASYNC)
+    /**
+     * 网络重配置事件回调。由重配置协调器线程发出并在该线程中串行执行
+     */
+    @Subscribe(threadMode = ThreadMode.POSTING)
     public void onNetworkReconfigure(NetworkReconfigureEvent event) {
         boolean isChanged = event.isChanged();
         var network = event.getNetwork();
         var networkConfig = event.getVirtualNetworkConfig();
-        boolean configUpdated = isChanged && updateTunnelConfig(network);
+        // 以核心保存的配置启动时，第一次 Update 可能与之相同，但隧道尚未建立
+        boolean configUpdated = (isChanged || this.currentTunnelConfig == null) && updateTunnelConfig(network);
         boolean networkIsOk = networkConfig.getStatus() == VirtualNetworkStatus.NETWORK_STATUS_OK;
 
         if (configUpdated || !networkIsOk) {
@@ -698,37 +796,145 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
     @Subscribe(threadMode = ThreadMode.ASYNC)
     public void onNetworkConfigChangedByUser(NetworkConfigChangedByUserEvent event) {
         Network network = event.getNetwork();
-        if (network.getNetworkId() != this.networkId) {
+        if (getVirtualNetworkConfig(network.getNetworkId()) == null) {
             return;
         }
-        updateTunnelConfig(network);
+        var coordinator = this.reconfigureCoordinator;
+        if (coordinator != null) {
+            coordinator.submit(network.getNetworkId(), true);
+        }
     }
 
     /**
      * Zerotier 事件回调
+     * <p>
+     * 事件写入跟踪记录，节点状态更新合并后发布
      *
      * @param event {@link Event} enum
      */
     @Override
     public void onEvent(Event event) {
-        LogUtil.d(TAG, "Event: " + event.toString());
+        TraceRecorder.recordEvent(event);
         // 更新节点状态
-        if (this.node.isInited()) {
-            this.eventBus.post(new NodeStatusEvent(this.node.status(), this.node.getVersion()));
+        var publisher = this.nodeStatusPublisher;
+        if (publisher != null) {
+            publisher.request();
         }
     }
 
     @Override // com.zerotier.sdk.EventListener
     public void onTrace(String str) {
-        LogUtil.d(TAG, "Trace: " + str);
+        TraceRecorder.recordTrace(str);
+    }
+
+    /**
+     * 查询并发布节点状态，在节点状态发布线程中调用
+     */
+    private void publishNodeStatus() {
+        var node = this.node;
+        if (node != null && node.isInited()) {
+            this.eventBus.post(new NodeStatusEvent(node.status(), node.getVersion()));
+        }
+    }
+
+    /**
+     * 以节点的当前状态更新核心指标，在指标导出线程中调用
+     */
+    private void collectCoreMetrics() {
+        var node = this.node;
+        if (node == null || !node.isInited()) {
+            CoreMetrics.clear();
+            return;
+        }
+        var networks = new ArrayList<VirtualNetworkConfig>();
+        for (long networkId : this.virtualNetworkConfigStore.networkIds()) {
+            var config = this.virtualNetworkConfigStore.get(networkId);
+            if (config != null) {
+                networks.add(config);
+            }
+        }
+        CoreMetrics.update(node.status(), node.peers(), networks, System.currentTimeMillis());
     }
 
     /**
      * 当 ZT 网络配置发生更新
+     * <p>
+     * 在 ZT 核心线程中调用。此处只更新内存中的配置，数据库更新与隧道重配置交由协调器合并执行
      */
     @Override
     public int onNetworkConfigurationUpdated(long networkId, VirtualNetworkConfigOperation op, VirtualNetworkConfig config) {
         LogUtil.i(TAG, "Virtual Network Config Operation: " + op);
+        // 根据当前网络状态确定更改配置的行为
+        switch (op) {
+            case VIRTUAL_NETWORK_CONFIG_OPERATION_UP:
+                LogUtil.d(TAG, "Network Type: " + config.getType() + " Network Status: " + config.getStatus() + " Network Name: " + config.getName() + " ");
+                NetworkTimeline.record(networkId, NetworkTimeline.Stage.CONFIG_UP);
+                recordStatusOk(networkId, config);
+                if (config.getStatus() == VirtualNetworkStatus.NETWORK_STATUS_OK) {
+                    // 核心保存有此网络的配置，先交给数据面，再以缓存的隧道配置立即建立隧道。
+                    // 数据库更新与隧道的差异更新交给第一次 Update
+                    setVirtualNetworkConfig(networkId, config);
+                    var upCoordinator = this.reconfigureCoordinator;
+                    if (upCoordinator != null && this.currentTunnelConfig == null) {
+                        upCoordinator.execute(this::bringUpFromCache);
+                    }
+                }
+                break;
+            case VIRTUAL_NETWORK_CONFIG_OPERATION_CONFIG_UPDATE:
+                LogUtil.i(TAG, "Network Config Update!");
+                StartupTracer.mark("config update " + com.zerotier.sdk.util.StringUtils.networkIdToString(networkId));
+                NetworkTimeline.record(networkId, NetworkTimeline.Stage.FIRST_CONFIG_UPDATE);
+                recordStatusOk(networkId, config);
+                var oldConfig = setVirtualNetworkConfig(networkId, config);
+                boolean isChanged = !config.equals(oldConfig);
+                var coordinator = this.reconfigureCoordinator;
+                if (coordinator != null) {
+                    coordinator.submit(networkId, isChanged);
+                }
+                break;
+            case VIRTUAL_NETWORK_CONFIG_OPERATION_DOWN:
+            case VIRTUAL_NETWORK_CONFIG_OPERATION_DESTROY:
+                LogUtil.d(TAG, "Network Down!");
+                if (clearVirtualNetworkConfig(networkId) != null && this.reconfigureCoordinator != null) {
+                    // 其他网络仍在运行时，需要从隧道中移除此网络
+                    this.reconfigureCoordinator.submit(networkId, true);
+                }
+                break;
+        }
+        return 0;
+    }
+
+    private static void recordStatusOk(long networkId, VirtualNetworkConfig config) {
+        if (config != null && config.getStatus() == VirtualNetworkStatus.NETWORK_STATUS_OK) {
+            NetworkTimeline.record(networkId, NetworkTimeline.Stage.STATUS_OK);
+        }
+    }
+
+    /**
+     * 在隧道承载的各网络的加入时间线上记录隧道已建立
+     */
+    private static void recordTunnelEstablished(TunnelConfig tunnelConfig) {
+        for (var networkId : new HashSet<>(tunnelConfig.getTunRoutes().values())) {
+            NetworkTimeline.record(networkId, NetworkTimeline.Stage.TUNNEL_ESTABLISHED);
+        }
+    }
+
+    /**
+     * 以最新的网络配置更新数据库并重配置隧道。在重配置协调器线程中调用
+     */
+    private void reconfigureNetwork(long networkId, boolean isChanged) {
+        var config = getVirtualNetworkConfig(networkId);
+        if (config == null) {
+            LogUtil.d(TAG, "Network " + com.zerotier.sdk.util.StringUtils.networkIdToString(networkId) + " is down");
+            // 以其余网络重配置隧道
+            var primaryNetwork = findNetwork(this.networkId);
+            if (this.currentTunnelConfig != null && primaryNetwork != null
+                    && this.virtualNetworkConfigStore.networkIds().length > 0) {
+                updateTunnelConfig(primaryNetwork);
+            }
+            return;
+        }
+        Network network;
         DatabaseUtils.writeLock.lock();
         try {
             // 查找网络 ID 对应的配置
@@ -741,42 +947,23 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
             if (matchedNetwork.size() != 1) {
                 throw new IllegalStateException("Database is inconsistent");
             }
-            var network = matchedNetwork.get(0);
-            // 根据当前网络状态确定更改配置的行为
-            switch (op) {
-                case VIRTUAL_NETWORK_CONFIG_OPERATION_UP:
-                    LogUtil.d(TAG, "Network Type: " + config.getType() + " Network Status: " + config.getStatus() + " Network Name: " + config.getName() + " ");
-                    // 将网络配置的更新交给第一次 Update
-                    break;
-                case VIRTUAL_NETWORK_CONFIG_OPERATION_CONFIG_UPDATE:
-                    LogUtil.i(TAG, "Network Config Update!");
-                    boolean isChanged = setVirtualNetworkConfigAndUpdateDatabase(network, config);
-                    this.eventBus.post(new NetworkReconfigureEvent(isChanged, network, config));
-                    break;
-                case VIRTUAL_NETWORK_CONFIG_OPERATION_DOWN:
-                case VIRTUAL_NETWORK_CONFIG_OPERATION_DESTROY:
-                    LogUtil.d(TAG, "Network Down!");
-                    clearVirtualNetworkConfig(networkId);
-                    break;
-            }
-            return 0;
+            network = matchedNetwork.get(0);
+            updateNetworkDatabase(network, config);
         } finally {
             DatabaseUtils.writeLock.unlock();
         }
+        this.eventBus.post(new NetworkReconfigureEvent(isChanged, network, config));
     }
 
-    private boolean setVirtualNetworkConfigAndUpdateDatabase(Network network, VirtualNetworkConfig virtualNetworkConfig) {
+    private void updateNetworkDatabase(Network network, VirtualNetworkConfig virtualNetworkConfig) {
         if ((DatabaseUtils.writeLock instanceof ReentrantReadWriteLock.WriteLock) && !((ReentrantReadWriteLock.WriteLock) DatabaseUtils.writeLock).isHeldByCurrentThread()) {
             throw new IllegalStateException("DatabaseUtils.writeLock not held");
         }
-        VirtualNetworkConfig virtualNetworkConfig2 = getVirtualNetworkConfig(network.getNetworkId());
-        setVirtualNetworkConfig(network.getNetworkId(), virtualNetworkConfig);
         var networkName = virtualNetworkConfig.getName();
         if (networkName != null && !networkName.isEmpty()) {
             network.setNetworkName(networkName);
         }
         network.update();
-        return !virtualNetworkConfig.equals(virtualNetworkConfig2);
     }
 
     protected void shutdown() {
@@ -792,41 +979,194 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
         stopSelf(this.mStartID);
     }
 
+    /**
+     * 根据网络配置更新隧道。比较新旧隧道配置，仅在必要时重建隧道
+     *
+     * @param network 触发更新的网络
+     */
     private boolean updateTunnelConfig(Network network) {
-        long networkId = network.getNetworkId();
-        var networkConfig = network.getNetworkConfig();
-        var virtualNetworkConfig = getVirtualNetworkConfig(networkId);
-        if (virtualNetworkConfig == null) {
+        if (this.virtualNetworkConfigStore.networkIds().length == 0) {
             return false;
         }
+        long startTime = System.nanoTime();
+        long droppedBefore = this.tunTapAdapter.getDroppedFrames();
 
-        // 重启 TUN TAP
-        if (this.tunTapAdapter.isRunning()) {
-            this.tunTapAdapter.interrupt();
-            try {
-                this.tunTapAdapter.join();
-            } catch (InterruptedException ignored) {
+        // 计算新的隧道配置并与当前配置比较
+        var tunnelConfig = buildTunnelConfig();
+        if (tunnelConfig == null) {
+            return false;
+        }
+        var currentConfig = this.currentTunnelConfig;
+        var change = tunnelConfig.diff(currentConfig);
+        switch (change) {
+            case NONE:
+                LogUtil.i(TAG, "Tunnel config unchanged, skip reconfiguration");
+                break;
+            case UPDATE_ROUTES:
+                LogUtil.i(TAG, "Updating tunnel routes without rebuilding");
+                applyMulticastGroups(currentConfig, tunnelConfig);
+                this.tunTapAdapter.setRoutes(tunnelConfig.getTunRoutes());
+                break;
+            case REBUILD:
+                LogUtil.i(TAG, "Rebuilding tunnel, changed: " + tunnelConfig.describeRebuildReasons(currentConfig));
+                if (!rebuildTunnel(network, currentConfig, tunnelConfig)) {
+                    this.currentTunnelConfig = null;
+                    return false;
+                }
+                break;
+        }
+        this.currentTunnelConfig = tunnelConfig;
+        recordTunnelEstablished(tunnelConfig);
+        if (change != TunnelConfig.Change.NONE) {
+            this.tunnelConfigCache.save(this.networkId, tunnelConfig);
+        }
+
+        long elapsed = (System.nanoTime() - startTime) / 1000000;
+        LogUtil.i(TAG, "Tunnel reconfiguration (" + change + ") took " + elapsed + " ms, frames dropped: "
+                + (this.tunTapAdapter.getDroppedFrames() - droppedBefore));
+        return true;
+    }
+
+    /**
+     * 以缓存的隧道配置立即建立隧道，无需等待控制器下发配置。
+     * 收到新配置后由 {@link #updateTunnelConfig} 按差异更新
+     * <p>
+     * 隧道中的每个网络都须已有核心保存的配置，数据面才有其 MAC 与本地地址；否则路由到该网络的数据包
+     * 都会被丢弃，此时不建立隧道，等待网络启动
+     */
+    private void bringUpFromCache() {
+        if (this.currentTunnelConfig != null) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        var cachedConfig = this.tunnelConfigCache.load(this.networkId);
+        var network = cachedConfig != null ? findNetwork(this.networkId) : null;
+        if (network == null) {
+            LogUtil.d(TAG, "No cached tunnel config, waiting for network config");
+            return;
+        }
+        for (var networkId : new HashSet<>(cachedConfig.getTunRoutes().values())) {
+            if (getVirtualNetworkConfig(networkId) == null) {
+                LogUtil.d(TAG, "Network " + com.zerotier.sdk.util.StringUtils.networkIdToString(networkId)
+                        + " is not up yet, waiting before bringing up cached tunnel");
+                return;
             }
         }
-        this.tunTapAdapter.clearRouteMap();
+        StartupTracer.mark("bring up from cached config");
+        if (rebuildTunnel(network, null, cachedConfig)) {
+            this.currentTunnelConfig = cachedConfig;
+            recordTunnelEstablished(cachedConfig);
+            LogUtil.i(TAG, "Tunnel established from cached config in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms");
+        }
+    }
 
-        // 重启 VPN Socket
-        if (this.vpnSocket != null) {
-            try {
-                this.vpnSocket.close();
-                this.in.close();
-                this.out.close();
-            } catch (Exception e) {
-                LogUtil.e(TAG, "Error closing VPN socket: " + e, e);
+    /**
+     * 订阅新增的组播组，退订不再需要的组播组
+     */
+    private void applyMulticastGroups(TunnelConfig oldConfig, TunnelConfig newConfig) {
+        var oldGroups = oldConfig != null ? oldConfig.getMulticastGroups() : Collections.<TunnelConfig.MulticastGroup>emptySet();
+        var newGroups = newConfig.getMulticastGroups();
+        for (var group : oldGroups) {
+            if (!newGroups.contains(group)) {
+                this.node.multicastUnsubscribe(group.getNetworkId(), group.getGroup(), group.getAdi());
+            }
+        }
+        for (var group : newGroups) {
+            if (oldGroups.contains(group)) {
+                continue;
+            }
+            var result = this.node.multicastSubscribe(group.getNetworkId(), group.getGroup(), group.getAdi());
+            if (result != ResultCode.RESULT_OK) {
+                LogUtil.e(TAG, "Error joining multicast group");
+            } else {
+                LogUtil.d(TAG, "Joined multicast group");
+            }
+        }
+    }
+
+    /**
+     * 根据全部已连接网络的配置计算隧道配置。所有网络共用一个 TUN 接口，
+     * 全局路由与应用分流等设置以服务启动时指定的网络为准
+     *
+     * @return 隧道配置，出错时为 null
+     */
+    private TunnelConfig buildTunnelConfig() {
+        LogUtil.i(TAG, "Configuring tunnel");
+        var builder = new TunnelConfig();
+        boolean isRouteViaZeroTier = false;
+        int mtu = 0;
+        for (long networkId : networkIdsByPriority()) {
+            var virtualNetworkConfig = getVirtualNetworkConfig(networkId);
+            var network = virtualNetworkConfig != null ? findNetwork(networkId) : null;
+            if (network == null) {
+                continue;
+            }
+            boolean isPrimary = networkId == this.networkId;
+            if (!addNetworkToTunnelConfig(builder, network, virtualNetworkConfig, isPrimary)) {
+                return null;
+            }
+            if (isPrimary) {
+                isRouteViaZeroTier = network.getNetworkConfig().getRouteViaZeroTier();
+            }
+            // 多个网络时取最小的 MTU
+            int networkMtu = virtualNetworkConfig.getMtu();
+            LogUtil.i(TAG, "MTU from Network Config: " + networkMtu);
+            if (networkMtu > 0 && (mtu == 0 || networkMtu < mtu)) {
+                mtu = networkMtu;
             }
-            this.vpnSocket = null;
-            this.in = null;
-            this.out = null;
+        }
+        try {
+            builder.addRoute(InetAddress.getByName("224.0.0.0"), 4);
+        } catch (UnknownHostException e) {
+            this.eventBus.post(new VPNErrorEvent(e.getLocalizedMessage()));
+            return null;
         }
 
-        // 配置 VPN
-        LogUtil.i(TAG, "Configuring VpnService.Builder");
-        var builder = new VpnService.Builder();
+        // 配置DNS和MTU
+        if (Build.VERSION.SDK_INT >= 29) {
+            builder.setMetered(false);
+        }
+
+        // 配置允许绕过的APP包
+        configureAllowedDisallowedApps(builder, isRouteViaZeroTier);
+
+        // 配置 MTU
+        if (mtu == 0) {
+            mtu = 2800;
+        }
+        LogUtil.i(TAG, "MTU Set: " + mtu);
+        builder.setMtu(mtu);
+
+        builder.setSession(Constants.VPN_SESSION_NAME);
+        return builder;
+    }
+
+    /**
+     * 全部网络 ID，服务启动时指定的网络在前，其余按 ID 升序。路由冲突时先添加的网络优先
+     */
+    private long[] networkIdsByPriority() {
+        var networkIds = this.virtualNetworkConfigStore.networkIds();
+        for (int i = 1; i < networkIds.length; i++) {
+            if (networkIds[i] == this.networkId) {
+                System.arraycopy(networkIds, 0, networkIds, 1, i);
+                networkIds[0] = this.networkId;
+                break;
+            }
+        }
+        return networkIds;
+    }
+
+    /**
+     * 将单个网络的地址、路由与 DNS 加入隧道配置
+     *
+     * @param isPrimary 是否为服务启动时指定的网络，仅此网络添加全局路由
+     * @return 是否成功
+     */
+    private boolean addNetworkToTunnelConfig(TunnelConfig builder, Network network,
+                                             VirtualNetworkConfig virtualNetworkConfig, boolean isPrimary) {
+        long networkId = network.getNetworkId();
+        var networkConfig = network.getNetworkConfig();
         var assignedAddresses = virtualNetworkConfig.getAssignedAddresses();
         LogUtil.i(TAG, "address length: " + assignedAddresses.length);
         boolean isRouteViaZeroTier = networkConfig.getRouteViaZeroTier();
@@ -863,22 +1203,17 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
                 }
 
                 // 订阅组播并添加至 TUN TAP 路由
-                var result = this.node.multicastSubscribe(networkId, multicastGroup, multicastAdi);
-                if (result != ResultCode.RESULT_OK) {
-                    LogUtil.e(TAG, "Error joining multicast group");
-                } else {
-                    LogUtil.d(TAG, "Joined multicast group");
-                }
+                builder.addMulticastGroup(networkId, multicastGroup, multicastAdi);
                 builder.addAddress(address, port);
                 builder.addRoute(route, port);
-                this.tunTapAdapter.addRouteAndNetwork(new Route(route, port), networkId);
+                builder.addTunRoute(new Route(route, port), networkId);
             }
         }
 
         // 如果启用了全局路由或per-app路由，添加默认路由(0.0.0.0/0 和 ::/0)
         // Per-app模式需要全局路由，这样选中的应用才能访问互联网
         // 只有选中的应用能使用这些路由（通过addAllowedApplication限制）
-        boolean shouldAddGlobalRoutes = isRouteViaZeroTier || isPerAppRouting;
+        boolean shouldAddGlobalRoutes = isPrimary && (isRouteViaZeroTier || isPerAppRouting);
         if (shouldAddGlobalRoutes) {
             try {
                 if (isRouteViaZeroTier) {
@@ -955,6 +1290,9 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
 
         // 遍历网络的路由规则，将网络负责路由的地址路由至 VPN
         try {
+            // 订阅网络的默认组播组
+            builder.addMulticastGroup(networkId,
+                    TunTapAdapter.multicastAddressToMAC(InetAddress.getByName("224.224.224.224")), 0);
             var v4Loopback = InetAddress.getByName("0.0.0.0");
             var v6Loopback = InetAddress.getByName("::");
             if (virtualNetworkConfig.getRoutes().length > 0) {
@@ -984,49 +1322,108 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
                         if (via != null) {
                             route.setGateway(via.getAddress());
                         }
-                        this.tunTapAdapter.addRouteAndNetwork(route, networkId);
+                        builder.addTunRoute(route, networkId);
                     }
                 }
             }
-            builder.addRoute(InetAddress.getByName("224.0.0.0"), 4);
         } catch (Exception e) {
             this.eventBus.post(new VPNErrorEvent(e.getLocalizedMessage()));
             return false;
         }
 
-        // 配置DNS和MTU
-        if (Build.VERSION.SDK_INT >= 29) {
-            builder.setMetered(false);
-        }
-        
         // 增强DNS服务器配置
         addDNSServers(builder, network);
-        
-        // 配置允许绕过的APP包
-        configureAllowedDisallowedApps(builder, isRouteViaZeroTier);
+        return true;
+    }
 
-        // 配置 MTU
-        int mtu = virtualNetworkConfig.getMtu();
-        LogUtil.i(TAG, "MTU from Network Config: " + mtu);
-        if (mtu == 0) {
-            mtu = 2800;
+    /**
+     * 查询网络 ID 对应的数据库记录
+     */
+    private Network findNetwork(long networkId) {
+        DatabaseUtils.readLock.lock();
+        try {
+            var networks = ((ZerotierFixApplication) getApplication())
+                    .getDaoSession()
+                    .getNetworkDao()
+                    .queryBuilder()
+                    .where(NetworkDao.Properties.NetworkId.eq(networkId))
+                    .list();
+            return networks.size() == 1 ? networks.get(0) : null;
+        } finally {
+            DatabaseUtils.readLock.unlock();
         }
-        LogUtil.i(TAG, "MTU Set: " + mtu);
-        builder.setMtu(mtu);
+    }
 
-        builder.setSession(Constants.VPN_SESSION_NAME);
+    /**
+     * 停止 TUN TAP 读取线程并关闭 VPN 连接
+     */
+    private void closeTunnel() {
+        if (this.tunTapAdapter.isRunning()) {
+            this.tunTapAdapter.interrupt();
+            try {
+                this.tunTapAdapter.join();
+            } catch (InterruptedException ignored) {
+            }
+        }
+        if (this.vpnSocket != null) {
+            try {
+                this.vpnSocket.close();
+                this.in.close();
+                this.out.close();
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Error closing VPN socket: " + e, e);
+            }
+            this.vpnSocket = null;
+            this.in = null;
+            this.out = null;
+        }
+    }
+
+    /**
+     * 重建隧道
+     * <p>
+     * 隧道已在运行时先建后断：建立新的 VPN 连接后再切换读写线程并关闭旧连接，
+     * 避免切换期间丢包；建立失败时旧连接继续工作。
+     */
+    private boolean rebuildTunnel(Network network, TunnelConfig oldConfig, TunnelConfig tunnelConfig) {
+        boolean handover = this.vpnSocket != null && this.tunTapAdapter.isRunning();
+        if (!handover) {
+            closeTunnel();
+        }
+
+        applyMulticastGroups(oldConfig, tunnelConfig);
+        this.tunTapAdapter.setRoutes(tunnelConfig.getTunRoutes());
 
         // 建立 VPN 连接
-        this.vpnSocket = builder.establish();
-        if (this.vpnSocket == null) {
+        var span = StartupTracer.span(handover ? "establish (handover)" : "establish");
+        var builder = tunnelConfig.applyTo(new VpnService.Builder());
+        var newVpnSocket = builder.establish();
+        span.end();
+        if (newVpnSocket == null) {
             this.eventBus.post(new VPNErrorEvent(getString(R.string.toast_vpn_application_not_prepared)));
             return false;
         }
-        this.in = new FileInputStream(this.vpnSocket.getFileDescriptor());
-        this.out = new FileOutputStream(this.vpnSocket.getFileDescriptor());
-        this.tunTapAdapter.setVpnSocket(this.vpnSocket);
-        this.tunTapAdapter.setFileStreams(this.in, this.out);
-        this.tunTapAdapter.startThreads();
+        var newIn = new FileInputStream(newVpnSocket.getFileDescriptor());
+        var newOut = new FileOutputStream(newVpnSocket.getFileDescriptor());
+        if (handover) {
+            long startTime = System.nanoTime();
+            var oldVpnSocket = this.vpnSocket;
+            long drained = this.tunTapAdapter.handover(newVpnSocket, newIn, newOut);
+            try {
+                oldVpnSocket.close();
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Error closing old VPN socket: " + e, e);
+            }
+            LogUtil.i(TAG, "VPN handover took " + (System.nanoTime() - startTime) / 1000000
+                    + " ms, packets drained from old interface: " + drained);
+        } else {
+            this.tunTapAdapter.setVpnSocket(newVpnSocket);
+            this.tunTapAdapter.setFileStreams(newIn, newOut);
+            this.tunTapAdapter.startThreads();
+        }
+        this.vpnSocket = newVpnSocket;
+        this.in = newIn;
+        this.out = newOut;
 
         // 状态栏提示
         if (this.notificationManager == null) {
@@ -1100,7 +1497,7 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
     /**
      * 配置允许/不允许的应用
      */
-    private void configureAllowedDisallowedApps(VpnService.Builder builder, boolean isRouteViaZeroTier) {
+    private void configureAllowedDisallowedApps(TunnelConfig builder, boolean isRouteViaZeroTier) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             // Android 5.0 以下版本不支持per-app VPN
             return;
@@ -1194,7 +1591,7 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
         LogUtil.i(TAG, "Per-app路由配置完成（正向模式）: " + allowedCount + " 个应用将走VPN，其他应用走原始路由");
     }
 
-    private void addDNSServers(VpnService.Builder builder, Network network) {
+    private void addDNSServers(TunnelConfig builder, Network network) {
         var networkConfig = network.getNetworkConfig();
         var virtualNetworkConfig = getVirtualNetworkConfig(network.getNetworkId());
         var dnsMode = DNSMode.fromInt(networkConfig.getDnsMode());
@@ -1256,7 +1653,7 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
      * 添加可信的DNS服务器，避免DNS污染
      * @param builder VPN构建器
      */
-    private void addTrustedDNSServers(VpnService.Builder builder) {
+    private void addTrustedDNSServers(TunnelConfig builder) {
         try {
             // 添加Cloudflare的DNS
             builder.addDnsServer(InetAddress.getByName("1.1.1.1"));
@@ -1294,7 +1691,7 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
     /**
      * 配置直接通过ZeroTier的IPv4全局路由(不使用代理)
      */
-    private void configureDirectGlobalRouting(VpnService.Builder builder, VirtualNetworkConfig virtualNetworkConfig, 
+    private void configureDirectGlobalRouting(TunnelConfig builder, VirtualNetworkConfig virtualNetworkConfig, 
                                              InetSocketAddress[] assignedAddresses) throws Exception {
         // 获取ZeroTier网络中的网关
         InetAddress zerotierGateway = null;
@@ -1336,14 +1733,14 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
         if (zerotierGateway != null) {
             defaultRoute.setGateway(zerotierGateway);
         }
-        this.tunTapAdapter.addRouteAndNetwork(defaultRoute, networkId);
+        builder.addTunRoute(defaultRoute, networkId);
         LogUtil.i(TAG, "全局路由模式：直接通过ZeroTier网络");
     }
     
     /**
      * 配置直接通过ZeroTier的IPv6全局路由(不使用代理)
      */
-    private void configureDirectIPv6Routing(VpnService.Builder builder, VirtualNetworkConfig virtualNetworkConfig,
+    private void configureDirectIPv6Routing(TunnelConfig builder, VirtualNetworkConfig virtualNetworkConfig,
                                            InetSocketAddress[] assignedAddresses) throws Exception {
         InetAddress v6DefaultRoute = InetAddress.getByName("::");
         builder.addRoute(v6DefaultRoute, 0);
@@ -1364,7 +1761,7 @@ public class ZeroTierOneService extends VpnService implements Runnable, EventLis
             }
         }
         
-        this.tunTapAdapter.addRouteAndNetwork(ipv6Route, networkId);
+        builder.addTunRoute(ipv6Route, networkId);
         
         // 保护IPv6连接
         protectSocketConnection("2001:4860:4860::8888", 53);
@@ -1,154 +1,38 @@
 package net.kaaass.zerotierfix.ui;
 
-import android.content.ClipData;
-import android.content.ClipboardManager;
-import android.content.Context;
 import android.os.Bundle;
-import android.util.Log;
-import android.view.Menu;
 import android.view.MenuItem;
-import android.view.View;
-import android.widget.ProgressBar;
-import android.widget.TextView;
-import android.widget.Toast;
 
-import androidx.annotation.NonNull;
-import androidx.appcompat.app.AppCompatActivity;
-import androidx.core.widget.NestedScrollView;
-
-import net.kaaass.zerotierfix.R;
-import net.kaaass.zerotierfix.util.LogManager;
+import androidx.appcompat.app.ActionBar;
+import androidx.fragment.app.Fragment;
 
 /**
- * 日志活动，用于显示应用日志
+ * 日志 fragment 容器 activity
  */
-public class LogsActivity extends AppCompatActivity {
-    private static final String TAG = "LogsActivity";
-    
-    private TextView mLogsTextView;
-    private ProgressBar mProgressBar;
-    private NestedScrollView mScrollView;
-    private String mCurrentLogs = "";
-    
+public class LogsActivity extends SingleFragmentActivity {
     @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_logs);
-        
-        // 设置返回按钮
-        if (getSupportActionBar() != null) {
-            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
-            getSupportActionBar().setTitle(R.string.logs_title);
-        }
-        
-        // 初始化视图
-        mLogsTextView = findViewById(R.id.logs_text);
-        mProgressBar = findViewById(R.id.logs_progress);
-        mScrollView = findViewById(R.id.logs_scroll);
-        
-        // 加载日志
-        loadLogs();
-    }
-    
-    /**
-     * 加载日志
-     */
-    private void loadLogs() {
-        showLoading(true);
-        
-        // 使用LogManager获取日志
-        LogManager.getInstance().getLogsAsync(this, logs -> {
-            showLoading(false);
-            displayLogs(logs);
-        });
-    }
-    
-    /**
-     * 显示加载状态
-     */
-    private void showLoading(boolean isLoading) {
-        if (isLoading) {
-            mProgressBar.setVisibility(View.VISIBLE);
-            mLogsTextView.setVisibility(View.GONE);
-        } else {
-            mProgressBar.setVisibility(View.GONE);
-            mLogsTextView.setVisibility(View.VISIBLE);
-        }
-    }
-    
-    /**
-     * 显示日志内容
-     */
-    private void displayLogs(String logs) {
-        if (logs == null || logs.isEmpty()) {
-            mLogsTextView.setText(R.string.no_logs_found);
-            mCurrentLogs = "";
-            return;
-        }
-        
-        mCurrentLogs = logs;
-        mLogsTextView.setText(logs);
-        
-        // 滚动到底部
-        mScrollView.post(() -> mScrollView.fullScroll(View.FOCUS_DOWN));
-    }
-    
-    /**
-     * 复制日志到剪贴板
-     */
-    private void copyLogsToClipboard() {
-        if (mCurrentLogs == null || mCurrentLogs.isEmpty()) {
-            Toast.makeText(this, R.string.no_logs_found, Toast.LENGTH_SHORT).show();
-            return;
-        }
-        
-        ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
-        ClipData clip = ClipData.newPlainText("ZeroTier Logs", mCurrentLogs);
-        clipboard.setPrimaryClip(clip);
-        
-        Toast.makeText(this, R.string.logs_copied, Toast.LENGTH_SHORT).show();
-        Log.d(TAG, "日志已复制到剪贴板");
+    public Fragment createFragment() {
+        return new LogsFragment();
     }
-    
+
     @Override
-    public boolean onCreateOptionsMenu(Menu menu) {
-        getMenuInflater().inflate(R.menu.menu_logs, menu);
-        return true;
+    public void onCreate(Bundle bundle) {
+        super.onCreate(bundle);
+        // 添加返回按钮
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setHomeButtonEnabled(true);
+            actionBar.setDisplayHomeAsUpEnabled(true);
+        }
     }
-    
+
     @Override
-    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
-        int id = item.getItemId();
-        
-        if (id == android.R.id.home) {
-            // 处理返回按钮点击
-            finish();
-            return true;
-        } else if (id == R.id.menu_item_copy) {
-            // 复制日志
-            Log.d(TAG, "复制日志到剪贴板");
-            copyLogsToClipboard();
-            return true;
-        } else if (id == R.id.menu_item_refresh) {
-            // 刷新日志
-            Log.d(TAG, "刷新日志");
-            loadLogs();
-            return true;
-        } else if (id == R.id.menu_item_clear) {
-            // 清空日志
-            Log.d(TAG, "清空日志");
-            LogManager.getInstance().clearLogs();
-            Toast.makeText(this, R.string.logs_cleared, Toast.LENGTH_SHORT).show();
-            loadLogs();
+    public boolean onOptionsItemSelected(MenuItem item) {
+        // 返回上一界面
+        if (item.getItemId() == android.R.id.home) {
+            this.finish();
             return true;
         }
-        
         return super.onOptionsItemSelected(item);
     }
-    
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        // 不需要关闭LogManager，因为它是单例的，应该在应用退出时关闭
-    }
-}
\ No newline at end of file
+}
@@ -6,25 +6,34 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
-import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.widget.NestedScrollView;
+import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
-import androidx.lifecycle.Lifecycle;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.bottomappbar.BottomAppBar;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
@@ -34,33 +43,107 @@ import net.kaaass.zerotierfix.R;
 import net.kaaass.zerotierfix.ZerotierFixApplication;
 import net.kaaass.zerotierfix.model.AppNode;
 import net.kaaass.zerotierfix.model.Network;
+import net.kaaass.zerotierfix.ui.adapter.LogRecordAdapter;
+import net.kaaass.zerotierfix.util.LogIndex;
 import net.kaaass.zerotierfix.util.LogManager;
+import net.kaaass.zerotierfix.util.LogRecord;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.lang.ref.WeakReference;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * 日志显示Fragment
+ * <p>
+ * 日志以结构化记录显示在列表中，只有显示到屏幕上的行才会格式化。此前进程的持久化日志，以及跟踪统计、
+ * 数据面指标与启动耗时分解的快照在首次加载时读取，之后每隔 {@link #TAIL_INTERVAL} 毫秒增量读取新的系统日志、
+ * 只记录在内部缓冲区中的日志与核心跟踪，插入列表末尾；列表位于末尾时自动跟随。
+ * 按级别、标签、时间范围筛选与文本搜索使用 {@link LogIndex} 的索引，各筛选项显示对应的结果数。查询在后台线程执行，
+ * 新的查询取消尚未完成的查询。分享时将全部日志以 gzip 压缩写入缓存目录，
+ * 通过 {@link FileProvider} 共享文件
  */
 public class LogsFragment extends Fragment {
 
     private static final String TAG = "LogsFragment";
+    /**
+     * 增量读取新日志的间隔，毫秒
+     */
+    private static final long TAIL_INTERVAL = 1000;
+    /**
+     * 列表中最多保留的日志条数
+     */
+    private static final int MAX_RECORDS = 30000;
+    /**
+     * 复制到剪贴板的最多行数，避免超出 Binder 事务大小限制
+     */
+    private static final int MAX_CLIPBOARD_LINES = 500;
+    private static final String EXPORT_DIRECTORY = "logs";
+    /**
+     * 输入搜索文本后等待的时间，毫秒
+     */
+    private static final long SEARCH_DELAY = 300;
+    /**
+     * 时间范围筛选项对应的时长，毫秒，0 表示不限
+     */
+    private static final long[] TIME_RANGES = {0, 10 * 60 * 1000L, 60 * 60 * 1000L, 24 * 60 * 60 * 1000L};
 
-    private TextView logsContentView;
+    private RecyclerView logsListView;
     private TextView emptyView;
-    private NestedScrollView scrollView;
+    private Spinner levelSpinner;
+    private Spinner tagSpinner;
+    private Spinner timeSpinner;
+    private EditText searchInput;
+    private CheckBox regexCheckBox;
+    private TextView searchSummaryView;
     private BottomAppBar bottomAppBar;
     private FloatingActionButton fabShare;
     private ImageButton copyLogsButton;
     private View rootView;
 
     private LogManager logManager;
-    private String currentLogs = "";
+    private final LogIndex logIndex = new LogIndex(MAX_RECORDS);
+    private LogRecordAdapter logAdapter;
+    private ArrayAdapter<String> levelAdapter;
+    private ArrayAdapter<String> tagAdapter;
+    /**
+     * 标签筛选项对应的标签，第 0 项为全部标签
+     */
+    private final List<String> tagNames = new ArrayList<>();
+    private LogManager.LogLevel selectedLevel = LogManager.LogLevel.VERBOSE;
+    private String selectedTag = null;
+    private int selectedTimeRange = 0;
+    /**
+     * 下次读取系统日志的起始序号
+     */
+    private long logcatSequence = 0;
+    /**
+     * 下次读取内部日志与核心跟踪的起始序号
+     */
+    private long internalSequence = 0;
+    private long traceSequence = 0;
+    private boolean previousSessionsLoaded = false;
+    /**
+     * 重新加载时递增，用于丢弃此前发出的读取请求的结果
+     */
+    private int loadGeneration = 0;
+    private boolean isLoadPending = false;
+    /**
+     * 正在后台执行的查询，完成后为 null
+     */
+    private LogIndex.QueryTask pendingQuery;
     private boolean isFragmentActive = false;
-    private LogCallback logCallback;
     private Handler mainHandler;
+    private ExecutorService ioExecutor;
+    private final Runnable tailTask = this::loadNewLogs;
+    private final Runnable searchTask = this::applyQuery;
     private Thread.UncaughtExceptionHandler defaultExceptionHandler;
 
     @Override
@@ -68,8 +151,8 @@ public class LogsFragment extends Fragment {
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
         logManager = LogManager.getInstance();
-        logCallback = new LogCallback(this);
         mainHandler = new Handler(Looper.getMainLooper());
+        ioExecutor = Executors.newSingleThreadExecutor();
         
         // 设置全局异常处理
         setupExceptionHandler();
@@ -92,13 +175,7 @@ public class LogsFragment extends Fragment {
             // 设置自定义异常处理器
             Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> {
                 try {
-                    // 获取异常详细信息
-                    StringWriter sw = new StringWriter();
-                    PrintWriter pw = new PrintWriter(sw);
-                    throwable.printStackTrace(pw);
-                    String stackTrace = sw.toString();
-                    
-                    // 记录日志
+                    // 记录日志，异常详情随系统日志显示在列表中
                     Log.e(TAG, "捕获到未处理异常: " + throwable.getMessage(), throwable);
                     
                     // 使用主线程显示错误
@@ -109,13 +186,6 @@ public class LogsFragment extends Fragment {
                                 if (rootView != null && isAdded()) {
                                     Snackbar.make(rootView, "发生错误: " + throwable.getMessage(), 
                                             Snackbar.LENGTH_LONG).show();
-                                    
-                                    // 将异常详情添加到日志内容中
-                                    String errorDetail = "--- 应用发生异常 ---\n" + 
-                                            stackTrace + 
-                                            "\n--- 异常信息结束 ---\n\n";
-                                    currentLogs = errorDetail + currentLogs;
-                                    updateUI(currentLogs);
                                 }
                             } catch (Exception e) {
                                 Log.e(TAG, "显示错误信息时发生异常", e);
@@ -148,30 +218,16 @@ public class LogsFragment extends Fragment {
      * 添加初始日志
      */
     private void addInitialLog() {
-        // 使用内部应用信息收集
-        String appInfo = logManager.getAppInfo(requireContext());
-        
-        // 添加操作系统版本信息
-        String initialLog = "=== ZeroTier Fix 日志 ===\n"
-                + "当前时间：" + new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", 
-                java.util.Locale.getDefault()).format(new java.util.Date()) + "\n"
-                + appInfo
-                + "======================\n\n"
-                + "正在加载系统日志...\n";
+        // 应用与设备信息较长，仅写入导出的日志文件
+        logManager.info(TAG, "日志界面已初始化");
                 
         // 添加网络信息
         try {
             boolean isNetworkConnected = isNetworkConnected();
-            initialLog += "网络连接状态: " + (isNetworkConnected ? "已连接" : "未连接") + "\n";
+            logManager.info(TAG, "网络连接状态: " + (isNetworkConnected ? "已连接" : "未连接"));
         } catch (Exception e) {
-            initialLog += "无法获取网络状态信息\n";
+            logManager.warn(TAG, "无法获取网络状态信息");
         }
-        
-        // 记录初始日志
-        currentLogs = initialLog;
-        
-        // 添加到LogManager的内部日志
-        logManager.info("LogsFragment", "日志界面已初始化");
     }
     
     /**
@@ -229,24 +285,70 @@ public class LogsFragment extends Fragment {
         rootView = inflater.inflate(R.layout.fragment_logs, container, false);
 
         // 初始化视图
-        logsContentView = rootView.findViewById(R.id.logs_content);
+        logsListView = rootView.findViewById(R.id.logs_list);
         emptyView = rootView.findViewById(R.id.logs_empty);
-        scrollView = rootView.findViewById(R.id.logs_scroll_view);
+        levelSpinner = rootView.findViewById(R.id.logs_level_spinner);
+        tagSpinner = rootView.findViewById(R.id.logs_tag_spinner);
+        timeSpinner = rootView.findViewById(R.id.logs_time_spinner);
+        searchInput = rootView.findViewById(R.id.logs_search_input);
+        regexCheckBox = rootView.findViewById(R.id.logs_regex_checkbox);
+        searchSummaryView = rootView.findViewById(R.id.logs_search_summary);
         bottomAppBar = rootView.findViewById(R.id.bottom_app_bar);
         fabShare = rootView.findViewById(R.id.fab_share);
         copyLogsButton = rootView.findViewById(R.id.copy_logs_button);
 
         try {
-            // 立即显示初始日志
-            updateUI(currentLogs);
+            // 日志列表
+            var layoutManager = new LinearLayoutManager(requireContext());
+            layoutManager.setStackFromEnd(true);
+            logsListView.setLayoutManager(layoutManager);
+            logAdapter = new LogRecordAdapter(logIndex);
+            logAdapter.setOnRecordLongClickListener((record, line) -> copyLine(line));
+            logsListView.setAdapter(logAdapter);
+            updateEmptyView();
+
+            // 筛选条件
+            levelAdapter = new ArrayAdapter<>(requireContext(), android.R.layout.simple_spinner_item);
+            levelAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+            levelSpinner.setAdapter(levelAdapter);
+            tagAdapter = new ArrayAdapter<>(requireContext(), android.R.layout.simple_spinner_item);
+            tagAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+            tagSpinner.setAdapter(tagAdapter);
+            updateFacetLabels();
+            levelSpinner.setSelection(selectedLevel.ordinal());
+            levelSpinner.setOnItemSelectedListener(new FilterListener());
+            tagSpinner.setOnItemSelectedListener(new FilterListener());
+            timeSpinner.setSelection(selectedTimeRange);
+            timeSpinner.setOnItemSelectedListener(new FilterListener());
+
+            // 搜索文本停止输入一段时间后再搜索
+            searchInput.addTextChangedListener(new TextWatcher() {
+                @Override
+                public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                }
+
+                @Override
+                public void onTextChanged(CharSequence s, int start, int before, int count) {
+                }
+
+                @Override
+                public void afterTextChanged(Editable s) {
+                    mainHandler.removeCallbacks(searchTask);
+                    mainHandler.postDelayed(searchTask, SEARCH_DELAY);
+                }
+            });
+            regexCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> applyQuery());
             
             // 设置底部工具栏菜单
             bottomAppBar.setOnMenuItemClickListener(item -> {
                 try {
                     int id = item.getItemId();
-                    if (id == R.id.menu_item_refresh) {
+                    if (id == R.id.menu_item_copy) {
                         copyLogsToClipboard();
                         return true;
+                    } else if (id == R.id.menu_item_refresh) {
+                        reloadLogs();
+                        return true;
                     } else if (id == R.id.menu_item_clear) {
                         clearLogs();
                         return true;
@@ -292,14 +394,17 @@ public class LogsFragment extends Fragment {
     public void onResume() {
         super.onResume();
         isFragmentActive = true;
-        // 每次回到页面刷新日志
-        loadLogs();
+        // 页面可见时才运行 logcat 进程，回到页面时继续读取新日志
+        logManager.acquireLogcat();
+        loadNewLogs();
     }
     
     @Override
     public void onPause() {
         super.onPause();
         isFragmentActive = false;
+        mainHandler.removeCallbacks(tailTask);
+        logManager.releaseLogcat();
     }
     
     @Override
@@ -313,53 +418,229 @@ public class LogsFragment extends Fragment {
             }
         }
         
-        // 清除回调引用，避免内存泄漏
-        if (logCallback != null) {
-            logCallback.detach();
-            logCallback = null;
+        mainHandler.removeCallbacksAndMessages(null);
+        if (pendingQuery != null) {
+            pendingQuery.cancel();
         }
-        
-        mainHandler = null;
+        ioExecutor.shutdown();
         super.onDestroy();
     }
 
     /**
-     * 加载日志
+     * 在后台读取新日志，完成后插入列表并安排下一次读取
      */
-    private void loadLogs() {
-        if (getContext() == null) return;
+    private void loadNewLogs() {
+        if (!isFragmentActive || isLoadPending) return;
 
+        isLoadPending = true;
+        final int generation = loadGeneration;
+        final long[] sequences = {logcatSequence, internalSequence, traceSequence};
+        final boolean loadPreviousSessions = !previousSessionsLoaded;
         try {
-            // 使用静态内部类保持回调，避免内存泄漏
-            logManager.getLogsAsync(requireContext(), logCallback);
+            ioExecutor.execute(() -> {
+                var batch = new ArrayList<LogRecord>();
+                try {
+                    if (loadPreviousSessions) {
+                        logManager.readPreviousSessions(batch);
+                    }
+                    sequences[0] = logManager.readLogcat(sequences[0], batch);
+                    sequences[1] = logManager.readInternalLogs(sequences[1], batch);
+                    sequences[2] = logManager.readTraces(sequences[2], batch);
+                    if (loadPreviousSessions) {
+                        logManager.readDiagnostics(batch);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "读取日志失败", e);
+                }
+                mainHandler.post(() -> onLogsLoaded(generation, loadPreviousSessions, batch, sequences));
+            });
         } catch (Exception e) {
+            isLoadPending = false;
             showError("加载日志失败", e);
-            if (isFragmentActive && isAdded()) {
-                updateUI("加载日志时出错: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 新日志读取完成
+     */
+    private void onLogsLoaded(int generation, boolean includesPreviousSessions, List<LogRecord> batch,
+                              long[] nextSequences) {
+        isLoadPending = false;
+        if (generation != loadGeneration) {
+            // 读取期间日志已被清空或重新加载，丢弃结果并立即重新读取
+            loadNewLogs();
+            return;
+        }
+        logcatSequence = nextSequences[0];
+        internalSequence = nextSequences[1];
+        traceSequence = nextSequences[2];
+        if (includesPreviousSessions) {
+            previousSessionsLoaded = true;
+        }
+        if (isAdded() && logAdapter != null) {
+            appendRecords(batch);
+        }
+        if (isFragmentActive) {
+            mainHandler.postDelayed(tailTask, TAIL_INTERVAL);
+        }
+    }
+
+    /**
+     * 将新记录插入列表末尾。列表原本位于末尾时保持跟随
+     */
+    private void appendRecords(List<LogRecord> batch) {
+        if (batch.isEmpty()) return;
+
+        boolean atBottom = !logsListView.canScrollVertically(1);
+        int before = logIndex.size();
+        int added = logIndex.append(batch);
+        if (added < 0) {
+            logAdapter.notifyDataSetChanged();
+        } else if (added > 0) {
+            logAdapter.notifyItemRangeInserted(before, added);
+        }
+        updateFacetLabels();
+        updateEmptyView();
+        if (atBottom && logIndex.size() > 0) {
+            logsListView.scrollToPosition(logIndex.size() - 1);
+        }
+    }
+
+    /**
+     * 丢弃列表中的日志并重新读取
+     */
+    private void reloadLogs() {
+        loadGeneration++;
+        logcatSequence = 0;
+        internalSequence = 0;
+        traceSequence = 0;
+        previousSessionsLoaded = false;
+        logIndex.clear();
+        logAdapter.notifyDataSetChanged();
+        updateFacetLabels();
+        updateEmptyView();
+        mainHandler.removeCallbacks(tailTask);
+        loadNewLogs();
+    }
+
+    /**
+     * 更新级别与标签筛选项及其结果数，保持当前选中的标签
+     */
+    private void updateFacetLabels() {
+        if (levelAdapter == null || tagAdapter == null) return;
+
+        var levels = LogManager.LogLevel.values();
+        String[] levelNames = getResources().getStringArray(R.array.logs_levels);
+        var levelLabels = new ArrayList<String>(levels.length);
+        for (int i = 0; i < levels.length; i++) {
+            levelLabels.add(getString(R.string.logs_facet_count, levelNames[i], logIndex.countLevel(levels[i])));
+        }
+        levelAdapter.clear();
+        levelAdapter.addAll(levelLabels);
+
+        List<String> tags = logIndex.getTags();
+        if (selectedTag != null && !tags.contains(selectedTag)) {
+            tags.add(selectedTag);
+        }
+        var tagLabels = new ArrayList<String>(tags.size() + 1);
+        tagLabels.add(getString(R.string.logs_all_tags));
+        for (String tag : tags) {
+            tagLabels.add(getString(R.string.logs_facet_count, tag, logIndex.countTag(tag)));
+        }
+        tagNames.clear();
+        tagNames.add(null);
+        tagNames.addAll(tags);
+        tagAdapter.clear();
+        tagAdapter.addAll(tagLabels);
+        tagSpinner.setSelection(selectedTag == null ? 0 : tagNames.indexOf(selectedTag));
+    }
+
+    /**
+     * 按当前的筛选条件与搜索文本重新查询
+     */
+    private void applyQuery() {
+        if (logAdapter == null) return;
+        mainHandler.removeCallbacks(searchTask);
+
+        String text = searchInput.getText().toString();
+        Pattern pattern = null;
+        if (regexCheckBox.isChecked() && !text.isEmpty()) {
+            try {
+                pattern = Pattern.compile(text, Pattern.CASE_INSENSITIVE);
+            } catch (PatternSyntaxException e) {
+                searchInput.setError(getString(R.string.logs_search_invalid_regex));
+                return;
             }
         }
+        searchInput.setError(null);
+        long since = TIME_RANGES[selectedTimeRange] > 0
+                ? System.currentTimeMillis() - TIME_RANGES[selectedTimeRange] : 0;
+        var query = new LogIndex.Query(selectedLevel, selectedTag, since,
+                pattern == null ? text : null, pattern);
+        final boolean showSummary = since > 0 || !text.isEmpty();
+
+        // 逐条比较可能扫描全部记录，在后台执行；尚未完成的查询已过时，取消
+        if (pendingQuery != null) {
+            pendingQuery.cancel();
+        }
+        final var task = logIndex.prepareQuery(query);
+        pendingQuery = task;
+        try {
+            ioExecutor.execute(() -> {
+                long start = SystemClock.elapsedRealtime();
+                task.run();
+                long elapsed = SystemClock.elapsedRealtime() - start;
+                mainHandler.post(() -> onQueryDone(task, showSummary, elapsed));
+            });
+        } catch (Exception e) {
+            pendingQuery = null;
+            showError("搜索日志失败", e);
+        }
+    }
+
+    /**
+     * 后台查询完成。已被更新的查询取代时丢弃结果
+     */
+    private void onQueryDone(LogIndex.QueryTask task, boolean showSummary, long elapsed) {
+        if (task != pendingQuery || !isAdded() || logAdapter == null) return;
+        pendingQuery = null;
+        if (!logIndex.applyQuery(task)) {
+            // 查询期间日志已被清空或丢弃了最早的记录，重新查询
+            applyQuery();
+            return;
+        }
+
+        logAdapter.notifyDataSetChanged();
+        updateFacetLabels();
+        updateEmptyView();
+        if (showSummary) {
+            searchSummaryView.setText(getString(R.string.logs_search_summary,
+                    logIndex.size(), logIndex.getScannedRecords(), elapsed));
+            searchSummaryView.setVisibility(View.VISIBLE);
+        } else {
+            searchSummaryView.setVisibility(View.GONE);
+        }
+        if (logIndex.size() > 0) {
+            logsListView.scrollToPosition(logIndex.size() - 1);
+        }
+    }
+
+    private void updateEmptyView() {
+        boolean isEmpty = logIndex.size() == 0;
+        emptyView.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+        logsListView.setVisibility(isEmpty ? View.GONE : View.VISIBLE);
     }
     
     /**
      * 显示错误信息
      */
     private void showError(String message, Exception e) {
-        Log.e(TAG, message, e);
+        // 错误详情随系统日志显示在列表中
+        logManager.error(TAG, message, e);
         if (rootView != null && isAdded()) {
             try {
                 // 使用Snackbar显示错误
                 Snackbar.make(rootView, message + ": " + e.getMessage(), Snackbar.LENGTH_LONG).show();
-                
-                // 记录错误到日志内容
-                StringWriter sw = new StringWriter();
-                PrintWriter pw = new PrintWriter(sw);
-                e.printStackTrace(pw);
-                String errorDetail = "--- 错误信息 ---\n" + 
-                        message + ": " + e.getMessage() + "\n" +
-                        sw.toString() + 
-                        "\n--- 错误信息结束 ---\n\n";
-                currentLogs = errorDetail + currentLogs;
-                updateUI(currentLogs);
             } catch (Exception ex) {
                 Log.e(TAG, "显示错误信息失败", ex);
             }
@@ -367,55 +648,22 @@ public class LogsFragment extends Fragment {
     }
 
     /**
-     * 更新UI显示
-     */
-    private void updateUI(String logs) {
-        if (!isFragmentActive || !isAdded() || getActivity() == null) return;
-        
-        try {
-            if (logs == null || logs.isEmpty()) {
-                emptyView.setVisibility(View.VISIBLE);
-                logsContentView.setVisibility(View.GONE);
-            } else {
-                emptyView.setVisibility(View.GONE);
-                logsContentView.setVisibility(View.VISIBLE);
-                logsContentView.setText(logs);
-
-                // 滚动到底部
-                scrollView.post(() -> {
-                    try {
-                        if (scrollView != null && isAdded()) {
-                            scrollView.fullScroll(View.FOCUS_DOWN);
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "滚动到底部失败", e);
-                    }
-                });
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "更新UI失败", e);
-            try {
-                if (rootView != null && isAdded()) {
-                    Snackbar.make(rootView, "更新日志显示失败: " + e.getMessage(), Snackbar.LENGTH_SHORT).show();
-                }
-            } catch (Exception snackbarEx) {
-                Log.e(TAG, "显示Snackbar失败", snackbarEx);
-            }
-        }
-    }
-
-    /**
-     * 复制日志到剪贴板
+     * 复制筛选结果中最近的日志到剪贴板
      */
     private void copyLogsToClipboard() {
-        if (currentLogs == null || currentLogs.isEmpty()) {
+        int count = logIndex.size();
+        if (count == 0) {
             Toast.makeText(getContext(), R.string.logs_empty, Toast.LENGTH_SHORT).show();
             return;
         }
 
         try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = Math.max(0, count - MAX_CLIPBOARD_LINES); i < count; i++) {
+                sb.append(logAdapter.formatRecord(logIndex.get(i))).append('\n');
+            }
             ClipboardManager clipboard = (ClipboardManager) requireContext().getSystemService(Context.CLIPBOARD_SERVICE);
-            ClipData clip = ClipData.newPlainText("Zerotier Fix Logs", currentLogs);
+            ClipData clip = ClipData.newPlainText("Zerotier Fix Logs", sb.toString());
             clipboard.setPrimaryClip(clip);
             Toast.makeText(getContext(), R.string.logs_copied, Toast.LENGTH_SHORT).show();
         } catch (Exception e) {
@@ -424,33 +672,85 @@ public class LogsFragment extends Fragment {
     }
 
     /**
-     * 清空日志
+     * 复制单行日志到剪贴板
      */
-    private void clearLogs() {
+    private void copyLine(String line) {
         try {
-            logManager.clearLogs();
-            currentLogs = "";
-            updateUI("");
-            Toast.makeText(getContext(), R.string.logs_cleared, Toast.LENGTH_SHORT).show();
+            ClipboardManager clipboard = (ClipboardManager) requireContext().getSystemService(Context.CLIPBOARD_SERVICE);
+            clipboard.setPrimaryClip(ClipData.newPlainText("Zerotier Fix Log", line));
+            Toast.makeText(getContext(), R.string.logs_line_copied, Toast.LENGTH_SHORT).show();
         } catch (Exception e) {
-            showError("清除日志失败", e);
+            showError("复制到剪贴板失败", e);
         }
     }
 
     /**
-     * 分享日志
+     * 清空日志
+     */
+    private void clearLogs() {
+        // 清空系统日志需要等待 logcat 进程，在后台执行
+        ioExecutor.execute(() -> {
+            try {
+                logManager.clearLogs();
+                mainHandler.post(() -> {
+                    if (!isAdded()) return;
+                    reloadLogs();
+                    Toast.makeText(getContext(), R.string.logs_cleared, Toast.LENGTH_SHORT).show();
+                });
+            } catch (Exception e) {
+                mainHandler.post(() -> showError("清除日志失败", e));
+            }
+        });
+    }
+
+    /**
+     * 分享日志。日志在后台写入压缩文件，以文件的形式分享
      */
     private void shareLogs() {
-        if (currentLogs == null || currentLogs.isEmpty()) {
-            Toast.makeText(getContext(), R.string.logs_empty, Toast.LENGTH_SHORT).show();
-            return;
-        }
+        final Context appContext = requireContext().getApplicationContext();
+        Toast.makeText(getContext(), R.string.logs_exporting, Toast.LENGTH_SHORT).show();
+        ioExecutor.execute(() -> {
+            try {
+                var directory = new File(appContext.getCacheDir(), EXPORT_DIRECTORY);
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("无法创建目录: " + directory);
+                }
+                // 删除此前导出的文件
+                var oldFiles = directory.listFiles();
+                if (oldFiles != null) {
+                    for (var oldFile : oldFiles) {
+                        if (!oldFile.delete()) {
+                            Log.w(TAG, "删除旧的日志文件失败: " + oldFile);
+                        }
+                    }
+                }
+                String name = "zerotierfix-logs-"
+                        + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date()) + ".txt.gz";
+                var file = new File(directory, name);
+                logManager.exportLogs(appContext, file);
+                mainHandler.post(() -> startShareActivity(file));
+            } catch (Exception e) {
+                mainHandler.post(() -> {
+                    if (isAdded()) {
+                        Toast.makeText(getContext(), R.string.logs_export_failed, Toast.LENGTH_SHORT).show();
+                    }
+                    showError("导出日志失败", e);
+                });
+            }
+        });
+    }
+
+    private void startShareActivity(File file) {
+        if (!isAdded()) return;
 
         try {
+            Context context = requireContext();
+            Uri uri = FileProvider.getUriForFile(context, context.getPackageName() + ".fileprovider", file);
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.setType("text/plain");
+            shareIntent.setType("application/gzip");
             shareIntent.putExtra(Intent.EXTRA_SUBJECT, "Zerotier Fix Logs");
-            shareIntent.putExtra(Intent.EXTRA_TEXT, currentLogs);
+            shareIntent.putExtra(Intent.EXTRA_STREAM, uri);
+            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
             startActivity(Intent.createChooser(shareIntent, getString(R.string.logs_share)));
         } catch (Exception e) {
             showError("分享日志失败", e);
@@ -458,49 +758,30 @@ public class LogsFragment extends Fragment {
     }
     
     /**
-     * 使用静态内部类处理日志回调，避免内存泄漏
+     * 级别、标签与时间范围筛选项的选择监听
      */
-    private static class LogCallback implements LogManager.LogCallback {
-        private WeakReference<LogsFragment> fragmentReference;
-        
-        public LogCallback(LogsFragment fragment) {
-            this.fragmentReference = new WeakReference<>(fragment);
-        }
-        
-        public void detach() {
-            fragmentReference.clear();
-        }
-        
+    private class FilterListener implements AdapterView.OnItemSelectedListener {
         @Override
-        public void onLogsReady(String logs) {
-            LogsFragment fragment = fragmentReference.get();
-            if (fragment == null || !fragment.isFragmentActive || !fragment.isAdded()) return;
-            
-            try {
-                fragment.getActivity().runOnUiThread(() -> {
-                    try {
-                        LogsFragment fragmentInstance = fragmentReference.get();
-                        if (fragmentInstance != null && fragmentInstance.isAdded() && 
-                            fragmentInstance.getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
-                            fragmentInstance.currentLogs = logs;
-                            fragmentInstance.updateUI(logs);
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "日志UI更新失败", e);
-                        LogsFragment fragmentInstance = fragmentReference.get();
-                        if (fragmentInstance != null && fragmentInstance.rootView != null && fragmentInstance.isAdded()) {
-                            try {
-                                Snackbar.make(fragmentInstance.rootView, "更新日志失败: " + e.getMessage(), 
-                                        Snackbar.LENGTH_SHORT).show();
-                            } catch (Exception snackbarEx) {
-                                Log.e(TAG, "显示错误Snackbar失败", snackbarEx);
-                            }
-                        }
-                    }
-                });
-            } catch (Exception e) {
-                Log.e(TAG, "发送到主线程失败", e);
+        public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+            var levels = LogManager.LogLevel.values();
+            int levelPosition = levelSpinner.getSelectedItemPosition();
+            var level = levelPosition >= 0 && levelPosition < levels.length
+                    ? levels[levelPosition] : LogManager.LogLevel.VERBOSE;
+            int tagPosition = tagSpinner.getSelectedItemPosition();
+            String tag = tagPosition > 0 && tagPosition < tagNames.size() ? tagNames.get(tagPosition) : null;
+            int timeRange = Math.max(0, timeSpinner.getSelectedItemPosition());
+            if (level == selectedLevel && timeRange == selectedTimeRange
+                    && (tag == null ? selectedTag == null : tag.equals(selectedTag))) {
+                return;
             }
+            selectedLevel = level;
+            selectedTag = tag;
+            selectedTimeRange = timeRange;
+            applyQuery();
+        }
+
+        @Override
+        public void onNothingSelected(AdapterView<?> parent) {
         }
     }
-}
\ No newline at end of file
+}
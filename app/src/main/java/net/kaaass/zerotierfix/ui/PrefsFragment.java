@@ -31,6 +31,8 @@ import net.kaaass.zerotierfix.R;
 import net.kaaass.zerotierfix.service.ZeroTierOneService;
 import net.kaaass.zerotierfix.util.Constants;
 import net.kaaass.zerotierfix.util.FileUtil;
+import net.kaaass.zerotierfix.util.LogUtil;
+import net.kaaass.zerotierfix.util.TraceRecorder;
 
 import org.apache.commons.io.FileUtils;
 
@@ -294,7 +296,13 @@ public class PrefsFragment extends PreferenceFragmentCompat implements SharedPre
             if (sharedPreferences.getBoolean(Constants.PREF_NETWORK_USE_CELLULAR_DATA, false)) {
                 requireActivity().startService(new Intent(getActivity(), ZeroTierOneService.class));
             }
-        } 
+        } else if (key.equals(Constants.PREF_DIAGNOSTIC_FULL_TRACE)) {
+            // 完整核心跟踪，立即生效
+            TraceRecorder.setFullTrace(sharedPreferences.getBoolean(Constants.PREF_DIAGNOSTIC_FULL_TRACE, false));
+        } else if (key.equals(Constants.PREF_DIAGNOSTIC_DEBUG_LOG)) {
+            // 调试日志，立即生效
+            LogUtil.applyPreferences(sharedPreferences);
+        }
     }
 
     /**
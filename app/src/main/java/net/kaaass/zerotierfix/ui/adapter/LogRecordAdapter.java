@@ -0,0 +1,98 @@
+package net.kaaass.zerotierfix.ui.adapter;
+
+import android.content.res.ColorStateList;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
+
+import net.kaaass.zerotierfix.R;
+import net.kaaass.zerotierfix.util.LogIndex;
+import net.kaaass.zerotierfix.util.LogManager;
+import net.kaaass.zerotierfix.util.LogRecord;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * 日志列表适配器，每行一条日志记录
+ * <p>
+ * 记录直接取自 {@link LogIndex} 的筛选结果，只有显示到屏幕上的行才会格式化
+ */
+public class LogRecordAdapter extends RecyclerView.Adapter<LogRecordAdapter.ViewHolder> {
+
+    private final LogIndex logIndex;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.getDefault());
+    private OnRecordLongClickListener onRecordLongClickListener;
+
+    public interface OnRecordLongClickListener {
+        void onRecordLongClick(LogRecord record, String line);
+    }
+
+    public LogRecordAdapter(LogIndex logIndex) {
+        this.logIndex = logIndex;
+    }
+
+    public void setOnRecordLongClickListener(OnRecordLongClickListener listener) {
+        this.onRecordLongClickListener = listener;
+    }
+
+    /**
+     * 格式化一条记录，与界面显示的内容相同
+     */
+    public String formatRecord(LogRecord record) {
+        return record.format(this.dateFormat);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item_log, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        LogRecord record = this.logIndex.get(position);
+        String line = formatRecord(record);
+        holder.line.setText(line);
+
+        // 警告与错误以颜色区分
+        var level = record.getLevel();
+        if (level == LogManager.LogLevel.ERROR || level == LogManager.LogLevel.WARN) {
+            holder.line.setTextColor(ContextCompat.getColor(holder.itemView.getContext(),
+                    level == LogManager.LogLevel.ERROR ? R.color.colorError : R.color.zerotier_orange));
+        } else {
+            holder.line.setTextColor(holder.defaultColors);
+        }
+
+        holder.itemView.setOnLongClickListener(v -> {
+            if (this.onRecordLongClickListener == null) {
+                return false;
+            }
+            this.onRecordLongClickListener.onRecordLongClick(record, line);
+            return true;
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return this.logIndex.size();
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        TextView line;
+        ColorStateList defaultColors;
+
+        ViewHolder(View view) {
+            super(view);
+            line = view.findViewById(R.id.list_log_line);
+            defaultColors = line.getTextColors();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import net.kaaass.zerotierfix.model.Network;
 import net.kaaass.zerotierfix.model.NetworkConfig;
 import net.kaaass.zerotierfix.model.type.DNSMode;
 import net.kaaass.zerotierfix.model.type.NetworkType;
+import net.kaaass.zerotierfix.service.NetworkTimeline;
 import net.kaaass.zerotierfix.ui.AppRoutingFragment;
 import net.kaaass.zerotierfix.ui.NetworkListFragment;
 import net.kaaass.zerotierfix.ui.viewmodel.NetworkDetailModel;
@@ -33,6 +34,10 @@ import net.kaaass.zerotierfix.util.Constants;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * 展示网络详细信息的 fragment
@@ -56,6 +61,7 @@ public class NetworkDetailFragment extends Fragment {
     private TextView ipAddressesView;
     private TableRow dnsView;
     private TextView dnsServersView;
+    private TextView joinTimelineView;
 
     private long networkId;
     private AppRoutingFragment appRoutingFragment;
@@ -95,6 +101,7 @@ public class NetworkDetailFragment extends Fragment {
         this.ipAddressesView = view.findViewById(R.id.network_ipaddresses_textview);
         this.dnsView = view.findViewById(R.id.custom_dns_row);
         this.dnsServersView = view.findViewById(R.id.network_dns_textview);
+        this.joinTimelineView = view.findViewById(R.id.network_join_timeline_textview);
 
         // "Route All Traffic" checkbox listener
         // When checked: global routing (per-app routing disabled, app list hidden)
@@ -120,6 +127,7 @@ public class NetworkDetailFragment extends Fragment {
         viewModel.getNetwork().observe(getViewLifecycleOwner(), this::updateNetwork);
         viewModel.getNetworkConfig().observe(getViewLifecycleOwner(), this::updateNetworkConfig);
         viewModel.getVirtualNetworkConfig().observe(getViewLifecycleOwner(), this::updateVirtualNetworkConfig);
+        viewModel.getJoinTimeline().observe(getViewLifecycleOwner(), this::updateJoinTimeline);
 
         return view;
     }
@@ -261,6 +269,60 @@ public class NetworkDetailFragment extends Fragment {
         }
     }
 
+    /**
+     * 更新加入时间线相关的 UI。完整显示最近一次加入，此前的加入仅显示发起时间与状态正常耗时
+     */
+    @UiThread
+    private void updateJoinTimeline(List<NetworkTimeline.Join> joins) {
+        if (joins == null || joins.isEmpty()) {
+            this.joinTimelineView.setText(R.string.join_timeline_empty);
+            return;
+        }
+        var timeFormat = DateFormat.getTimeInstance(DateFormat.MEDIUM);
+        var builder = new StringBuilder();
+        var latest = joins.get(0);
+        builder.append(timeFormat.format(new Date(latest.getStartWallTime()))).append('\n');
+        for (var stage : NetworkTimeline.Stage.values()) {
+            builder.append(String.format(Locale.ROOT, "%8s  ", stageTimeToString(latest, stage)))
+                    .append(getString(stageToStringId(stage))).append('\n');
+        }
+        if (joins.size() > 1) {
+            builder.append('\n').append(getString(R.string.join_timeline_earlier)).append('\n');
+            for (int i = 1; i < joins.size(); i++) {
+                var join = joins.get(i);
+                builder.append(timeFormat.format(new Date(join.getStartWallTime())))
+                        .append("  ").append(getString(R.string.join_timeline_stage_status_ok))
+                        .append(' ').append(stageTimeToString(join, NetworkTimeline.Stage.STATUS_OK))
+                        .append('\n');
+            }
+        }
+        this.joinTimelineView.setText(builder.toString().trim());
+    }
+
+    private String stageTimeToString(NetworkTimeline.Join join, NetworkTimeline.Stage stage) {
+        long time = join.getStageTime(stage);
+        return time < 0 ? getString(R.string.join_timeline_not_reached) : "+" + time + " ms";
+    }
+
+    private static int stageToStringId(NetworkTimeline.Stage stage) {
+        switch (stage) {
+            case JOIN_ISSUED:
+                return R.string.join_timeline_stage_join_issued;
+            case CONFIG_UP:
+                return R.string.join_timeline_stage_config_up;
+            case FIRST_CONFIG_UPDATE:
+                return R.string.join_timeline_stage_first_config_update;
+            case STATUS_OK:
+                return R.string.join_timeline_stage_status_ok;
+            case TUNNEL_ESTABLISHED:
+                return R.string.join_timeline_stage_tunnel_established;
+            case FIRST_INBOUND_FRAME:
+                return R.string.join_timeline_stage_first_inbound_frame;
+            default:
+                return R.string.join_timeline_stage_first_outbound_frame;
+        }
+    }
+
     private String booleanToLocalString(boolean z) {
         return z ? getString(R.string.enabled) : getString(R.string.disabled);
     }
@@ -13,17 +13,21 @@ import com.zerotier.sdk.VirtualNetworkConfig;
 import net.kaaass.zerotierfix.ZerotierFixApplication;
 import net.kaaass.zerotierfix.events.DefaultRouteChangedEvent;
 import net.kaaass.zerotierfix.events.NetworkConfigChangedByUserEvent;
+import net.kaaass.zerotierfix.events.NetworkTimelineChangedEvent;
 import net.kaaass.zerotierfix.events.VirtualNetworkConfigChangedEvent;
 import net.kaaass.zerotierfix.events.VirtualNetworkConfigReplyEvent;
 import net.kaaass.zerotierfix.events.VirtualNetworkConfigRequestEvent;
 import net.kaaass.zerotierfix.model.Network;
 import net.kaaass.zerotierfix.model.NetworkConfig;
 import net.kaaass.zerotierfix.model.NetworkDao;
+import net.kaaass.zerotierfix.service.NetworkTimeline;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
+import java.util.List;
+
 /**
  * 网络详情的 ViewModel
  */
@@ -32,6 +36,7 @@ public class NetworkDetailModel extends AndroidViewModel {
     private final MutableLiveData<Network> network = new MutableLiveData<>();
     private final MutableLiveData<NetworkConfig> networkConfig = new MutableLiveData<>();
     private final MutableLiveData<VirtualNetworkConfig> virtualNetworkConfig = new MutableLiveData<>();
+    private final MutableLiveData<List<NetworkTimeline.Join>> joinTimeline = new MutableLiveData<>();
     private final EventBus eventBus = EventBus.getDefault();
     private long networkId = -1;
 
@@ -55,6 +60,7 @@ public class NetworkDetailModel extends AndroidViewModel {
         this.networkId = networkId;
         doRetrieveNetworkAndConfig();
         doRetrieveVirtualNetworkConfig();
+        doRetrieveJoinTimeline();
     }
 
     /**
@@ -88,6 +94,13 @@ public class NetworkDetailModel extends AndroidViewModel {
         this.eventBus.post(new VirtualNetworkConfigRequestEvent(this.networkId));
     }
 
+    /**
+     * 获得网络的加入时间线
+     */
+    private void doRetrieveJoinTimeline() {
+        this.joinTimeline.setValue(NetworkTimeline.getHistory(this.networkId));
+    }
+
     /**
      * 更新是否通过 ZeroTier 进行路由的网络设置
      */
@@ -164,6 +177,16 @@ public class NetworkDetailModel extends AndroidViewModel {
         this.networkConfig.setValue(event.getNetwork().getNetworkConfig());
     }
 
+    /**
+     * 处理加入时间线更新事件
+     */
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onNetworkTimelineChanged(NetworkTimelineChangedEvent event) {
+        if (event.getNetworkId() == this.networkId) {
+            doRetrieveJoinTimeline();
+        }
+    }
+
     public LiveData<Network> getNetwork() {
         return network;
     }
@@ -175,4 +198,8 @@ public class NetworkDetailModel extends AndroidViewModel {
     public LiveData<VirtualNetworkConfig> getVirtualNetworkConfig() {
         return virtualNetworkConfig;
     }
+
+    public LiveData<List<NetworkTimeline.Join>> getJoinTimeline() {
+        return joinTimeline;
+    }
 }
@@ -19,12 +19,20 @@ public class Constants {
 
     public static final String PREF_DISABLE_NO_NOTIFICATION_ALERT = "disable_no_notification_alert";
 
+    public static final String PREF_DIAGNOSTIC_FULL_TRACE = "diagnostic_full_trace";
+
+    public static final String PREF_DIAGNOSTIC_METRICS_HTTP = "diagnostic_metrics_http";
+
+    public static final String PREF_DIAGNOSTIC_DEBUG_LOG = "diagnostic_debug_log";
+
     public static final String FILE_CUSTOM_PLANET = "planet.custom";
 
     public static final String FILE_TEMP = "temp";
 
     public static final String FILE_PLANET = "planet";
 
+    public static final String FILE_METRICS = "metrics.prom";
+
     public static final String CHANNEL_ID = "ZT1";
 
     public static final String VPN_SESSION_NAME = "ZeroTier One";
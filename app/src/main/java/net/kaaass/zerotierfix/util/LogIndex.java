@@ -0,0 +1,478 @@
+package net.kaaass.zerotierfix.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 日志查看界面的记录索引
+ * <p>
+ * 记录按到达顺序追加，追加时同时维护以下索引：
+ * <ul>
+ *     <li>{@code levelPositions[i]}：级别不低于第 i 级的记录位置</li>
+ *     <li>{@code tagPositions}：各标签的记录位置</li>
+ *     <li>时间块：每 {@link #BLOCK_SIZE} 条记录为一块，记录块内的最早与最晚时间</li>
+ * </ul>
+ * 当前查询的结果同样是一个位置列表，可按下标随机访问。只按级别筛选时直接使用对应的级别列表；
+ * 只按标签筛选时由该标签的列表过滤级别得到；带时间范围或文本条件时只扫描时间范围内的块。
+ * 查询结果随追加的新记录增量扩展，不重新扫描。
+ * <p>
+ * 同时统计各级别、各标签的结果数，统计时只应用时间与文本条件、不应用级别与标签条件，
+ * 即为选择该级别或标签时能得到的结果数。
+ * <p>
+ * 带时间或文本条件的查询需逐条比较，可由 {@link #prepareQuery} 取得记录快照，在后台线程执行
+ * {@link QueryTask#run()}，再回到主线程以 {@link #applyQuery} 采用结果。
+ * <p>
+ * 记录数超过上限时丢弃最早的四分之一并重建索引。除 {@link QueryTask#run()} 外非线程安全，仅在主线程中使用
+ */
+public class LogIndex {
+    private static final int LEVEL_INITIAL_CAPACITY = 1024;
+    private static final int TAG_INITIAL_CAPACITY = 64;
+    private static final int BLOCK_SIZE = 256;
+
+    private final int maxRecords;
+    private final List<LogRecord> records = new ArrayList<>();
+    private final Positions[] levelPositions = new Positions[LogManager.LogLevel.values().length];
+    private final HashMap<String, Positions> tagPositions = new HashMap<>();
+    private long[] blockMinTimes = new long[16];
+    private long[] blockMaxTimes = new long[16];
+
+    private Query query = Query.ALL;
+    /**
+     * 当前查询的结果
+     */
+    private Positions selection;
+    /**
+     * 结果是否直接使用级别列表，此时随级别列表一同增长
+     */
+    private boolean selectionShared;
+    /**
+     * 带时间或文本条件时逐条统计的各级别、各标签结果数；否则由位置列表直接得到
+     */
+    private final int[] levelCounts = new int[LogManager.LogLevel.values().length];
+    private final HashMap<String, int[]> tagCounts = new HashMap<>();
+    /**
+     * 最近一次查询扫描的块数与记录数
+     */
+    private int scannedBlocks;
+    private int scannedRecords;
+    /**
+     * 重建索引时递增。此前准备的查询中的记录位置随之失效
+     */
+    private int epoch = 0;
+
+    public LogIndex(int maxRecords) {
+        this.maxRecords = maxRecords;
+        reset();
+    }
+
+    private void reset() {
+        this.epoch++;
+        for (int i = 0; i < this.levelPositions.length; i++) {
+            this.levelPositions[i] = new Positions(LEVEL_INITIAL_CAPACITY);
+        }
+        this.tagPositions.clear();
+        select();
+    }
+
+    /**
+     * 追加记录
+     *
+     * @return 查询结果末尾新增的记录数；丢弃了最早的记录、查询结果整体变化时为 -1
+     */
+    public int append(List<LogRecord> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        if (this.records.size() + batch.size() > this.maxRecords) {
+            var kept = new ArrayList<LogRecord>(this.maxRecords);
+            kept.addAll(this.records);
+            kept.addAll(batch);
+            kept = new ArrayList<>(kept.subList(kept.size() - this.maxRecords * 3 / 4, kept.size()));
+            this.records.clear();
+            reset();
+            addAll(kept);
+            return -1;
+        }
+        int before = this.selection.size;
+        addAll(batch);
+        return this.selection.size - before;
+    }
+
+    private void addAll(List<LogRecord> batch) {
+        for (var record : batch) {
+            int position = this.records.size();
+            this.records.add(record);
+            int level = record.getLevel().ordinal();
+            for (int i = 0; i <= level; i++) {
+                this.levelPositions[i].add(position);
+            }
+            var tagList = this.tagPositions.get(record.getTag());
+            if (tagList == null) {
+                tagList = new Positions(TAG_INITIAL_CAPACITY);
+                this.tagPositions.put(record.getTag(), tagList);
+            }
+            tagList.add(position);
+            addToBlock(position, record.getTime());
+            if (!this.selectionShared) {
+                evaluate(position, record);
+            }
+        }
+    }
+
+    private void addToBlock(int position, long time) {
+        int block = position / BLOCK_SIZE;
+        if (block == this.blockMinTimes.length) {
+            this.blockMinTimes = Arrays.copyOf(this.blockMinTimes, block * 2);
+            this.blockMaxTimes = Arrays.copyOf(this.blockMaxTimes, block * 2);
+        }
+        if (position % BLOCK_SIZE == 0) {
+            this.blockMinTimes[block] = time;
+            this.blockMaxTimes[block] = time;
+        } else {
+            this.blockMinTimes[block] = Math.min(this.blockMinTimes[block], time);
+            this.blockMaxTimes[block] = Math.max(this.blockMaxTimes[block], time);
+        }
+    }
+
+    /**
+     * 按当前查询判断一条记录，更新结果与统计
+     */
+    private void evaluate(int position, LogRecord record) {
+        evaluate(this.query, position, record, this.selection, this.levelCounts, this.tagCounts);
+    }
+
+    private static void evaluate(Query query, int position, LogRecord record, Positions selection,
+                                 int[] levelCounts, HashMap<String, int[]> tagCounts) {
+        if (query.isScanning()) {
+            if (!query.matchesTimeAndText(record)) {
+                return;
+            }
+            levelCounts[record.getLevel().ordinal()]++;
+            var tagCount = tagCounts.get(record.getTag());
+            if (tagCount == null) {
+                tagCount = new int[1];
+                tagCounts.put(record.getTag(), tagCount);
+            }
+            tagCount[0]++;
+        }
+        if (query.matchesLevelAndTag(record)) {
+            selection.add(position);
+        }
+    }
+
+    /**
+     * 设置查询条件
+     */
+    public void setQuery(Query query) {
+        this.query = query;
+        select();
+    }
+
+    /**
+     * 准备在后台线程执行的查询，复制当前的记录与时间块
+     */
+    public QueryTask prepareQuery(Query query) {
+        int count = this.records.size();
+        int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        return new QueryTask(query, this.records.toArray(new LogRecord[0]),
+                Arrays.copyOf(this.blockMaxTimes, blocks), this.epoch);
+    }
+
+    /**
+     * 采用后台执行完毕的查询结果，并补充判断查询准备之后追加的记录
+     *
+     * @return 是否已采用。查询准备之后索引已重建、或查询已取消时为 false，需重新查询
+     */
+    public boolean applyQuery(QueryTask task) {
+        if (task.epoch != this.epoch || task.cancelled) {
+            return false;
+        }
+        this.query = task.query;
+        if (!task.query.isScanning()) {
+            // 不逐条比较的查询直接由位置列表得到
+            select();
+            return true;
+        }
+        this.selection = task.selection;
+        this.selectionShared = false;
+        System.arraycopy(task.levelCounts, 0, this.levelCounts, 0, this.levelCounts.length);
+        this.tagCounts.clear();
+        this.tagCounts.putAll(task.tagCounts);
+        this.scannedBlocks = task.scannedBlocks;
+        this.scannedRecords = task.scannedRecords;
+        for (int position = task.records.length; position < this.records.size(); position++) {
+            evaluate(position, this.records.get(position));
+        }
+        return true;
+    }
+
+    /**
+     * 只按级别与标签筛选
+     *
+     * @param minLevel 最低级别
+     * @param tag      标签，为 null 时不按标签筛选
+     */
+    public void setFilter(LogManager.LogLevel minLevel, String tag) {
+        setQuery(new Query(minLevel, tag, 0, null, null));
+    }
+
+    private void select() {
+        Arrays.fill(this.levelCounts, 0);
+        this.tagCounts.clear();
+        this.scannedBlocks = 0;
+        this.scannedRecords = 0;
+        if (!this.query.isScanning() && this.query.tag == null) {
+            this.selection = this.levelPositions[this.query.minLevel.ordinal()];
+            this.selectionShared = true;
+            return;
+        }
+        this.selection = new Positions(TAG_INITIAL_CAPACITY);
+        this.selectionShared = false;
+        if (!this.query.isScanning()) {
+            // 只按标签筛选，遍历该标签的位置列表
+            var tagList = this.tagPositions.get(this.query.tag);
+            if (tagList == null) {
+                return;
+            }
+            this.scannedRecords = tagList.size;
+            for (int i = 0; i < tagList.size; i++) {
+                int position = tagList.values[i];
+                evaluate(position, this.records.get(position));
+            }
+            return;
+        }
+        // 带时间或文本条件，跳过时间范围以外的块
+        int count = this.records.size();
+        int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        for (int block = 0; block < blocks; block++) {
+            if (this.blockMaxTimes[block] < this.query.since) {
+                continue;
+            }
+            this.scannedBlocks++;
+            int end = Math.min(count, (block + 1) * BLOCK_SIZE);
+            for (int position = block * BLOCK_SIZE; position < end; position++) {
+                this.scannedRecords++;
+                evaluate(position, this.records.get(position));
+            }
+        }
+    }
+
+    /**
+     * 查询结果中的记录数
+     */
+    public int size() {
+        return this.selection.size;
+    }
+
+    /**
+     * 查询结果中的第 {@code index} 条记录
+     */
+    public LogRecord get(int index) {
+        return this.records.get(this.selection.values[index]);
+    }
+
+    /**
+     * 全部记录数，不受查询条件影响
+     */
+    public int getTotalCount() {
+        return this.records.size();
+    }
+
+    /**
+     * 最近一次查询扫描的块数
+     */
+    public int getScannedBlocks() {
+        return this.scannedBlocks;
+    }
+
+    /**
+     * 最近一次查询扫描的记录数
+     */
+    public int getScannedRecords() {
+        return this.scannedRecords;
+    }
+
+    /**
+     * 满足时间与文本条件的指定级别的记录数
+     */
+    public int countLevel(LogManager.LogLevel level) {
+        if (this.query.isScanning()) {
+            return this.levelCounts[level.ordinal()];
+        }
+        int ordinal = level.ordinal();
+        int higher = ordinal + 1 < this.levelPositions.length ? this.levelPositions[ordinal + 1].size : 0;
+        return this.levelPositions[ordinal].size - higher;
+    }
+
+    /**
+     * 满足时间与文本条件的指定标签的记录数
+     */
+    public int countTag(String tag) {
+        if (this.query.isScanning()) {
+            var tagCount = this.tagCounts.get(tag);
+            return tagCount == null ? 0 : tagCount[0];
+        }
+        var tagList = this.tagPositions.get(tag);
+        return tagList == null ? 0 : tagList.size;
+    }
+
+    /**
+     * 出现过的标签数
+     */
+    public int getTagCount() {
+        return this.tagPositions.size();
+    }
+
+    /**
+     * 按字母顺序排列的全部标签
+     */
+    public List<String> getTags() {
+        var tags = new ArrayList<>(this.tagPositions.keySet());
+        Collections.sort(tags, String.CASE_INSENSITIVE_ORDER);
+        return tags;
+    }
+
+    /**
+     * 丢弃全部记录，保留查询条件
+     */
+    public void clear() {
+        this.records.clear();
+        reset();
+    }
+
+    /**
+     * 在记录快照上执行的查询。{@link #run()} 可在任意线程执行，结果只能由 {@link #applyQuery} 读取
+     */
+    public static final class QueryTask {
+        final Query query;
+        final LogRecord[] records;
+        final long[] blockMaxTimes;
+        final int epoch;
+        final Positions selection = new Positions(TAG_INITIAL_CAPACITY);
+        final int[] levelCounts = new int[LogManager.LogLevel.values().length];
+        final HashMap<String, int[]> tagCounts = new HashMap<>();
+        int scannedBlocks;
+        int scannedRecords;
+        volatile boolean cancelled = false;
+
+        QueryTask(Query query, LogRecord[] records, long[] blockMaxTimes, int epoch) {
+            this.query = query;
+            this.records = records;
+            this.blockMaxTimes = blockMaxTimes;
+            this.epoch = epoch;
+        }
+
+        /**
+         * 逐条比较时间范围内的记录。已取消时尽快返回
+         */
+        public void run() {
+            if (!this.query.isScanning()) {
+                return;
+            }
+            for (int block = 0; block < this.blockMaxTimes.length && !this.cancelled; block++) {
+                if (this.blockMaxTimes[block] < this.query.since) {
+                    continue;
+                }
+                this.scannedBlocks++;
+                int end = Math.min(this.records.length, (block + 1) * BLOCK_SIZE);
+                for (int position = block * BLOCK_SIZE; position < end; position++) {
+                    this.scannedRecords++;
+                    evaluate(this.query, position, this.records[position], this.selection,
+                            this.levelCounts, this.tagCounts);
+                }
+            }
+        }
+
+        /**
+         * 取消查询，已有更新的查询时调用
+         */
+        public void cancel() {
+            this.cancelled = true;
+        }
+    }
+
+    /**
+     * 查询条件
+     */
+    public static final class Query {
+        static final Query ALL = new Query(LogManager.LogLevel.VERBOSE, null, 0, null, null);
+
+        final LogManager.LogLevel minLevel;
+        final String tag;
+        final long since;
+        final String text;
+        final Pattern pattern;
+
+        /**
+         * @param minLevel 最低级别
+         * @param tag      标签，为 null 时不按标签筛选
+         * @param since    最早时间，毫秒时间戳，为 0 时不限
+         * @param text     在标签与消息中查找的文本，不区分大小写，为 null 时不限
+         * @param pattern  在标签与消息中查找的正则表达式，为 null 时不限
+         */
+        public Query(LogManager.LogLevel minLevel, String tag, long since, String text, Pattern pattern) {
+            this.minLevel = minLevel;
+            this.tag = tag;
+            this.since = since;
+            this.text = text == null || text.isEmpty() ? null : text;
+            this.pattern = pattern;
+        }
+
+        /**
+         * 是否需要逐条检查时间或文本
+         */
+        boolean isScanning() {
+            return this.since > 0 || this.text != null || this.pattern != null;
+        }
+
+        boolean matchesLevelAndTag(LogRecord record) {
+            return record.getLevel().ordinal() >= this.minLevel.ordinal()
+                    && (this.tag == null || this.tag.equals(record.getTag()));
+        }
+
+        boolean matchesTimeAndText(LogRecord record) {
+            if (record.getTime() < this.since) {
+                return false;
+            }
+            if (this.text != null && !containsIgnoreCase(record.getMessage(), this.text)
+                    && !containsIgnoreCase(record.getTag(), this.text)) {
+                return false;
+            }
+            return this.pattern == null || this.pattern.matcher(record.getMessage()).find()
+                    || this.pattern.matcher(record.getTag()).find();
+        }
+
+        private static boolean containsIgnoreCase(String value, String part) {
+            int last = value.length() - part.length();
+            for (int i = 0; i <= last; i++) {
+                if (value.regionMatches(true, i, part, 0, part.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 可增长的记录位置列表
+     */
+    private static final class Positions {
+        int[] values;
+        int size = 0;
+
+        Positions(int capacity) {
+            this.values = new int[capacity];
+        }
+
+        void add(int position) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = position;
+        }
+    }
+}
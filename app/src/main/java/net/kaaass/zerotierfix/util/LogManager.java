@@ -7,19 +7,30 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import java.io.BufferedReader;
+import net.kaaass.zerotierfix.BuildConfig;
+import net.kaaass.zerotierfix.metrics.MetricsRegistry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * 日志管理类，用于收集和管理应用日志
@@ -27,15 +38,36 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class LogManager {
     private static final String TAG = "LogManager";
     private static final int MAX_LOG_LINES = 10000;
-    private static final String LOG_COMMAND = "logcat -d -v threadtime";
+    /**
+     * 内部日志环形缓冲区的槽位数
+     */
+    private static final int RING_CAPACITY = 8192;
+    private static final String PERSIST_DIRECTORY = "logs";
+    /**
+     * 等待 logcat 输出积压日志：无新日志的时长及最长等待时间，毫秒
+     */
+    private static final long LOGCAT_QUIET_TIME = 100;
+    private static final long LOGCAT_BACKLOG_TIMEOUT = 1000;
+    /**
+     * 持久化日志的最低级别。调试日志数量大，仅保留在内存中
+     */
+    private static final LogLevel PERSIST_MIN_LEVEL = LogLevel.INFO;
+    /**
+     * 将内部日志写入持久化日志段的间隔，毫秒。错误日志立即写入
+     */
+    private static final long PERSIST_INTERVAL = 500;
     private static final String CLEAR_COMMAND = "logcat -c";
     
     private static LogManager instance;
-    private final LinkedList<String> logBuffer = new LinkedList<>();
-    private final LinkedList<String> internalLogBuffer = new LinkedList<>(); // 应用内部日志缓冲区
+    private final LogcatTailer logcatTailer = new LogcatTailer(MAX_LOG_LINES); // 本进程的系统日志
+    private final LogRing internalLogRing = new LogRing(RING_CAPACITY); // 应用内部日志缓冲区
     private final ExecutorService executorService;
     private volatile boolean isShutdown = false;
     private final AtomicBoolean isTaskRunning = new AtomicBoolean(false);
+    private final Object persistLock = new Object();
+    private volatile LogSegmentStore segmentStore; // 持久化日志段，未启用时为 null
+    private Thread persistThread;
+    private long persistedSequence = 0; // 下一条待持久化的内部日志序号，仅由持久化线程访问
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     
     private LogManager() {
@@ -73,6 +105,61 @@ public class LogManager {
         }
     }
     
+    /**
+     * 启用日志持久化。内部日志由后台线程增量写入应用私有目录中的日志段，
+     * 进程被杀死或崩溃后仍可在下次启动时查看
+     */
+    public synchronized void enablePersistence(Context context) {
+        if (persistThread != null || isShutdown) {
+            return;
+        }
+        final var directory = new File(context.getApplicationContext().getFilesDir(), PERSIST_DIRECTORY);
+        persistThread = new Thread(() -> {
+            try {
+                segmentStore = LogSegmentStore.open(directory);
+            } catch (IOException e) {
+                Log.e(TAG, "打开持久化日志失败", e);
+                return;
+            }
+            while (!isShutdown) {
+                synchronized (persistLock) {
+                    try {
+                        persistLock.wait(PERSIST_INTERVAL);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                persistPending();
+            }
+            persistPending();
+            segmentStore.force();
+        }, "Log Persist Thread");
+        persistThread.setDaemon(true);
+        persistThread.start();
+    }
+
+    /**
+     * 将新的内部日志写入日志段
+     */
+    private void persistPending() {
+        var store = segmentStore;
+        if (store == null) {
+            return;
+        }
+        try {
+            persistedSequence = internalLogRing.drain(persistedSequence, PERSIST_MIN_LEVEL, store::append);
+        } catch (Exception e) {
+            Log.e(TAG, "写入持久化日志失败", e);
+        }
+    }
+
+    /**
+     * 应用内部日志的环形缓冲区，供延迟格式化的日志直接写入
+     */
+    LogRing getInternalLogRing() {
+        return internalLogRing;
+    }
+
     /**
      * 添加内部日志
      * @param tag 日志标签
@@ -82,18 +169,6 @@ public class LogManager {
     public void internalLog(String tag, String message, LogLevel level) {
         if (tag == null || message == null || level == null) return;
         
-        // 获取当前时间
-        String timestamp = new java.text.SimpleDateFormat("MM-dd HH:mm:ss.SSS", 
-                java.util.Locale.getDefault()).format(new java.util.Date());
-        
-        // 获取线程信息
-        String threadInfo = Thread.currentThread().getName() + "(" + 
-                Thread.currentThread().getId() + ")";
-        
-        // 格式化日志条目
-        String logEntry = timestamp + " " + threadInfo + " " + level.getLabel() + "/" + 
-                tag + ": " + message;
-        
         // 记录到Android日志系统
         switch (level) {
             case VERBOSE:
@@ -113,12 +188,13 @@ public class LogManager {
                 break;
         }
         
-        // 添加到内部缓冲区
-        synchronized (internalLogBuffer) {
-            internalLogBuffer.add(logEntry);
-            // 限制缓冲区大小
-            while (internalLogBuffer.size() > MAX_LOG_LINES) {
-                internalLogBuffer.removeFirst();
+        // 添加到内部缓冲区，读取时再格式化时间与线程信息
+        internalLogRing.append(level, tag, message);
+
+        // 错误日志立即持久化，避免随后崩溃时丢失
+        if (level == LogLevel.ERROR && persistThread != null) {
+            synchronized (persistLock) {
+                persistLock.notify();
             }
         }
     }
@@ -170,6 +246,10 @@ public class LogManager {
         }
         
         isShutdown = true;
+        logcatTailer.stop();
+        synchronized (persistLock) {
+            persistLock.notify();
+        }
         if (executorService != null && !executorService.isShutdown()) {
             try {
                 executorService.shutdown();
@@ -187,15 +267,16 @@ public class LogManager {
     }
     
     /**
-     * 清空当前日志缓冲区
+     * 清空当前日志缓冲区，同时清零延迟分布，使此后导出的分布只包含清空后的记录
      */
     public void clearLogs() {
-        synchronized (logBuffer) {
-            logBuffer.clear();
-        }
-        
-        synchronized (internalLogBuffer) {
-            internalLogBuffer.clear();
+        logcatTailer.clear();
+        internalLogRing.clear();
+        TraceRecorder.clear();
+        MetricsRegistry.getDefault().resetHistograms();
+        var store = segmentStore;
+        if (store != null) {
+            store.clear();
         }
         
         Process process = null;
@@ -309,90 +390,74 @@ public class LogManager {
         }
         
         List<String> logLines = new ArrayList<>();
-        Process process = null;
-        BufferedReader bufferedReader = null;
-        
-        try {
-            process = Runtime.getRuntime().exec(LOG_COMMAND);
-            bufferedReader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-            
-            String line;
-            String packageName = context.getPackageName();
-            int lineCount = 0;
-            while ((line = bufferedReader.readLine()) != null) {
-                // 限制处理的行数，防止过大的日志导致OOM
-                if (++lineCount > MAX_LOG_LINES * 2) {
-                    logLines.add("... 日志太大，已截断 ...");
-                    break;
-                }
-                
-                // 只保留与应用相关的日志
-                if (line.contains(packageName) || 
-                        line.contains("ZeroTier") || 
-                        line.contains("zerotier")) {
-                    logLines.add(line);
-                    
-                    // 更新缓冲区
-                    synchronized (logBuffer) {
-                        logBuffer.add(line);
-                        while (logBuffer.size() > MAX_LOG_LINES) {
-                            logBuffer.removeFirst();
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "获取日志失败", e);
-            return "获取日志时出错: " + e.getMessage();
-        } finally {
-            // 确保资源被关闭
-            if (bufferedReader != null) {
-                try {
-                    bufferedReader.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "关闭读取器时出错", e);
-                }
-            }
-            
-            if (process != null) {
-                try {
-                    // 等待进程结束
-                    boolean completed = process.waitFor(1, TimeUnit.SECONDS);
-                    if (!completed) {
-                        // 进程未在1秒内结束，强制终止
-                        process.destroyForcibly();
-                        Log.w(TAG, "日志命令执行超时，已强制终止");
-                    } else {
-                        int exitValue = process.exitValue();
-                        if (exitValue != 0) {
-                            Log.w(TAG, "日志命令以非零状态退出: " + exitValue);
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    Log.e(TAG, "等待进程时被中断", e);
-                    process.destroyForcibly();
-                } finally {
-                    process.destroy();
-                }
+
+        // 系统日志由 logcat 进程增量读取，获取期间运行，等待新增的日志读完
+        var records = new ArrayList<LogRecord>();
+        if (!isShutdown) {
+            acquireLogcat();
+            try {
+                logcatTailer.awaitIdle(LOGCAT_QUIET_TIME, LOGCAT_BACKLOG_TIMEOUT);
+                logcatTailer.read(0, records);
+            } finally {
+                releaseLogcat();
             }
+        } else {
+            logcatTailer.read(0, records);
+        }
+        var recordDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.getDefault());
+        for (var record : records) {
+            logLines.add(record.format(recordDateFormat));
         }
         
-        // 如果没有日志，尝试从缓冲区读取
-        if (logLines.isEmpty()) {
-            synchronized (logBuffer) {
-                logLines.addAll(logBuffer);
+        // 添加此前进程的持久化日志，仅保留最后的部分
+        var store = segmentStore;
+        if (store != null) {
+            var previousLines = new ArrayDeque<String>();
+            var dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.getDefault());
+            var date = new Date();
+            store.iterate(true, (time, level, tag, thread, message) -> {
+                date.setTime(time);
+                previousLines.add(dateFormat.format(date) + " " + thread + " " + level.getLabel() + "/"
+                        + tag + ": " + message);
+                if (previousLines.size() > MAX_LOG_LINES) {
+                    previousLines.removeFirst();
+                }
+            });
+            if (!previousLines.isEmpty()) {
+                logLines.add("=== 此前的应用日志 ===");
+                logLines.addAll(previousLines);
+                logLines.add("=== 此前的应用日志结束 ===");
             }
         }
-        
+
         // 添加应用内部日志
-        synchronized (internalLogBuffer) {
-            if (!internalLogBuffer.isEmpty()) {
-                logLines.add("=== 应用内部日志 ===");
-                logLines.addAll(internalLogBuffer);
-                logLines.add("=== 应用内部日志结束 ===");
-            }
+        List<String> internalLines = internalLogRing.format(MAX_LOG_LINES);
+        if (!internalLines.isEmpty()) {
+            logLines.add("=== 应用内部日志 ===");
+            logLines.addAll(internalLines);
+            logLines.add("=== 应用内部日志结束 ===");
+        }
+
+        // 添加 ZT 核心跟踪与事件
+        logLines.add("=== 核心跟踪 ===");
+        logLines.add(TraceRecorder.getStats());
+        logLines.addAll(TraceRecorder.format(MAX_LOG_LINES));
+        logLines.add("=== 核心跟踪结束 ===");
+
+        // 添加数据面指标
+        List<String> metricLines = MetricsRegistry.getDefault().snapshot().format();
+        if (!metricLines.isEmpty()) {
+            logLines.add("=== 数据面指标 ===");
+            logLines.addAll(metricLines);
+            logLines.add("=== 数据面指标结束 ===");
+        }
+
+        // 添加最近一次启动的耗时分解
+        String startupReport = StartupTracer.getLastReport();
+        if (startupReport != null) {
+            logLines.add("=== 启动耗时分析 ===");
+            logLines.addAll(Arrays.asList(startupReport.split("\n")));
+            logLines.add("=== 启动耗时分析结束 ===");
         }
         
         if (logLines.isEmpty()) {
@@ -413,6 +478,177 @@ public class LogManager {
         return sb.toString();
     }
     
+    /**
+     * 开始读取本进程的系统日志。logcat 进程仅在有读者时运行，每次调用须有对应的 {@link #releaseLogcat()}
+     */
+    public void acquireLogcat() {
+        if (!isShutdown) {
+            logcatTailer.acquire();
+        }
+    }
+
+    /**
+     * 不再读取本进程的系统日志，最后一个读者释放后结束 logcat 进程
+     */
+    public void releaseLogcat() {
+        logcatTailer.release();
+    }
+
+    /**
+     * 增量读取本进程的系统日志。仅在 {@link #acquireLogcat()} 后有新增记录
+     *
+     * @param from 起始序号，首次读取时为 0
+     * @param out  读取到的记录
+     * @return 下次读取的起始序号
+     */
+    public long readLogcat(long from, List<LogRecord> out) {
+        return logcatTailer.read(from, out);
+    }
+    
+    /**
+     * 增量读取只记录在内部缓冲区中的日志，即发布版本中延迟格式化的调试日志。
+     * 其余内部日志同时输出到系统日志，由 {@link #readLogcat} 读取
+     *
+     * @param from 起始序号，首次读取时为 0
+     * @param out  读取到的记录
+     * @return 下次读取的起始序号
+     */
+    public long readInternalLogs(long from, List<LogRecord> out) {
+        if (BuildConfig.DEBUG) {
+            // 调试版本中延迟格式化的日志也输出到系统日志
+            return from;
+        }
+        return internalLogRing.drainDeferred(from, (time, level, tag, thread, message) ->
+                out.add(new LogRecord(out.size(), time, level, tag, thread, message)));
+    }
+
+    /**
+     * 增量读取 ZT 核心跟踪与事件
+     *
+     * @param from 起始序号，首次读取时为 0
+     * @param out  读取到的记录
+     * @return 下次读取的起始序号
+     */
+    public long readTraces(long from, List<LogRecord> out) {
+        return TraceRecorder.drain(from, (time, level, tag, thread, message) ->
+                out.add(new LogRecord(out.size(), time, level, tag, thread, message)));
+    }
+
+    /**
+     * 读取当前的跟踪统计、数据面指标与最近一次启动的耗时分解，每行一条记录
+     *
+     * @param out 读取到的记录
+     */
+    public void readDiagnostics(List<LogRecord> out) {
+        long now = System.currentTimeMillis();
+        String thread = Thread.currentThread().getName();
+        out.add(new LogRecord(out.size(), now, LogLevel.INFO, "TraceRecorder", thread, TraceRecorder.getStats()));
+        for (String line : MetricsRegistry.getDefault().snapshot().format()) {
+            out.add(new LogRecord(out.size(), now, LogLevel.INFO, "Metrics", thread, line));
+        }
+        String startupReport = StartupTracer.getLastReport();
+        if (startupReport != null) {
+            for (String line : startupReport.split("\n")) {
+                out.add(new LogRecord(out.size(), now, LogLevel.INFO, "StartupTracer", thread, line));
+            }
+        }
+    }
+
+    /**
+     * 读取此前进程的持久化日志，仅保留最后的部分
+     *
+     * @param out 读取到的记录，最早的在前
+     */
+    public void readPreviousSessions(List<LogRecord> out) {
+        var store = segmentStore;
+        if (store == null) {
+            return;
+        }
+        var records = new ArrayDeque<LogRecord>();
+        store.iterate(true, (time, level, tag, thread, message) -> {
+            records.add(new LogRecord(records.size(), time, level, tag, thread, message));
+            if (records.size() > MAX_LOG_LINES) {
+                records.removeFirst();
+            }
+        });
+        out.addAll(records);
+    }
+    
+    /**
+     * 将全部日志以 gzip 压缩写入文件。逐条写出，不在内存中拼接完整的日志文本，也不截断
+     *
+     * @param context 应用上下文
+     * @param file    目标文件
+     */
+    public void exportLogs(Context context, File file) throws IOException {
+        var dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.getDefault());
+        var date = new Date();
+        try (var writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)))) {
+            writer.print(getAppInfo(context));
+
+            // 此前进程的持久化日志
+            var store = segmentStore;
+            if (store != null) {
+                writer.println("=== 此前的应用日志 ===");
+                store.iterate(true, (time, level, tag, thread, message) -> {
+                    date.setTime(time);
+                    writer.println(dateFormat.format(date) + " " + thread + " " + level.getLabel() + "/"
+                            + tag + ": " + message);
+                });
+                writer.println("=== 此前的应用日志结束 ===");
+            }
+
+            // 系统日志
+            var records = new ArrayList<LogRecord>();
+            logcatTailer.read(0, records);
+            for (var record : records) {
+                writer.println(record.format(dateFormat));
+            }
+
+            // 应用内部日志
+            writer.println("=== 应用内部日志 ===");
+            internalLogRing.drain(0, LogLevel.VERBOSE, (time, level, tag, thread, message) -> {
+                date.setTime(time);
+                writer.println(dateFormat.format(date) + " " + thread + " " + level.getLabel() + "/"
+                        + tag + ": " + message);
+            });
+            writer.println("=== 应用内部日志结束 ===");
+
+            // ZT 核心跟踪与事件
+            writer.println("=== 核心跟踪 ===");
+            writer.println(TraceRecorder.getStats());
+            TraceRecorder.drain(0, (time, level, tag, thread, message) -> {
+                date.setTime(time);
+                writer.println(dateFormat.format(date) + " " + thread + " " + level.getLabel() + "/"
+                        + tag + ": " + message);
+            });
+            writer.println("=== 核心跟踪结束 ===");
+
+            // 数据面指标
+            List<String> metricLines = MetricsRegistry.getDefault().snapshot().format();
+            if (!metricLines.isEmpty()) {
+                writer.println("=== 数据面指标 ===");
+                for (String line : metricLines) {
+                    writer.println(line);
+                }
+                writer.println("=== 数据面指标结束 ===");
+            }
+
+            String startupReport = StartupTracer.getLastReport();
+            if (startupReport != null) {
+                writer.println("=== 启动耗时分析 ===");
+                writer.println(startupReport);
+                writer.println("=== 启动耗时分析结束 ===");
+            }
+
+            // PrintWriter 不抛出异常，写入失败时需主动检查
+            if (writer.checkError()) {
+                throw new IOException("写入日志文件失败: " + file);
+            }
+        }
+    }
+    
     /**
      * 获取应用信息
      */
@@ -0,0 +1,104 @@
+package net.kaaass.zerotierfix.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 结构化的日志记录
+ */
+public final class LogRecord {
+    private final long sequence;
+    private final long time;
+    private final LogManager.LogLevel level;
+    private final String tag;
+    private final int pid;
+    private final int tid;
+    /**
+     * 线程名，仅持久化日志段中的记录有，logcat 记录为 null
+     */
+    private final String thread;
+    private final String message;
+
+    public LogRecord(long sequence, long time, LogManager.LogLevel level, String tag, int pid, int tid,
+                     String message) {
+        this.sequence = sequence;
+        this.time = time;
+        this.level = level;
+        this.tag = tag;
+        this.pid = pid;
+        this.tid = tid;
+        this.thread = null;
+        this.message = message;
+    }
+
+    /**
+     * 由持久化日志段读出的记录，只有线程名而没有进程号与线程号
+     */
+    public LogRecord(long sequence, long time, LogManager.LogLevel level, String tag, String thread,
+                     String message) {
+        this.sequence = sequence;
+        this.time = time;
+        this.level = level;
+        this.tag = tag;
+        this.pid = 0;
+        this.tid = 0;
+        this.thread = thread;
+        this.message = message;
+    }
+
+    /**
+     * 记录在所属缓冲区中的序号，单调递增
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * 记录时间，毫秒时间戳
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public LogManager.LogLevel getLevel() {
+        return level;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public int getTid() {
+        return tid;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 格式化为 logcat threadtime 格式的日志行，持久化的记录与内部日志格式相同
+     */
+    public String format(SimpleDateFormat dateFormat) {
+        if (this.thread != null) {
+            return dateFormat.format(new Date(this.time)) + " " + this.thread + " "
+                    + this.level.getLabel() + "/" + this.tag + ": " + this.message;
+        }
+        return dateFormat.format(new Date(this.time)) + " " + this.pid + " " + this.tid + " "
+                + this.level.getLabel() + " " + this.tag + ": " + this.message;
+    }
+
+    @Override
+    public String toString() {
+        return format(new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.getDefault()));
+    }
+}
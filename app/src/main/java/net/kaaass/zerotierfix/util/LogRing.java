@@ -0,0 +1,324 @@
+package net.kaaass.zerotierfix.util;
+
+import com.zerotier.sdk.util.StringUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁环形日志缓冲区
+ * <p>
+ * 预分配固定数量的槽位，每条日志以二进制形式写入一个槽位：时间戳、级别、标签、格式串及至多
+ * {@link #MAX_ARGS} 个参数。参数为基本类型或对象引用，格式化推迟到读取日志时进行，
+ * 写入路径上不拼接字符串、不分配对象。写入者通过原子序号领取槽位，缓冲区满后覆盖最早的日志。
+ * <p>
+ * 每个槽位带有版本号，写入前置为 {@link #WRITING}，写入完成后发布为序号加一。
+ * 读取时在复制槽位内容前后各检查一次版本号，不一致则说明该槽位已被覆盖，丢弃该条日志。
+ * 置为 {@link #WRITING} 使用 {@code getAndSet}、复制后的检查使用 {@code compareAndSet}，二者均为完整的内存屏障：
+ * 写入者对槽位内容的写入不会早于版本号的改变被读者看到，读者对槽位内容的读取也不会晚于复制后的检查。
+ * <p>
+ * 格式串中的占位符依次对应参数：
+ * <ul>
+ *     <li>{@code {}}：原样输出，整数输出十进制，对象输出 {@link String#valueOf(Object)}</li>
+ *     <li>{@code {mac}}：整数输出为 MAC 地址</li>
+ *     <li>{@code {nwid}}：整数输出为网络 ID</li>
+ *     <li>{@code {ether}}：整数输出为以太网类型</li>
+ *     <li>{@code {x}}：整数输出为十六进制</li>
+ * </ul>
+ * 对象参数在读取时才转换为字符串，调用者应只传入不可变对象。
+ */
+public class LogRing {
+    public static final int MAX_ARGS = 6;
+    private static final long WRITING = -1;
+    private static final byte KIND_LONG = 1;
+    private static final byte KIND_OBJECT = 2;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    /**
+     * 清空时的序号，读取时跳过此前的日志
+     */
+    private volatile long floor = 0;
+    private final AtomicLongArray stamps;
+    private final long[] times;
+    private final byte[] levels;
+    private final String[] tags;
+    private final String[] formats;
+    private final String[] threads;
+    private final byte[] argCounts;
+    private final byte[] argKinds;
+    private final long[] longArgs;
+    private final Object[] objectArgs;
+
+    /**
+     * @param capacity 槽位数，须为 2 的幂
+     */
+    public LogRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.stamps = new AtomicLongArray(capacity);
+        this.times = new long[capacity];
+        this.levels = new byte[capacity];
+        this.tags = new String[capacity];
+        this.formats = new String[capacity];
+        this.threads = new String[capacity];
+        this.argCounts = new byte[capacity];
+        this.argKinds = new byte[capacity * MAX_ARGS];
+        this.longArgs = new long[capacity * MAX_ARGS];
+        this.objectArgs = new Object[capacity * MAX_ARGS];
+    }
+
+    /**
+     * 领取槽位并写入日志头。须在写入参数后调用 {@link #publish} 发布
+     *
+     * @return 日志序号
+     */
+    public long claim(LogManager.LogLevel level, String tag, String format) {
+        long seq = this.next.getAndIncrement();
+        int slot = (int) (seq & this.mask);
+        // 完整屏障，其后对槽位内容的写入不会重排到版本号改变之前
+        this.stamps.getAndSet(slot, WRITING);
+        this.times[slot] = System.currentTimeMillis();
+        this.levels[slot] = (byte) level.ordinal();
+        this.tags[slot] = tag;
+        this.formats[slot] = format;
+        this.threads[slot] = Thread.currentThread().getName();
+        return seq;
+    }
+
+    public void setLong(long seq, int index, long value) {
+        int offset = (int) (seq & this.mask) * MAX_ARGS + index;
+        this.argKinds[offset] = KIND_LONG;
+        this.longArgs[offset] = value;
+        this.objectArgs[offset] = null;
+    }
+
+    public void setObject(long seq, int index, Object value) {
+        int offset = (int) (seq & this.mask) * MAX_ARGS + index;
+        this.argKinds[offset] = KIND_OBJECT;
+        this.objectArgs[offset] = value;
+    }
+
+    /**
+     * 发布日志，此后读者可见
+     *
+     * @param argCount 已写入的参数个数
+     */
+    public void publish(long seq, int argCount) {
+        int slot = (int) (seq & this.mask);
+        this.argCounts[slot] = (byte) argCount;
+        this.stamps.lazySet(slot, seq + 1);
+    }
+
+    /**
+     * 写入不带参数的日志，消息原样输出
+     */
+    public void append(LogManager.LogLevel level, String tag, String message) {
+        publish(claim(level, tag, message), 0);
+    }
+
+    /**
+     * 丢弃当前全部日志
+     */
+    public void clear() {
+        this.floor = this.next.get();
+    }
+
+    /**
+     * 读取缓冲区中的日志并格式化，最早的在前
+     *
+     * @param maxCount 最多读取的条数
+     */
+    public List<String> format(int maxCount) {
+        long end = this.next.get();
+        long start = Math.max(Math.max(this.floor, end - this.capacity), end - maxCount);
+        var dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.getDefault());
+        var date = new Date();
+        var lines = new ArrayList<String>((int) Math.max(0, end - start));
+        var builder = new StringBuilder();
+        var entry = new Entry();
+        for (long seq = start; seq < end; seq++) {
+            if (!read(seq, entry)) {
+                continue;
+            }
+            date.setTime(entry.time);
+            builder.setLength(0);
+            builder.append(dateFormat.format(date)).append(' ').append(entry.thread).append(' ')
+                    .append(entry.level.getLabel()).append('/').append(entry.tag).append(": ");
+            entry.render(builder);
+            lines.add(builder.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * 按序号顺序读取自 {@code from} 起的日志，供持久化等增量消费者使用。
+     * 遇到尚未写完的日志时停止，下次从该条继续；已被覆盖的日志跳过
+     *
+     * @param from     起始序号
+     * @param minLevel 低于此级别的日志跳过，且不格式化
+     * @return 下次读取的起始序号
+     */
+    public long drain(long from, LogManager.LogLevel minLevel, Visitor visitor) {
+        return drain(from, minLevel, false, visitor);
+    }
+
+    /**
+     * 按序号顺序读取自 {@code from} 起带参数的日志，即延迟格式化的日志
+     *
+     * @return 下次读取的起始序号
+     * @see #drain(long, LogManager.LogLevel, Visitor)
+     */
+    public long drainDeferred(long from, Visitor visitor) {
+        return drain(from, LogManager.LogLevel.VERBOSE, true, visitor);
+    }
+
+    private long drain(long from, LogManager.LogLevel minLevel, boolean deferredOnly, Visitor visitor) {
+        long end = this.next.get();
+        long seq = Math.max(Math.max(from, this.floor), end - this.capacity);
+        var builder = new StringBuilder();
+        var entry = new Entry();
+        for (; seq < end; seq++) {
+            if (!read(seq, entry)) {
+                long stamp = this.stamps.get((int) (seq & this.mask));
+                if (stamp < seq + 1) {
+                    // 尚未写完
+                    break;
+                }
+                continue;
+            }
+            if (entry.level.ordinal() < minLevel.ordinal() || (deferredOnly && entry.argCount == 0)) {
+                continue;
+            }
+            builder.setLength(0);
+            entry.render(builder);
+            visitor.visit(entry.time, entry.level, entry.tag, entry.thread, builder.toString());
+        }
+        return seq;
+    }
+
+    /**
+     * 格式化单条日志的消息
+     *
+     * @return 标签与消息，已被覆盖时为 null
+     */
+    public String[] formatMessage(long seq) {
+        var entry = new Entry();
+        if (!read(seq, entry)) {
+            return null;
+        }
+        var builder = new StringBuilder();
+        entry.render(builder);
+        return new String[]{entry.tag, builder.toString()};
+    }
+
+    /**
+     * 复制槽位内容
+     *
+     * @return 是否读取成功。尚未写完或已被覆盖时失败
+     */
+    private boolean read(long seq, Entry entry) {
+        int slot = (int) (seq & this.mask);
+        long stamp = this.stamps.get(slot);
+        if (stamp != seq + 1) {
+            return false;
+        }
+        entry.time = this.times[slot];
+        entry.level = LogManager.LogLevel.values()[this.levels[slot]];
+        entry.tag = this.tags[slot];
+        entry.format = this.formats[slot];
+        entry.thread = this.threads[slot];
+        entry.argCount = this.argCounts[slot];
+        int offset = slot * MAX_ARGS;
+        for (int i = 0; i < entry.argCount; i++) {
+            entry.kinds[i] = this.argKinds[offset + i];
+            entry.longs[i] = this.longArgs[offset + i];
+            entry.objects[i] = this.objectArgs[offset + i];
+        }
+        // 完整屏障，此前对槽位内容的读取不会重排到检查之后
+        return this.stamps.compareAndSet(slot, stamp, stamp);
+    }
+
+    /**
+     * 日志读取回调
+     */
+    public interface Visitor {
+        void visit(long time, LogManager.LogLevel level, String tag, String thread, String message);
+    }
+
+    /**
+     * 从槽位复制出的一条日志
+     */
+    private static final class Entry {
+        long time;
+        LogManager.LogLevel level;
+        String tag;
+        String format;
+        String thread;
+        int argCount;
+        final byte[] kinds = new byte[MAX_ARGS];
+        final long[] longs = new long[MAX_ARGS];
+        final Object[] objects = new Object[MAX_ARGS];
+
+        void render(StringBuilder builder) {
+            LogRing.render(builder, this.format, this.argCount, this.kinds, this.longs, this.objects);
+        }
+    }
+
+    /**
+     * 按格式串输出日志消息
+     */
+    static void render(StringBuilder builder, String format, int argCount,
+                       byte[] kinds, long[] longs, Object[] objects) {
+        if (argCount == 0) {
+            builder.append(format);
+            return;
+        }
+        int arg = 0;
+        int pos = 0;
+        int length = format.length();
+        while (pos < length) {
+            int open = format.indexOf('{', pos);
+            int close = open < 0 ? -1 : format.indexOf('}', open);
+            if (close < 0 || arg >= argCount) {
+                builder.append(format, pos, length);
+                break;
+            }
+            builder.append(format, pos, open);
+            var spec = format.substring(open + 1, close);
+            if (kinds[arg] == KIND_OBJECT) {
+                builder.append(objects[arg]);
+            } else {
+                long value = longs[arg];
+                switch (spec) {
+                    case "mac":
+                        builder.append(StringUtils.macAddressToString(value));
+                        break;
+                    case "nwid":
+                        builder.append(StringUtils.networkIdToString(value));
+                        break;
+                    case "ether":
+                        builder.append(StringUtils.etherTypeToString(value));
+                        break;
+                    case "x":
+                        builder.append(Long.toHexString(value));
+                        break;
+                    default:
+                        builder.append(value);
+                        break;
+                }
+            }
+            arg++;
+            pos = close + 1;
+        }
+    }
+}
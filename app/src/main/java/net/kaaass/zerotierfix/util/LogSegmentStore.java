@@ -0,0 +1,300 @@
+package net.kaaass.zerotierfix.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * 持久化日志段
+ * <p>
+ * 日志以二进制记录追加写入固定数量、固定大小的段文件，各段通过内存映射写入，总大小固定。
+ * 当前段写满后轮转至最早的段并覆盖。写入即写入映射的页，进程崩溃或被杀死后由系统写回文件，
+ * 无需显式刷新；仅系统崩溃时可能丢失尚未写回的记录。
+ * <p>
+ * 段文件以 16 字节的段头开始：魔数、版本、段代数。代数随轮转递增，为 0 表示空段，
+ * 读取时按代数顺序遍历各段。每条记录以记录长度开始，其后为时间、级别、标签、线程名与消息；
+ * 写入时先写记录内容与其后的结束标记，最后写记录长度，因此写入中断时读者会在该记录处停止。
+ */
+public class LogSegmentStore {
+    private static final String TAG = "LogSegmentStore";
+    private static final String FILE_PREFIX = "segment-";
+    private static final String FILE_SUFFIX = ".log";
+    private static final int SEGMENT_COUNT = 8;
+    private static final int SEGMENT_SIZE = 512 * 1024;
+    private static final int MAGIC = 0x5a544c47;
+    private static final int SERIAL_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int GENERATION_OFFSET = 8;
+    /**
+     * 记录长度、时间、级别、标签长度、线程名长度、消息长度
+     */
+    private static final int RECORD_OVERHEAD = 4 + 8 + 1 + 2 + 2 + 4;
+    private static final int MAX_STRING_LENGTH = 256;
+    private static final int MAX_MESSAGE_LENGTH = 8192;
+
+    private final MappedByteBuffer[] segments = new MappedByteBuffer[SEGMENT_COUNT];
+    private int current;
+    private long generation;
+    private int position;
+    /**
+     * 打开时的写入位置，此前的记录属于之前的进程
+     */
+    private long sessionGeneration;
+    private int sessionPosition;
+
+    private LogSegmentStore() {
+    }
+
+    /**
+     * 打开目录中的段文件，不存在时创建
+     */
+    public static LogSegmentStore open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create log directory: " + directory);
+        }
+        var store = new LogSegmentStore();
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            var file = new File(directory, FILE_PREFIX + i + FILE_SUFFIX);
+            try (var raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() != SEGMENT_SIZE) {
+                    raf.setLength(SEGMENT_SIZE);
+                }
+                // 映射在通道关闭后仍然有效
+                store.segments[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            }
+        }
+        store.recover();
+        return store;
+    }
+
+    /**
+     * 找到代数最大的段并定位到其末尾，继续写入
+     */
+    private void recover() {
+        this.current = -1;
+        this.generation = 0;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            long segmentGeneration = generationOf(i);
+            if (segmentGeneration < 0) {
+                // 损坏或旧版本的段，视为空段
+                resetSegment(i, 0);
+            } else if (segmentGeneration > this.generation) {
+                this.generation = segmentGeneration;
+                this.current = i;
+            }
+        }
+        if (this.current < 0) {
+            this.current = 0;
+            this.generation = 1;
+            resetSegment(0, 1);
+            this.position = HEADER_SIZE;
+        } else {
+            this.position = endOf(this.segments[this.current]);
+        }
+        this.sessionGeneration = this.generation;
+        this.sessionPosition = this.position;
+    }
+
+    /**
+     * 段代数。段头无效时为 -1
+     */
+    private long generationOf(int index) {
+        var segment = this.segments[index];
+        if (segment.getInt(0) != MAGIC || segment.getInt(4) != SERIAL_VERSION) {
+            return -1;
+        }
+        return segment.getLong(GENERATION_OFFSET);
+    }
+
+    private void resetSegment(int index, long segmentGeneration) {
+        var segment = this.segments[index];
+        segment.putInt(HEADER_SIZE, 0);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, SERIAL_VERSION);
+        segment.putLong(GENERATION_OFFSET, segmentGeneration);
+    }
+
+    /**
+     * 段中最后一条完整记录之后的位置
+     */
+    private static int endOf(MappedByteBuffer segment) {
+        int pos = HEADER_SIZE;
+        while (true) {
+            int length = recordLength(segment, pos);
+            if (length <= 0) {
+                return pos;
+            }
+            pos += length;
+        }
+    }
+
+    /**
+     * 指定位置记录的长度。没有记录或记录无效时为 0
+     */
+    private static int recordLength(MappedByteBuffer segment, int pos) {
+        if (pos + 4 > SEGMENT_SIZE) {
+            return 0;
+        }
+        int length = segment.getInt(pos);
+        if (length < RECORD_OVERHEAD || pos + length + 4 > SEGMENT_SIZE) {
+            return 0;
+        }
+        return length;
+    }
+
+    /**
+     * 追加一条记录
+     */
+    public synchronized void append(long time, LogManager.LogLevel level, String tag, String thread,
+                                    String message) {
+        byte[] tagBytes = encode(tag, MAX_STRING_LENGTH);
+        byte[] threadBytes = encode(thread, MAX_STRING_LENGTH);
+        byte[] messageBytes = encode(message, MAX_MESSAGE_LENGTH);
+        int length = RECORD_OVERHEAD + tagBytes.length + threadBytes.length + messageBytes.length;
+        if (this.position + length + 4 > SEGMENT_SIZE) {
+            rotate();
+        }
+        var segment = this.segments[this.current];
+        int pos = this.position + 4;
+        segment.putLong(pos, time);
+        pos += 8;
+        segment.put(pos, (byte) level.ordinal());
+        pos += 1;
+        pos = putBytes(segment, pos, tagBytes, false);
+        pos = putBytes(segment, pos, threadBytes, false);
+        pos = putBytes(segment, pos, messageBytes, true);
+        // 先写结束标记，最后写记录长度使记录可见
+        segment.putInt(pos, 0);
+        segment.putInt(this.position, length);
+        this.position = pos;
+    }
+
+    private static byte[] encode(String value, int maxLength) {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (value.length() > maxLength) {
+            value = value.substring(0, maxLength);
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int putBytes(MappedByteBuffer segment, int pos, byte[] bytes, boolean wide) {
+        if (wide) {
+            segment.putInt(pos, bytes.length);
+            pos += 4;
+        } else {
+            segment.putShort(pos, (short) bytes.length);
+            pos += 2;
+        }
+        var view = segment.duplicate();
+        view.position(pos);
+        view.put(bytes);
+        return pos + bytes.length;
+    }
+
+    private void rotate() {
+        this.current = (this.current + 1) % SEGMENT_COUNT;
+        this.generation++;
+        resetSegment(this.current, this.generation);
+        this.position = HEADER_SIZE;
+    }
+
+    /**
+     * 按写入顺序遍历记录，逐条读取，不将全部记录载入内存
+     *
+     * @param previousSessionsOnly 为 true 时仅遍历本进程打开之前写入的记录
+     */
+    public synchronized void iterate(boolean previousSessionsOnly, LogRing.Visitor visitor) {
+        var order = new ArrayList<long[]>();
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            long segmentGeneration = generationOf(i);
+            if (segmentGeneration > 0) {
+                order.add(new long[]{segmentGeneration, i});
+            }
+        }
+        Collections.sort(order, (a, b) -> Long.compare(a[0], b[0]));
+        var levels = LogManager.LogLevel.values();
+        for (var item : order) {
+            long segmentGeneration = item[0];
+            if (previousSessionsOnly && segmentGeneration > this.sessionGeneration) {
+                return;
+            }
+            int limit = previousSessionsOnly && segmentGeneration == this.sessionGeneration
+                    ? this.sessionPosition : SEGMENT_SIZE;
+            var segment = this.segments[(int) item[1]];
+            int pos = HEADER_SIZE;
+            int length;
+            while (pos < limit && (length = recordLength(segment, pos)) > 0) {
+                try {
+                    int p = pos + 4;
+                    long time = segment.getLong(p);
+                    p += 8;
+                    int level = segment.get(p);
+                    p += 1;
+                    int tagLength = segment.getShort(p);
+                    String tag = getString(segment, p + 2, tagLength);
+                    p += 2 + tagLength;
+                    int threadLength = segment.getShort(p);
+                    String thread = getString(segment, p + 2, threadLength);
+                    p += 2 + threadLength;
+                    int messageLength = segment.getInt(p);
+                    String message = getString(segment, p + 4, messageLength);
+                    if (level < 0 || level >= levels.length || p + 4 + messageLength != pos + length) {
+                        break;
+                    }
+                    visitor.visit(time, levels[level], tag, thread, message);
+                } catch (IndexOutOfBoundsException | IllegalArgumentException
+                         | NegativeArraySizeException | java.nio.BufferUnderflowException e) {
+                    Log.w(TAG, "Corrupt log record in segment " + item[1] + " at " + pos);
+                    break;
+                }
+                pos += length;
+            }
+        }
+    }
+
+    private static String getString(MappedByteBuffer segment, int pos, int length) {
+        var bytes = new byte[length];
+        var view = segment.duplicate();
+        view.position(pos);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 丢弃全部记录
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            resetSegment(i, 0);
+        }
+        this.current = 0;
+        this.generation = 1;
+        resetSegment(0, 1);
+        this.position = HEADER_SIZE;
+        this.sessionGeneration = this.generation;
+        this.sessionPosition = this.position;
+    }
+
+    /**
+     * 将当前段写回文件
+     */
+    public synchronized void force() {
+        this.segments[this.current].force();
+    }
+
+    /**
+     * 各段文件的总大小
+     */
+    public static long getCapacity() {
+        return (long) SEGMENT_COUNT * SEGMENT_SIZE;
+    }
+}
@@ -1,43 +1,86 @@
 package net.kaaass.zerotierfix.util;
 
+import android.content.SharedPreferences;
 import android.util.Log;
 
+import net.kaaass.zerotierfix.BuildConfig;
+
 /**
  * 日志工具类，为应用提供统一的日志记录接口
  * 同时记录到系统日志和应用内部日志
+ * <p>
+ * 数据包处理等热点路径应使用带参数的 {@code d(tag, format, ...)}：参数以基本类型或对象引用写入
+ * {@link LogRing}，格式化推迟到读取日志时进行，占位符见 {@link LogRing}。
+ * 低于 {@link #setMinLevel 最低级别} 的日志在求值任何参数前即返回。最低级别由设置项
+ * {@link Constants#PREF_DIAGNOSTIC_DEBUG_LOG} 决定，默认不记录调试日志。
+ * 基本类型参数使用 {@code long} 重载，{@code int} 参数自动放宽为 {@code long}，均不装箱。
+ * 延迟格式化的日志仅在调试版本中同时输出到系统日志
  */
 public class LogUtil {
     private static final LogManager logManager = LogManager.getInstance();
+    private static final LogRing ring = logManager.getInternalLogRing();
+    private static volatile int minLevel = LogManager.LogLevel.INFO.ordinal();
+
+    /**
+     * 设置记录日志的最低级别
+     */
+    public static void setMinLevel(LogManager.LogLevel level) {
+        minLevel = level.ordinal();
+    }
+
+    /**
+     * 按设置项决定是否记录调试日志
+     */
+    public static void applyPreferences(SharedPreferences preferences) {
+        boolean debug = preferences.getBoolean(Constants.PREF_DIAGNOSTIC_DEBUG_LOG, false);
+        setMinLevel(debug ? LogManager.LogLevel.DEBUG : LogManager.LogLevel.INFO);
+    }
+
+    /**
+     * 是否记录指定级别的日志。需要额外计算才能构造日志参数时，应先以此判断
+     */
+    public static boolean isLoggable(LogManager.LogLevel level) {
+        return level.ordinal() >= minLevel;
+    }
+
+    /**
+     * 是否记录调试级别日志
+     */
+    public static boolean isDebugEnabled() {
+        return LogManager.LogLevel.DEBUG.ordinal() >= minLevel;
+    }
     
     /**
      * 记录调试级别日志
      */
     public static void d(String tag, String message) {
-        Log.d(tag, message);
-        logManager.debug(tag, message);
+        if (isDebugEnabled()) {
+            logManager.debug(tag, message);
+        }
     }
     
     /**
      * 记录信息级别日志
      */
     public static void i(String tag, String message) {
-        Log.i(tag, message);
-        logManager.info(tag, message);
+        if (isLoggable(LogManager.LogLevel.INFO)) {
+            logManager.info(tag, message);
+        }
     }
     
     /**
      * 记录警告级别日志
      */
     public static void w(String tag, String message) {
-        Log.w(tag, message);
-        logManager.warn(tag, message);
+        if (isLoggable(LogManager.LogLevel.WARN)) {
+            logManager.warn(tag, message);
+        }
     }
     
     /**
      * 记录错误级别日志
      */
     public static void e(String tag, String message) {
-        Log.e(tag, message);
         logManager.error(tag, message);
     }
     
@@ -45,9 +88,127 @@ public class LogUtil {
      * 记录带异常的错误级别日志
      */
     public static void e(String tag, String message, Throwable throwable) {
-        Log.e(tag, message, throwable);
         logManager.error(tag, message, throwable);
     }
+
+    /**
+     * 记录延迟格式化的调试级别日志
+     */
+    public static void d(String tag, String format, Object a) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setObject(seq, 0, a);
+        publishDebug(seq, 1);
+    }
+
+    public static void d(String tag, String format, long a) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setLong(seq, 0, a);
+        publishDebug(seq, 1);
+    }
+
+    public static void d(String tag, String format, long a, Object b) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setLong(seq, 0, a);
+        ring.setObject(seq, 1, b);
+        publishDebug(seq, 2);
+    }
+
+    public static void d(String tag, String format, Object a, Object b) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setObject(seq, 0, a);
+        ring.setObject(seq, 1, b);
+        publishDebug(seq, 2);
+    }
+
+    public static void d(String tag, String format, Object a, long b) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setObject(seq, 0, a);
+        ring.setLong(seq, 1, b);
+        publishDebug(seq, 2);
+    }
+
+    public static void d(String tag, String format, long a, long b) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setLong(seq, 0, a);
+        ring.setLong(seq, 1, b);
+        publishDebug(seq, 2);
+    }
+
+    public static void d(String tag, String format, Object a, Object b, Object c) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setObject(seq, 0, a);
+        ring.setObject(seq, 1, b);
+        ring.setObject(seq, 2, c);
+        publishDebug(seq, 3);
+    }
+
+    public static void d(String tag, String format, Object a, Object b, long c) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setObject(seq, 0, a);
+        ring.setObject(seq, 1, b);
+        ring.setLong(seq, 2, c);
+        publishDebug(seq, 3);
+    }
+
+    public static void d(String tag, String format, long a, long b, Object c) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setLong(seq, 0, a);
+        ring.setLong(seq, 1, b);
+        ring.setObject(seq, 2, c);
+        publishDebug(seq, 3);
+    }
+
+    public static void d(String tag, String format, long a, long b, long c, long d, long e, long f) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, tag, format);
+        ring.setLong(seq, 0, a);
+        ring.setLong(seq, 1, b);
+        ring.setLong(seq, 2, c);
+        ring.setLong(seq, 3, d);
+        ring.setLong(seq, 4, e);
+        ring.setLong(seq, 5, f);
+        publishDebug(seq, 6);
+    }
+
+    private static void publishDebug(long seq, int argCount) {
+        ring.publish(seq, argCount);
+        if (BuildConfig.DEBUG) {
+            // 调试版本中同时输出到系统日志，此时才格式化
+            var message = ring.formatMessage(seq);
+            if (message != null) {
+                Log.d(message[0], message[1]);
+            }
+        }
+    }
     
     /**
      * 记录网络事件
@@ -0,0 +1,306 @@
+package net.kaaass.zerotierfix.util;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 增量读取本进程的 logcat 日志
+ * <p>
+ * 以一个 logcat 进程持续读取本进程的日志，逐行解析为 {@link LogRecord} 追加到固定容量的缓冲区，
+ * 读者按序号只取新增的记录，每次刷新的开销只与新增行数有关。Android 7.0 及以上由 logcat 按 PID 过滤，
+ * 更低版本在解析时过滤。logcat 进程意外退出或重新开始读取时，从最后一条记录的时间（{@code -T}）继续，
+ * 并跳过与已有记录重复的行。
+ * <p>
+ * logcat 进程只在有读者时运行：读者通过 {@link #acquire()} 与 {@link #release()} 计数，
+ * 最后一个读者释放后结束进程，已读取的记录保留。
+ */
+public class LogcatTailer {
+    private static final String TAG = "LogcatTailer";
+    private static final long RESTART_DELAY = 1000;
+    private static final Pattern THREADTIME_LINE = Pattern.compile(
+            "^(\\d\\d)-(\\d\\d) (\\d\\d):(\\d\\d):(\\d\\d)\\.(\\d{3})\\s+(\\d+)\\s+(\\d+)\\s+([VDIWEFA])\\s+(.*?)\\s*: ?(.*)$");
+
+    private final int pid = android.os.Process.myPid();
+    private final int capacity;
+    private final LogRecord[] records;
+    /**
+     * 下一条记录的序号
+     */
+    private long next = 0;
+    /**
+     * 清空时的序号，读取时跳过此前的记录
+     */
+    private long floor = 0;
+    /**
+     * 最近一次收到新记录的时间，用于判断初始积压是否已读完
+     */
+    private long lastAppendTime = 0;
+
+    /**
+     * 当前的读取线程，停止后为 null。旧线程发现自己不再是当前线程时退出
+     */
+    private volatile Thread thread;
+    private volatile Process process;
+    /**
+     * 读者数
+     */
+    private int users = 0;
+
+    public LogcatTailer(int capacity) {
+        this.capacity = capacity;
+        this.records = new LogRecord[capacity];
+    }
+
+    /**
+     * 增加一个读者，第一个读者开始读取
+     */
+    public synchronized void acquire() {
+        if (this.users++ == 0) {
+            start();
+        }
+    }
+
+    /**
+     * 减少一个读者，最后一个读者释放后停止读取
+     */
+    public void release() {
+        synchronized (this) {
+            if (this.users == 0 || --this.users > 0) {
+                return;
+            }
+        }
+        stop();
+    }
+
+    private synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+        this.lastAppendTime = SystemClock.elapsedRealtime();
+        var tailerThread = new Thread(this::run, "Logcat Tailer Thread");
+        tailerThread.setDaemon(true);
+        this.thread = tailerThread;
+        tailerThread.start();
+    }
+
+    /**
+     * 停止读取并结束 logcat 进程，不论是否还有读者
+     */
+    public void stop() {
+        Thread tailerThread;
+        Process current;
+        synchronized (this) {
+            tailerThread = this.thread;
+            this.thread = null;
+            current = this.process;
+        }
+        if (current != null) {
+            current.destroy();
+        }
+        if (tailerThread != null) {
+            tailerThread.interrupt();
+        }
+    }
+
+    private boolean isCurrent() {
+        return this.thread == Thread.currentThread();
+    }
+
+    /**
+     * 等待 logcat 输出已有的积压日志：直到收到记录后连续 {@code quietTime} 毫秒没有新记录，
+     * 最长等待 {@code timeout} 毫秒
+     */
+    public void awaitIdle(long quietTime, long timeout) {
+        long deadline = SystemClock.elapsedRealtime() + timeout;
+        try {
+            while (true) {
+                long now = SystemClock.elapsedRealtime();
+                long quietSince;
+                boolean received;
+                synchronized (this) {
+                    quietSince = this.lastAppendTime;
+                    received = this.next > 0;
+                }
+                if ((received && now - quietSince >= quietTime) || now >= deadline) {
+                    return;
+                }
+                Thread.sleep(Math.min(quietTime, deadline - now));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 读取序号不小于 {@code from} 的记录
+     *
+     * @return 下次读取的起始序号
+     */
+    public synchronized long read(long from, List<LogRecord> out) {
+        long start = Math.max(Math.max(from, this.floor), this.next - this.capacity);
+        for (long seq = start; seq < this.next; seq++) {
+            out.add(this.records[(int) (seq % this.capacity)]);
+        }
+        return this.next;
+    }
+
+    /**
+     * 丢弃当前全部记录
+     */
+    public synchronized void clear() {
+        this.floor = this.next;
+    }
+
+    private void run() {
+        Log.d(TAG, "Logcat tailer started");
+        while (isCurrent()) {
+            try {
+                tail(resumeTime());
+            } catch (IOException e) {
+                if (isCurrent()) {
+                    Log.w(TAG, "Logcat tailer failed: " + e.getMessage());
+                }
+            }
+            if (!isCurrent()) {
+                break;
+            }
+            try {
+                Thread.sleep(RESTART_DELAY);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        Log.d(TAG, "Logcat tailer stopped");
+    }
+
+    /**
+     * 最后一条记录的时间，没有记录时为 0
+     */
+    private synchronized long resumeTime() {
+        long last = this.next - 1;
+        return last >= this.floor && last >= 0 ? this.records[(int) (last % this.capacity)].getTime() : 0;
+    }
+
+    /**
+     * 运行一个 logcat 进程直至其退出
+     *
+     * @param resumeTime 从该时间起读取，为 0 时读取全部已有日志
+     */
+    private void tail(long resumeTime) throws IOException {
+        var command = new ArrayList<String>();
+        command.add("logcat");
+        command.add("-v");
+        command.add("threadtime");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            command.add("--pid=" + this.pid);
+        }
+        if (resumeTime > 0) {
+            command.add("-T");
+            command.add(new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ROOT).format(new Date(resumeTime)));
+        }
+        var logcat = new ProcessBuilder(command).redirectErrorStream(true).start();
+        this.process = logcat;
+        try (var reader = new BufferedReader(new InputStreamReader(logcat.getInputStream(), StandardCharsets.UTF_8))) {
+            var matcher = THREADTIME_LINE.matcher("");
+            var calendar = Calendar.getInstance();
+            String line;
+            while (isCurrent() && (line = reader.readLine()) != null) {
+                matcher.reset(line);
+                if (!matcher.matches()) {
+                    // 缓冲区分隔行等
+                    continue;
+                }
+                int linePid = Integer.parseInt(matcher.group(7));
+                if (linePid != this.pid) {
+                    continue;
+                }
+                long time = parseTime(calendar, matcher);
+                if (time < resumeTime) {
+                    continue;
+                }
+                var level = parseLevel(matcher.group(9).charAt(0));
+                var tag = matcher.group(10);
+                var message = matcher.group(11);
+                append(time, level, tag, linePid, Integer.parseInt(matcher.group(8)), message, resumeTime);
+            }
+        } finally {
+            if (this.process == logcat) {
+                this.process = null;
+            }
+            logcat.destroy();
+        }
+    }
+
+    private synchronized void append(long time, LogManager.LogLevel level, String tag, int linePid, int tid,
+                                     String message, long resumeTime) {
+        if (time == resumeTime && isDuplicate(time, tag, tid, message)) {
+            return;
+        }
+        this.records[(int) (this.next % this.capacity)] = new LogRecord(this.next, time, level, tag, linePid, tid, message);
+        this.next++;
+        this.lastAppendTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 重新开始读取时，与恢复时间相同的行可能已经读取过
+     */
+    private boolean isDuplicate(long time, String tag, int tid, String message) {
+        long oldest = Math.max(this.floor, this.next - this.capacity);
+        for (long seq = this.next - 1; seq >= oldest; seq--) {
+            var record = this.records[(int) (seq % this.capacity)];
+            if (record.getTime() != time) {
+                return false;
+            }
+            if (record.getTid() == tid && record.getTag().equals(tag) && record.getMessage().equals(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * threadtime 格式不含年份，取不晚于当前时间的年份
+     */
+    private static long parseTime(Calendar calendar, Matcher matcher) {
+        long now = System.currentTimeMillis();
+        calendar.setTimeInMillis(now);
+        int year = calendar.get(Calendar.YEAR);
+        calendar.set(year, Integer.parseInt(matcher.group(1)) - 1, Integer.parseInt(matcher.group(2)),
+                Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)),
+                Integer.parseInt(matcher.group(5)));
+        calendar.set(Calendar.MILLISECOND, Integer.parseInt(matcher.group(6)));
+        if (calendar.getTimeInMillis() > now + 24 * 3600 * 1000L) {
+            calendar.set(Calendar.YEAR, year - 1);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    private static LogManager.LogLevel parseLevel(char label) {
+        switch (label) {
+            case 'V':
+                return LogManager.LogLevel.VERBOSE;
+            case 'D':
+                return LogManager.LogLevel.DEBUG;
+            case 'I':
+                return LogManager.LogLevel.INFO;
+            case 'W':
+                return LogManager.LogLevel.WARN;
+            default:
+                return LogManager.LogLevel.ERROR;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package net.kaaass.zerotierfix.util;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 服务启动关键路径追踪
+ * <p>
+ * 记录自服务启动至隧道可用期间各阶段的耗时。阶段以单调时钟计时，可以嵌套；
+ * 同一线程中未结束的阶段内开始的阶段视为其子阶段。未在追踪时调用各方法均为空操作，开销可以忽略。
+ * 追踪结束后输出结构化的耗时分解，并保留最近一次结果供日志界面显示、导出。
+ */
+public final class StartupTracer {
+    private static final String TAG = "StartupTracer";
+    private static final Span NOOP = new Span(null, null, null);
+
+    private static volatile Trace current;
+    private static volatile String lastReport;
+
+    private StartupTracer() {
+    }
+
+    /**
+     * 开始新的追踪，丢弃尚未结束的追踪
+     */
+    public static void start() {
+        current = new Trace();
+    }
+
+    /**
+     * 是否正在追踪
+     */
+    public static boolean isActive() {
+        return current != null;
+    }
+
+    /**
+     * 开始一个阶段，须调用 {@link Span#end()} 结束
+     */
+    public static Span span(String name) {
+        var trace = current;
+        if (trace == null) {
+            return NOOP;
+        }
+        return trace.begin(name);
+    }
+
+    /**
+     * 记录一个时间点
+     */
+    public static void mark(String name) {
+        var trace = current;
+        if (trace != null) {
+            trace.begin(name).end();
+        }
+    }
+
+    /**
+     * 结束追踪，输出耗时分解
+     *
+     * @param outcome 启动结果，如隧道可用、服务停止
+     */
+    public static void finish(String outcome) {
+        Trace trace;
+        synchronized (StartupTracer.class) {
+            trace = current;
+            if (trace == null) {
+                return;
+            }
+            current = null;
+        }
+        var report = trace.report(outcome);
+        lastReport = report;
+        LogUtil.i(TAG, report);
+    }
+
+    /**
+     * 最近一次启动的耗时分解，尚无时为 null
+     */
+    public static String getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * 一次启动的追踪记录
+     */
+    private static final class Trace {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        final List<Span> spans = Collections.synchronizedList(new ArrayList<>());
+        /**
+         * 各线程当前的嵌套深度
+         */
+        final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        Span begin(String name) {
+            var span = new Span(this, name, this.depth.get());
+            this.spans.add(span);
+            return span;
+        }
+
+        String report(String outcome) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            var builder = new StringBuilder();
+            builder.append(String.format(Locale.ROOT, "Startup trace: %s in %d ms\n",
+                    outcome, (now - this.startNanos) / 1000000));
+            builder.append(String.format(Locale.ROOT, "%9s %8s  %s\n", "start", "duration", "phase"));
+            List<Span> snapshot;
+            synchronized (this.spans) {
+                snapshot = new ArrayList<>(this.spans);
+            }
+            for (var span : snapshot) {
+                long end = span.endNanos;
+                builder.append(String.format(Locale.ROOT, "%6d ms %s  ",
+                        (span.startNanos - this.startNanos) / 1000000,
+                        end == 0 ? "    open" : String.format(Locale.ROOT, "%5d ms", (end - span.startNanos) / 1000000)));
+                for (int i = 0; i < span.depth; i++) {
+                    builder.append("  ");
+                }
+                builder.append(span.name).append(" [").append(span.threadName).append("]\n");
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * 追踪中的一个阶段
+     */
+    public static final class Span implements AutoCloseable {
+        private final Trace trace;
+        private final String name;
+        /**
+         * 开始阶段的线程的嵌套深度计数。阶段可在其他线程中结束，结束时仍恢复开始线程的深度
+         */
+        private final int[] threadDepth;
+        private final int depth;
+        private final String threadName;
+        private final long startNanos;
+        private volatile long endNanos = 0;
+
+        private Span(Trace trace, String name, int[] threadDepth) {
+            this.trace = trace;
+            this.name = name;
+            this.threadDepth = threadDepth;
+            if (threadDepth != null) {
+                synchronized (threadDepth) {
+                    this.depth = threadDepth[0]++;
+                }
+            } else {
+                this.depth = 0;
+            }
+            this.threadName = trace != null ? Thread.currentThread().getName() : null;
+            this.startNanos = trace != null ? SystemClock.elapsedRealtimeNanos() : 0;
+        }
+
+        /**
+         * 结束阶段。重复调用无效
+         */
+        public void end() {
+            if (this.trace == null || this.endNanos != 0) {
+                return;
+            }
+            this.endNanos = SystemClock.elapsedRealtimeNanos();
+            synchronized (this.threadDepth) {
+                this.threadDepth[0]--;
+            }
+        }
+
+        @Override
+        public void close() {
+            end();
+        }
+    }
+}
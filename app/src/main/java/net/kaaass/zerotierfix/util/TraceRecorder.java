@@ -0,0 +1,203 @@
+package net.kaaass.zerotierfix.util;
+
+import android.os.SystemClock;
+
+import com.zerotier.sdk.Event;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ZT 核心的跟踪与事件记录
+ * <p>
+ * 核心的跟踪字符串与事件写入独立的 {@link LogRing}，不输出到系统日志，也不写入应用内部日志，
+ * 事件在读取时才格式化。各类别分别限速：每秒最多完整记录 {@link Category#rateLimit} 条，
+ * 超出部分每 {@link Category#sampleInterval} 条记录一条，其余只计数，
+ * 并在该类别下一条被记录时附加一条丢弃条数的汇总。
+ * <p>
+ * 开启完整跟踪后不限速、不采样，并同时以信息级别输出到应用日志（不受调试日志开关影响），仅应在诊断问题时开启。
+ */
+public final class TraceRecorder {
+    private static final String TAG_TRACE = "ZT1_Trace";
+    private static final String TAG_EVENT = "ZT1_Event";
+    private static final int RING_CAPACITY = 2048;
+    private static final long WINDOW = 1000;
+
+    private static final LogRing ring = new LogRing(RING_CAPACITY);
+    private static final Limiter[] limiters = new Limiter[Category.values().length];
+    private static volatile boolean fullTrace = false;
+
+    static {
+        for (var category : Category.values()) {
+            limiters[category.ordinal()] = new Limiter(category);
+        }
+    }
+
+    private TraceRecorder() {
+    }
+
+    /**
+     * 记录类别
+     */
+    public enum Category {
+        /**
+         * 节点事件
+         */
+        EVENT(20, 8),
+        /**
+         * 核心跟踪字符串
+         */
+        TRACE(50, 64);
+
+        /**
+         * 每秒完整记录的条数
+         */
+        final int rateLimit;
+        /**
+         * 超出限速后的采样间隔
+         */
+        final int sampleInterval;
+
+        Category(int rateLimit, int sampleInterval) {
+            this.rateLimit = rateLimit;
+            this.sampleInterval = sampleInterval;
+        }
+    }
+
+    /**
+     * 开启或关闭完整跟踪
+     */
+    public static void setFullTrace(boolean enabled) {
+        if (fullTrace != enabled) {
+            fullTrace = enabled;
+            LogUtil.i(TAG_TRACE, "Full trace " + (enabled ? "enabled" : "disabled"));
+        }
+    }
+
+    public static boolean isFullTrace() {
+        return fullTrace;
+    }
+
+    /**
+     * 记录节点事件
+     */
+    public static void recordEvent(Event event) {
+        if (fullTrace) {
+            LogUtil.i(TAG_EVENT, "Event: " + event);
+        } else if (!admit(Category.EVENT, TAG_EVENT)) {
+            return;
+        }
+        long seq = ring.claim(LogManager.LogLevel.DEBUG, TAG_EVENT, "Event: {}");
+        ring.setObject(seq, 0, event);
+        ring.publish(seq, 1);
+    }
+
+    /**
+     * 记录核心跟踪字符串
+     */
+    public static void recordTrace(String message) {
+        if (fullTrace) {
+            LogUtil.i(TAG_TRACE, "Trace: " + message);
+        } else if (!admit(Category.TRACE, TAG_TRACE)) {
+            return;
+        }
+        ring.append(LogManager.LogLevel.DEBUG, TAG_TRACE, message);
+    }
+
+    /**
+     * 按限速与采样判断是否记录，需要时先写入此前丢弃条数的汇总
+     */
+    private static boolean admit(Category category, String tag) {
+        long dropped = limiters[category.ordinal()].admit(SystemClock.elapsedRealtime());
+        if (dropped < 0) {
+            return false;
+        }
+        if (dropped > 0) {
+            long seq = ring.claim(LogManager.LogLevel.INFO, tag, "Rate limited, {} records dropped");
+            ring.setLong(seq, 0, dropped);
+            ring.publish(seq, 1);
+        }
+        return true;
+    }
+
+    /**
+     * 读取已记录的跟踪与事件并格式化，最早的在前
+     */
+    public static List<String> format(int maxCount) {
+        return ring.format(maxCount);
+    }
+
+    /**
+     * 按序号增量读取已记录的跟踪与事件
+     *
+     * @see LogRing#drain
+     */
+    public static long drain(long from, LogRing.Visitor visitor) {
+        return ring.drain(from, LogManager.LogLevel.VERBOSE, visitor);
+    }
+
+    /**
+     * 各类别的记录统计
+     */
+    public static String getStats() {
+        var builder = new StringBuilder();
+        builder.append("full trace ").append(fullTrace ? "on" : "off");
+        for (var limiter : limiters) {
+            builder.append("; ").append(limiter.toString());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 丢弃已记录的跟踪与事件
+     */
+    public static void clear() {
+        ring.clear();
+    }
+
+    /**
+     * 单个类别的限速与采样状态
+     */
+    private static final class Limiter {
+        private final Category category;
+        private long windowStart = 0;
+        private int windowCount = 0;
+        /**
+         * 尚未汇总的丢弃条数
+         */
+        private long pendingDropped = 0;
+        private long totalSeen = 0;
+        private long totalRecorded = 0;
+
+        Limiter(Category category) {
+            this.category = category;
+        }
+
+        /**
+         * @return 应丢弃时为 -1；否则为需要汇总的此前丢弃条数
+         */
+        synchronized long admit(long now) {
+            this.totalSeen++;
+            if (now - this.windowStart >= WINDOW) {
+                this.windowStart = now;
+                this.windowCount = 0;
+            }
+            int over = this.windowCount++ - this.category.rateLimit;
+            if (over >= 0 && over % this.category.sampleInterval != 0) {
+                this.pendingDropped++;
+                return -1;
+            }
+            this.totalRecorded++;
+            long dropped = this.pendingDropped;
+            this.pendingDropped = 0;
+            return dropped;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.ROOT, "%s: seen %d, recorded %d, dropped %d",
+                    this.category.name().toLowerCase(Locale.ROOT), this.totalSeen, this.totalRecorded,
+                    this.totalSeen - this.totalRecorded);
+        }
+    }
+}
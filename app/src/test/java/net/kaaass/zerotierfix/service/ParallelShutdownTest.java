@@ -0,0 +1,74 @@
+package net.kaaass.zerotierfix.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 由组件线程自身发起停止时，不中断自身，其余组件仍能在截止期内等待结束
+ */
+public class ParallelShutdownTest {
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * 阻塞至被中断的线程
+     */
+    private static Thread sleeper(String name) {
+        var thread = new Thread(() -> {
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException ignored) {
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void shutdownFromRegisteredThread() throws Exception {
+        var other = sleeper("other");
+        var stopped = new CountDownLatch(1);
+        var result = new AtomicBoolean(false);
+        var interruptedAfter = new AtomicBoolean(true);
+        var signalled = new AtomicBoolean(false);
+        var self = new Thread[1];
+        self[0] = new Thread(() -> {
+            var shutdown = new ParallelShutdown("test")
+                    .add("latch", stopped::countDown, timeout -> stopped.await(timeout, TimeUnit.MILLISECONDS))
+                    .addThread("self", self[0], () -> signalled.set(true))
+                    .addThread("other", other, null);
+            result.set(shutdown.run(TIMEOUT));
+            interruptedAfter.set(Thread.currentThread().isInterrupted());
+        }, "self");
+        self[0].start();
+        self[0].join(TIMEOUT * 2);
+
+        assertTrue(signalled.get());
+        assertTrue(result.get());
+        assertFalse(interruptedAfter.get());
+        assertFalse(other.isAlive());
+    }
+
+    @Test
+    public void callerInterruptStatusIsRestored() throws Exception {
+        var other = sleeper("other");
+        var result = new AtomicBoolean(false);
+        var interruptedAfter = new AtomicBoolean(false);
+        var caller = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            result.set(new ParallelShutdown("test").addThread("other", other, null).run(TIMEOUT));
+            interruptedAfter.set(Thread.currentThread().isInterrupted());
+        }, "caller");
+        caller.start();
+        caller.join(TIMEOUT * 2);
+
+        assertTrue(result.get());
+        assertTrue(interruptedAfter.get());
+        assertFalse(other.isAlive());
+    }
+}
@@ -0,0 +1,143 @@
+package net.kaaass.zerotierfix.service;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 切换 VPN 连接时，新旧读取线程交接期间的数据包不丢失、不重复
+ */
+public class TunReaderTest {
+    private static final int PACKETS = 20000;
+    /**
+     * 切换前写入旧连接的数据包数，使切换时旧连接中仍有积压
+     */
+    private static final int BEFORE_HANDOVER = 12000;
+
+    @Test
+    public void handoverNeitherLosesNorDuplicatesPackets() throws Exception {
+        var seen = new AtomicIntegerArray(PACKETS);
+        var errors = new AtomicInteger();
+        var handler = new TunReader.PacketHandler() {
+            @Override
+            public void onPacket(byte[] packet, long readTime) {
+                seen.incrementAndGet(ByteBuffer.wrap(packet).getInt());
+            }
+
+            @Override
+            public void onError(IOException e) {
+                errors.incrementAndGet();
+            }
+        };
+        var oldTun = new PacketStream();
+        var newTun = new PacketStream();
+        var oldReader = new TunReader(oldTun, handler);
+        oldReader.start();
+
+        // 模拟系统：建立新连接后，新数据包只进入新连接
+        var established = new CountDownLatch(1);
+        var producer = new Thread(() -> {
+            for (int i = 0; i < PACKETS; i++) {
+                if (i == BEFORE_HANDOVER) {
+                    established.countDown();
+                }
+                (i < BEFORE_HANDOVER ? oldTun : newTun).write(ByteBuffer.allocate(64).putInt(i).array());
+            }
+        });
+        producer.start();
+        assertTrue(established.await(10, TimeUnit.SECONDS));
+
+        // 与 TunTapAdapter#handover 相同的顺序：先启动新连接的读取线程，再排空旧连接
+        var newReader = new TunReader(newTun, handler);
+        newReader.start();
+        long drained = oldReader.drainAndStop(10000, oldTun);
+        assertFalse(oldReader.isAlive());
+        assertEquals(0, oldTun.size());
+
+        producer.join();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (newTun.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        newReader.drainAndStop(10000, newTun);
+
+        for (int i = 0; i < PACKETS; i++) {
+            assertEquals("packet " + i, 1, seen.get(i));
+        }
+        assertEquals(0, errors.get());
+        System.out.println("Handover drained " + drained + " packets from the old tunnel");
+    }
+
+    @Test
+    public void readErrorsOutsideHandoverAreReported() throws Exception {
+        var errors = new CountDownLatch(1);
+        var tun = new PacketStream();
+        var reader = new TunReader(tun, new TunReader.PacketHandler() {
+            @Override
+            public void onPacket(byte[] packet, long readTime) {
+            }
+
+            @Override
+            public void onError(IOException e) {
+                errors.countDown();
+            }
+        });
+        reader.start();
+        tun.close();
+        assertTrue(errors.await(5, TimeUnit.SECONDS));
+        reader.interrupt();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+    }
+
+    /**
+     * 模拟 VPN 连接的输入流：每次读取返回一个完整的数据包，无数据时返回 0，关闭后读取失败。
+     * 管道流会合并连续写入的数据，无法保留数据包边界，因此不使用
+     */
+    private static final class PacketStream extends InputStream {
+        private final ConcurrentLinkedQueue<byte[]> packets = new ConcurrentLinkedQueue<>();
+        private volatile boolean closed = false;
+
+        void write(byte[] packet) {
+            this.packets.add(packet);
+        }
+
+        int size() {
+            return this.packets.size();
+        }
+
+        @Override
+        public int read(byte[] buffer) throws IOException {
+            if (this.closed) {
+                throw new IOException("closed");
+            }
+            var packet = this.packets.poll();
+            if (packet == null) {
+                return 0;
+            }
+            System.arraycopy(packet, 0, buffer, 0, packet.length);
+            return packet.length;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+}
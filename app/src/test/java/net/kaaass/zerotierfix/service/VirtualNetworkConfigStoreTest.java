@@ -0,0 +1,169 @@
+package net.kaaass.zerotierfix.service;
+
+import com.zerotier.sdk.VirtualNetworkConfig;
+
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 网络配置存储的功能测试，以及与原有的加锁 HashMap 在并发读写下的对比
+ */
+public class VirtualNetworkConfigStoreTest {
+    private static final int NETWORKS = 4;
+    private static final int READERS = 3;
+    private static final long DURATION = 300;
+
+    /**
+     * 配置对象的取值与存储无关，以默认参数构造，不依赖 SDK 构造函数的具体签名
+     */
+    private static VirtualNetworkConfig newConfig() throws Exception {
+        Constructor<?> constructor = VirtualNetworkConfig.class.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        var types = constructor.getParameterTypes();
+        var args = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == boolean.class) {
+                args[i] = false;
+            } else if (types[i] == int.class) {
+                args[i] = 0;
+            } else if (types[i] == long.class) {
+                args[i] = 0L;
+            }
+        }
+        return (VirtualNetworkConfig) constructor.newInstance(args);
+    }
+
+    @Test
+    public void putGetRemove() throws Exception {
+        var store = new VirtualNetworkConfigStore();
+        var first = newConfig();
+        var second = newConfig();
+        assertNull(store.put(3, first));
+        assertNull(store.put(1, second));
+        assertArrayEquals(new long[]{1, 3}, store.networkIds());
+        assertSame(first, store.get(3));
+        assertSame(first, store.put(3, second));
+        assertSame(second, store.get(3));
+        assertSame(second, store.remove(1));
+        assertNull(store.get(1));
+        assertNull(store.remove(1));
+        assertArrayEquals(new long[]{3}, store.networkIds());
+    }
+
+    @Test
+    public void listenersSeeChangesInWriteOrder() throws Exception {
+        var store = new VirtualNetworkConfigStore();
+        var changes = new ArrayList<String>();
+        store.addListener((networkId, oldConfig, newConfig) ->
+                changes.add(networkId + ":" + (oldConfig != null) + ":" + (newConfig != null)));
+        var config = newConfig();
+        store.put(1, config);
+        store.put(1, config);
+        store.put(2, config);
+        store.clear();
+        assertEquals(List.of("1:false:true", "1:true:true", "2:false:true", "1:true:false", "2:true:false"),
+                changes);
+    }
+
+    /**
+     * 数据包线程持续读取、配置线程持续更新时，对比两种实现的读取吞吐量。
+     * 吞吐量受运行环境影响，只输出不断言；断言读取方始终能读到已有的配置
+     */
+    @Test
+    public void contentionAgainstSynchronizedHashMap() throws Exception {
+        var configs = new VirtualNetworkConfig[]{newConfig(), newConfig()};
+
+        var map = new HashMap<Long, VirtualNetworkConfig>();
+        for (long id = 0; id < NETWORKS; id++) {
+            map.put(id, configs[0]);
+        }
+        long lockedReads = run(id -> {
+            synchronized (map) {
+                return map.get(id);
+            }
+        }, (id, config) -> {
+            synchronized (map) {
+                map.put(id, config);
+            }
+        }, configs);
+
+        var store = new VirtualNetworkConfigStore();
+        for (long id = 0; id < NETWORKS; id++) {
+            store.put(id, configs[0]);
+        }
+        long snapshotReads = run(store::get, store::put, configs);
+
+        System.out.printf("%d readers, 1 writer, %d ms: synchronized HashMap %d reads, snapshot store %d reads (%.2fx)%n",
+                READERS, DURATION, lockedReads, snapshotReads, (double) snapshotReads / Math.max(1, lockedReads));
+    }
+
+    private static long run(Reader reader, Writer writer, VirtualNetworkConfig[] configs) throws Exception {
+        var stop = new AtomicBoolean(false);
+        var reads = new AtomicLong();
+        var misses = new AtomicLong();
+        var start = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < READERS; i++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                long count = 0;
+                while (!stop.get()) {
+                    if (reader.get(count % NETWORKS) == null) {
+                        misses.incrementAndGet();
+                    }
+                    count++;
+                }
+                reads.addAndGet(count);
+            }));
+        }
+        threads.add(new Thread(() -> {
+            await(start);
+            long count = 0;
+            while (!stop.get()) {
+                writer.put(count % NETWORKS, configs[(int) (count / NETWORKS % 2)]);
+                count++;
+            }
+        }));
+        for (var thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        Thread.sleep(DURATION);
+        stop.set(true);
+        for (var thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        assertEquals(0, misses.get());
+        return reads.get();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Reader {
+        VirtualNetworkConfig get(long networkId);
+    }
+
+    private interface Writer {
+        void put(long networkId, VirtualNetworkConfig config);
+    }
+}
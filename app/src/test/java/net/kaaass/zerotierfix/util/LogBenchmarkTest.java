@@ -0,0 +1,148 @@
+package net.kaaass.zerotierfix.util;
+
+import com.zerotier.sdk.util.StringUtils;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 单个数据包日志开销的基准测试
+ * <p>
+ * 以发送一个 IPv4 数据包时 {@code TunTapAdapter} 记录的调试日志为样本，比较三种情况：
+ * 原内部日志的写法（立即拼接字符串、每行新建 {@link SimpleDateFormat}、写入加锁的链表），
+ * 写入 {@link LogRing} 的延迟格式化写法，以及调试级别关闭时的写法。
+ * 均不含输出到系统日志的开销。耗时受运行环境影响，只输出不断言
+ */
+public class LogBenchmarkTest {
+    private static final String TAG = "TunTapAdapter";
+    private static final int LEGACY_MAX_LINES = 10000;
+
+    private static final int PACKETS = 20000;
+    private static final int LINES_PER_PACKET = 5;
+    private static final int RING_CAPACITY = 8192;
+
+    private static volatile int minLevel = LogManager.LogLevel.DEBUG.ordinal();
+
+    private static volatile Object sink;
+
+    @Test
+    public void perPacketLoggingCost() throws UnknownHostException {
+        int packets = PACKETS;
+        var sourceIP = InetAddress.getByName("10.147.17.2");
+        var destIP = InetAddress.getByName("10.147.17.8");
+        var localV4Address = sourceIP;
+        long localMac = 0x32a1b2c3d4e5L;
+        long destMac = 0x3245f0e1d2c3L;
+        int length = 1400;
+
+        // 预热
+        legacy(packets / 10, new LinkedList<>(), sourceIP, destIP, localV4Address, localMac, destMac, length);
+        ring(packets / 10, new LogRing(RING_CAPACITY), sourceIP, destIP, localV4Address, localMac, destMac, length);
+
+        long start = System.nanoTime();
+        legacy(packets, new LinkedList<>(), sourceIP, destIP, localV4Address, localMac, destMac, length);
+        long legacyTime = System.nanoTime() - start;
+
+        var logRing = new LogRing(RING_CAPACITY);
+        start = System.nanoTime();
+        ring(packets, logRing, sourceIP, destIP, localV4Address, localMac, destMac, length);
+        long ringTime = System.nanoTime() - start;
+
+        minLevel = LogManager.LogLevel.INFO.ordinal();
+        start = System.nanoTime();
+        ring(packets, logRing, sourceIP, destIP, localV4Address, localMac, destMac, length);
+        long gatedTime = System.nanoTime() - start;
+        minLevel = LogManager.LogLevel.DEBUG.ordinal();
+
+        start = System.nanoTime();
+        int lines = logRing.format(Integer.MAX_VALUE).size();
+        long formatTime = System.nanoTime() - start;
+
+        // 关闭调试级别时不写入，环中只有一轮的记录
+        assertEquals(Math.min(packets * LINES_PER_PACKET, RING_CAPACITY), lines);
+        System.out.printf(Locale.ROOT,
+                "Per-packet logging cost (%d packets, %d debug lines each): "
+                        + "eager %d ns, ring %d ns, gated off %d ns; formatting %d ring lines took %d ms%n",
+                packets, LINES_PER_PACKET, legacyTime / packets, ringTime / packets, gatedTime / packets,
+                lines, formatTime / 1000000);
+    }
+
+    /**
+     * 原内部日志的写法
+     */
+    private static void legacy(int packets, LinkedList<String> buffer, InetAddress sourceIP, InetAddress destIP,
+                               InetAddress localV4Address, long localMac, long destMac, int length) {
+        for (int i = 0; i < packets; i++) {
+            legacyLog(buffer, "处理IPv4数据包: 源IP=" + sourceIP + ", 目的IP=" + destIP + ", 数据包大小=" + length);
+            legacyLog(buffer, "路由决策: 目的IP=" + destIP + ", 选择路由=" + "无" + ", 网关=" + "无");
+            legacyLog(buffer, "本地IPv4地址: " + localV4Address + "/" + 24);
+            legacyLog(buffer, "发送IPv4数据包: 本地MAC=" + StringUtils.macAddressToString(localMac) +
+                    ", 目标MAC=" + StringUtils.macAddressToString(destMac) +
+                    ", 目的IP=" + destIP);
+            legacyLog(buffer, "数据包已发送至ZeroTier: 目的IP=" + destIP);
+        }
+        sink = buffer;
+    }
+
+    private static void legacyLog(LinkedList<String> buffer, String message) {
+        String timestamp = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.getDefault()).format(new Date());
+        String threadInfo = Thread.currentThread().getName() + "(" + Thread.currentThread().getId() + ")";
+        String logEntry = timestamp + " " + threadInfo + " " + "D" + "/" + TAG + ": " + message;
+        synchronized (buffer) {
+            buffer.add(logEntry);
+            while (buffer.size() > LEGACY_MAX_LINES) {
+                buffer.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * 延迟格式化的写法，与 {@link LogUtil} 的带参数方法相同
+     */
+    private static void ring(int packets, LogRing logRing, InetAddress sourceIP, InetAddress destIP,
+                             InetAddress localV4Address, long localMac, long destMac, int length) {
+        for (int i = 0; i < packets; i++) {
+            if (minLevel <= LogManager.LogLevel.DEBUG.ordinal()) {
+                long seq = logRing.claim(LogManager.LogLevel.DEBUG, TAG, "处理IPv4数据包: 源IP={}, 目的IP={}, 数据包大小={}");
+                logRing.setObject(seq, 0, sourceIP);
+                logRing.setObject(seq, 1, destIP);
+                logRing.setLong(seq, 2, length);
+                logRing.publish(seq, 3);
+            }
+            if (minLevel <= LogManager.LogLevel.DEBUG.ordinal()) {
+                long seq = logRing.claim(LogManager.LogLevel.DEBUG, TAG, "路由决策: 目的IP={}, 选择路由={}, 网关={}");
+                logRing.setObject(seq, 0, destIP);
+                logRing.setObject(seq, 1, null);
+                logRing.setObject(seq, 2, null);
+                logRing.publish(seq, 3);
+            }
+            if (minLevel <= LogManager.LogLevel.DEBUG.ordinal()) {
+                long seq = logRing.claim(LogManager.LogLevel.DEBUG, TAG, "本地IPv4地址: {}/{}");
+                logRing.setObject(seq, 0, localV4Address);
+                logRing.setLong(seq, 1, 24);
+                logRing.publish(seq, 2);
+            }
+            if (minLevel <= LogManager.LogLevel.DEBUG.ordinal()) {
+                long seq = logRing.claim(LogManager.LogLevel.DEBUG, TAG, "发送IPv4数据包: 本地MAC={mac}, 目标MAC={mac}, 目的IP={}");
+                logRing.setLong(seq, 0, localMac);
+                logRing.setLong(seq, 1, destMac);
+                logRing.setObject(seq, 2, destIP);
+                logRing.publish(seq, 3);
+            }
+            if (minLevel <= LogManager.LogLevel.DEBUG.ordinal()) {
+                long seq = logRing.claim(LogManager.LogLevel.DEBUG, TAG, "数据包已发送至ZeroTier: 目的IP={}");
+                logRing.setObject(seq, 0, destIP);
+                logRing.publish(seq, 1);
+            }
+        }
+        sink = logRing;
+    }
+}
@@ -0,0 +1,116 @@
+package net.kaaass.zerotierfix.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 后台执行的查询与在主线程直接查询的结果一致，并正确处理查询期间的追加、清空与取消
+ */
+public class LogIndexTest {
+    private static final int MAX_RECORDS = 30000;
+    private static final String[] TAGS = {"TunTapAdapter", "UdpCom", "ZeroTierOneService", "LogsFragment"};
+
+    private static List<LogRecord> records(int from, int count) {
+        var levels = LogManager.LogLevel.values();
+        var batch = new ArrayList<LogRecord>(count);
+        for (int i = from; i < from + count; i++) {
+            batch.add(new LogRecord(i, 1000L * i, levels[i % levels.length], TAGS[i % TAGS.length], 1, 1,
+                    "packet " + i + " from 10.0.0." + (i % 256)));
+        }
+        return batch;
+    }
+
+    private static void assertSameResult(LogIndex expected, LogIndex actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getSequence(), actual.get(i).getSequence());
+        }
+        for (var level : LogManager.LogLevel.values()) {
+            assertEquals(level.name(), expected.countLevel(level), actual.countLevel(level));
+        }
+        for (var tag : TAGS) {
+            assertEquals(tag, expected.countTag(tag), actual.countTag(tag));
+        }
+        assertEquals(expected.getScannedRecords(), actual.getScannedRecords());
+    }
+
+    @Test
+    public void backgroundQueryMatchesDirectQuery() throws Exception {
+        var queries = new LogIndex.Query[]{
+                new LogIndex.Query(LogManager.LogLevel.INFO, null, 0, null, null),
+                new LogIndex.Query(LogManager.LogLevel.VERBOSE, "UdpCom", 0, null, null),
+                new LogIndex.Query(LogManager.LogLevel.DEBUG, null, 0, "10.0.0.7", null),
+                new LogIndex.Query(LogManager.LogLevel.VERBOSE, "TunTapAdapter", 5000 * 1000L, null,
+                        Pattern.compile("packet \\d+5 ", Pattern.CASE_INSENSITIVE)),
+        };
+        for (var query : queries) {
+            var direct = new LogIndex(MAX_RECORDS);
+            direct.append(records(0, 10000));
+            direct.setQuery(query);
+
+            var background = new LogIndex(MAX_RECORDS);
+            background.append(records(0, 10000));
+            var task = background.prepareQuery(query);
+            var thread = new Thread(task::run);
+            thread.start();
+            thread.join();
+            assertTrue(background.applyQuery(task));
+            assertSameResult(direct, background);
+        }
+    }
+
+    @Test
+    public void recordsAppendedDuringQueryAreIncluded() {
+        var query = new LogIndex.Query(LogManager.LogLevel.VERBOSE, null, 0, "packet", null);
+        var direct = new LogIndex(MAX_RECORDS);
+        direct.append(records(0, 3000));
+        direct.setQuery(query);
+
+        var background = new LogIndex(MAX_RECORDS);
+        background.append(records(0, 2000));
+        var task = background.prepareQuery(query);
+        task.run();
+        background.append(records(2000, 1000));
+        assertTrue(background.applyQuery(task));
+        assertEquals(3000, background.size());
+        // 补充判断的记录不计入扫描数，其余与直接查询一致
+        assertEquals(direct.size(), background.size());
+        for (var level : LogManager.LogLevel.values()) {
+            assertEquals(direct.countLevel(level), background.countLevel(level));
+        }
+        background.append(records(3000, 10));
+        assertEquals(3010, background.size());
+    }
+
+    @Test
+    public void staleQueriesAreRejected() {
+        var query = new LogIndex.Query(LogManager.LogLevel.VERBOSE, null, 0, "packet", null);
+        var index = new LogIndex(MAX_RECORDS);
+        index.append(records(0, 1000));
+
+        var cleared = index.prepareQuery(query);
+        cleared.run();
+        index.clear();
+        assertFalse(index.applyQuery(cleared));
+
+        index.append(records(0, 1000));
+        var cancelled = index.prepareQuery(query);
+        cancelled.cancel();
+        cancelled.run();
+        assertFalse(index.applyQuery(cancelled));
+        assertEquals(1000, index.size());
+
+        // 超过上限时丢弃最早的记录，位置随之变化
+        var trimmed = index.prepareQuery(query);
+        trimmed.run();
+        index.append(records(1000, MAX_RECORDS));
+        assertFalse(index.applyQuery(trimmed));
+    }
+}